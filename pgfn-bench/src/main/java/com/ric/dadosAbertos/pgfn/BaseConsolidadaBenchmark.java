@@ -0,0 +1,59 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Separação dos campos e projeção de cada linha de uma base individual inteira no layout da base consolidada,
+ * em {@code escreveBaseConsolidada*}. A base individual é criada sem filtro, com todas as linhas da base
+ * sintética, e a saída é descartada, para medir só a leitura e a projeção.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BaseConsolidadaBenchmark {
+	private Path arqIndividual;
+
+	@Setup
+	public void prepara(BasesSinteticas bases) throws IOException {
+		arqIndividual = bases.dirSaida.resolve("completa_" + bases.base.getNomeArquivo());
+		new JuntaArquivosPGFN().criaBaseIndividual(arqIndividual, bases.dirBase(), bases.base, ConjuntoCNPJ.vazio());
+	}
+
+	@Benchmark
+	public void escreveBaseConsolidada(BasesSinteticas bases) throws IOException {
+		JuntaArquivosPGFN juntador = new JuntaArquivosPGFN();
+		WritableByteChannel descarte = Channels.newChannel(OutputStream.nullOutputStream());
+		switch (bases.base) {
+		case FGTS:
+			juntador.escreveBaseConsolidadaFGTS(arqIndividual, descarte);
+			break;
+		case PREVIDENCIARIO:
+			juntador.escreveBaseConsolidadaPrevidenciario(arqIndividual, descarte);
+			break;
+		case NAO_PREVIDENCIARIO:
+			juntador.escreveBaseConsolidadaNaoPrevidenciario(arqIndividual, descarte);
+			break;
+		default:
+			throw new IllegalArgumentException(bases.base.toString());
+		}
+	}
+}
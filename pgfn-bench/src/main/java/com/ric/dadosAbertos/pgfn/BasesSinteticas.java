@@ -0,0 +1,53 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Bases sintéticas de {@code linhas} linhas usadas pelos benchmarks que leem arquivos inteiros, geradas
+ * uma única vez por tamanho (ver {@link GeradorBasesPGFN#dadosEmCache(long, int)}), e um diretório
+ * temporário para as saídas, apagado ao final.
+ *
+ * Para medir com outros tamanhos: {@code java -jar target/benchmarks.jar -p linhas=10000000}.
+ */
+@State(Scope.Benchmark)
+public class BasesSinteticas {
+	@Param({ "1000000" })
+	public long linhas;
+
+	@Param({ "NAO_PREVIDENCIARIO" })
+	public TipoBase base;
+
+	Path dir;
+	Path dirSaida;
+	ConjuntoCNPJ cnpjs;
+
+	@Setup(Level.Trial)
+	public void prepara() throws IOException {
+		dir = GeradorBasesPGFN.dadosEmCache(linhas, 1);
+		dirSaida = Files.createTempDirectory("pgfn-bench");
+		cnpjs = new JuntaArquivosPGFN().leArquivoCNPJs(Optional.of(dir.resolve(GeradorBasesPGFN.ARQUIVO_CNPJS)));
+	}
+
+	@TearDown(Level.Trial)
+	public void apaga() throws IOException {
+		BaixadorArquivos.apagaDiretorio(dirSaida);
+	}
+
+	Path dirBase() {
+		return GeradorBasesPGFN.dirBase(dir, base);
+	}
+
+	Path arquivoZip() {
+		return GeradorBasesPGFN.arquivoZip(dir, base);
+	}
+}
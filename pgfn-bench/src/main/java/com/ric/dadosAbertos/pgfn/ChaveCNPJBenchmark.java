@@ -0,0 +1,74 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversão do CPF/CNPJ formatado na chave numérica de {@link ConjuntoCNPJ}, feita para toda linha lida,
+ * a partir dos bytes da linha e a partir de um texto, como nas listas de CNPJs e nas consultas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChaveCNPJBenchmark {
+	private static final int QUANTIDADE = 4096;
+
+	private String[] textos;
+	private ByteBuffer bytes;
+	private int[] inicios;
+	private int[] fins;
+
+	@Setup
+	public void prepara() {
+		GeradorBasesPGFN gerador = new GeradorBasesPGFN(4L * QUANTIDADE, 1, 1);
+		textos = new String[QUANTIDADE];
+		inicios = new int[QUANTIDADE];
+		fins = new int[QUANTIDADE];
+
+		StringBuilder linhas = new StringBuilder();
+		for (int i = 0; i < QUANTIDADE; i++) {
+			textos[i] = gerador.documento(i);
+			inicios[i] = linhas.length();
+			linhas.append(textos[i]);
+			fins[i] = linhas.length();
+			linhas.append(';');
+		}
+		bytes = ByteBuffer.wrap(linhas.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUANTIDADE)
+	public long chaveBytes() {
+		long soma = 0;
+		for (int i = 0; i < QUANTIDADE; i++) {
+			soma += ConjuntoCNPJ.chave(bytes, inicios[i], fins[i]);
+		}
+		return soma;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUANTIDADE)
+	public long chaveTexto() {
+		long soma = 0;
+		for (int i = 0; i < QUANTIDADE; i++) {
+			soma += ConjuntoCNPJ.chave(textos[i]);
+		}
+		return soma;
+	}
+}
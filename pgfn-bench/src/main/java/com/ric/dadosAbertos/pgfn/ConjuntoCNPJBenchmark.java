@@ -0,0 +1,87 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Verificação de pertinência na lista de CNPJs, feita para toda linha das bases. Metade das chaves
+ * consultadas está na lista; a outra metade é de CNPJs ausentes, o caso mais comum na filtragem.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConjuntoCNPJBenchmark {
+	private static final int QUANTIDADE = 4096;
+
+	@Param({ "100", "10000", "1000000" })
+	public int tamanhoLista;
+
+	private ConjuntoCNPJ conjunto;
+	private long[] chaves;
+
+	@Setup
+	public void prepara() throws IOException {
+		//Os primeiros CNPJs ficam na lista, e os seguintes são os ausentes
+		String[] cnpjs = cnpjs(new GeradorBasesPGFN(1, 1, 1), tamanhoLista + QUANTIDADE / 2);
+		Path lista = Files.createTempFile("pgfn-bench", ".txt");
+		try {
+			try (Writer saida = Files.newBufferedWriter(lista, StandardCharsets.ISO_8859_1);) {
+				for (int i = 0; i < tamanhoLista; i++) {
+					saida.write(cnpjs[i] + System.lineSeparator());
+				}
+			}
+			conjunto = ConjuntoCNPJ.leArquivo(lista);
+		} finally {
+			Files.delete(lista);
+		}
+
+		chaves = new long[QUANTIDADE];
+		for (int i = 0; i < QUANTIDADE; i++) {
+			chaves[i] = ConjuntoCNPJ.chave(i % 2 == 0 ? cnpjs[i / 2 % tamanhoLista] : cnpjs[tamanhoLista + i / 2]);
+		}
+	}
+
+	//CNPJs dos primeiros devedores, pulando os CPFs mascarados, que não podem estar em uma lista
+	private static String[] cnpjs(GeradorBasesPGFN gerador, int quantidade) {
+		String[] cnpjs = new String[quantidade];
+		for (int devedor = 0, i = 0; i < quantidade; devedor++) {
+			String documento = gerador.documento(devedor);
+			if (ConjuntoCNPJ.chave(documento) != ConjuntoCNPJ.CHAVE_INVALIDA) {
+				cnpjs[i++] = documento;
+			}
+		}
+		return cnpjs;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUANTIDADE)
+	public int contem() {
+		int encontradas = 0;
+		for (long chave : chaves) {
+			if (conjunto.contem(chave)) {
+				encontradas++;
+			}
+		}
+		return encontradas;
+	}
+}
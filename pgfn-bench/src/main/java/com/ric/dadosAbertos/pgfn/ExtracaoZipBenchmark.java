@@ -0,0 +1,47 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extração do zip de uma base para o disco, em {@link BaixadorArquivos#extrairZip(Path, Path)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtracaoZipBenchmark {
+	private Path dirExtracao;
+
+	@Setup(Level.Iteration)
+	public void prepara(BasesSinteticas bases) throws IOException {
+		dirExtracao = Files.createTempDirectory(bases.dirSaida, "extracao");
+	}
+
+	@TearDown(Level.Iteration)
+	public void apaga() throws IOException {
+		BaixadorArquivos.apagaDiretorio(dirExtracao);
+	}
+
+	@Benchmark
+	public void extrairZip(BasesSinteticas bases) throws IOException {
+		new BaixadorArquivos().extrairZip(dirExtracao, bases.arquivoZip());
+	}
+}
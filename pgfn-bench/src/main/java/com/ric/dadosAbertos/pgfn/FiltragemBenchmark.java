@@ -0,0 +1,36 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtragem de uma base inteira pela lista de CNPJs gerada com as bases, em {@link JuntaArquivosPGFN#criaBaseIndividual}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FiltragemBenchmark {
+	@Param({ "1", "4" })
+	public int threads;
+
+	@Benchmark
+	public void criaBaseIndividual(BasesSinteticas bases) throws IOException {
+		JuntaArquivosPGFN juntador = new JuntaArquivosPGFN();
+		juntador.setThreads(threads);
+		juntador.criaBaseIndividual(bases.dirSaida.resolve(bases.base.getNomeArquivo()), bases.dirBase(), bases.base, bases.cnpjs);
+	}
+}
@@ -0,0 +1,394 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Gera bases sintéticas no formato das bases FGTS, previdenciária e não previdenciária da PGFN
+ * (ver {@code exemplos/clubes}, que têm também a coluna ARQUIVO_ORIGEM acrescentada na filtragem),
+ * com qualquer número de linhas, para os benchmarks.
+ *
+ * Os devedores são sorteados de um conjunto de {@code linhas / 4} devedores, com alguns devedores
+ * concentrando muitas inscrições, como nas bases reais. Cada devedor tem nome, UF e CNPJ fixos, com
+ * dígitos verificadores válidos; parte dos devedores são pessoas físicas com CPF mascarado, que não
+ * pode ser filtrado. A lista {@value #ARQUIVO_CNPJS} tem um a cada {@value #INTERVALO_LISTA} CNPJs
+ * dos devedores. A mesma semente gera sempre as mesmas bases.
+ *
+ * Estrutura do diretório gerado:
+ * <pre>
+ * fgts/, previdenciario/, nao_previdenciario/   CSVs de cada base
+ * zip/Dados_abertos_*.zip                        zips de cada base, como os baixados da PGFN (opcional)
+ * cnpjs.txt                                      lista de CNPJs a filtrar
+ * </pre>
+ */
+public final class GeradorBasesPGFN {
+	static final String ARQUIVO_CNPJS = "cnpjs.txt";
+	static final String DIR_ZIP = "zip";
+	private static final String MARCADOR_GERACAO = ".completo";
+	private static final int INTERVALO_LISTA = 1000;
+	private static final int PERCENTUAL_CPF = 15;
+	private static final long SEMENTE_PADRAO = 20200301;
+
+	private static final String CABECALHO_FGTS = "CPF_CNPJ;TIPO_PESSOA;TIPO_DEVEDOR;NOME_DEVEDOR;UF_UNIDADE_RESPONSAVEL;UNIDADE_RESPONSAVEL;ENTIDADE_RESPONSAVEL;UNIDADE_INSCRICAO;NUMERO_INSCRICAO;TIPO_SITUACAO_INSCRICAO;SITUACAO_INSCRICAO;RECEITA_PRINCIPAL;DATA_INSCRICAO;INDICADOR_AJUIZADO;VALOR_CONSOLIDADO";
+	private static final String CABECALHO_PREVIDENCIARIO = "CPF_CNPJ;TIPO_PESSOA;TIPO_DEVEDOR;NOME_DEVEDOR;UF_UNIDADE_RESPONSAVEL;UNIDADE_RESPONSAVEL;NUMERO_INSCRICAO;TIPO_SITUACAO_INSCRICAO;SITUACAO_INSCRICAO;TIPO_CREDITO;DATA_INSCRICAO;INDICADOR_AJUIZADO;VALOR_CONSOLIDADO";
+	private static final String CABECALHO_NAO_PREVIDENCIARIO = "CPF_CNPJ;TIPO_PESSOA;TIPO_DEVEDOR;NOME_DEVEDOR;UF_UNIDADE_RESPONSAVEL;UNIDADE_RESPONSAVEL;NUMERO_INSCRICAO;TIPO_SITUACAO_INSCRICAO;SITUACAO_INSCRICAO;RECEITA_PRINCIPAL;DATA_INSCRICAO;INDICADOR_AJUIZADO;VALOR_CONSOLIDADO";
+
+	private static final String[] UFS = {
+			"AC;ACRE", "AL;ALAGOAS", "AM;AMAZONAS", "AP;AMAPA", "BA;BAHIA", "CE;CEARA", "DF;DISTRITO FEDERAL",
+			"ES;ESPIRITO SANTO", "GO;GOIAS", "MA;MARANHAO", "MG;MINAS GERAIS", "MS;MATO GROSSO DO SUL", "MT;MATO GROSSO",
+			"PA;PARA", "PB;PARAIBA", "PE;PERNAMBUCO", "PI;PIAUI", "PR;PARANA", "RJ;RIO DE JANEIRO", "RN;RIO GRANDE DO NORTE",
+			"RO;RONDONIA", "RR;RORAIMA", "RS;RIO GRANDE DO SUL", "SC;SANTA CATARINA", "SE;SERGIPE", "SP;SAO PAULO", "TO;TOCANTINS" };
+	private static final String[] PALAVRAS_NOME = {
+			"ASSOCIACAO", "ATLETICA", "CLUBE", "SOCIEDADE", "ESPORTIVA", "COMERCIO", "INDUSTRIA", "SERVICOS", "TRANSPORTES",
+			"CONSTRUTORA", "BRASIL", "NACIONAL", "UNIAO", "SAO", "JOSE", "SANTA", "MARIA", "NOVA", "ESPERANCA", "RECREATIVA",
+			"DISTRIBUIDORA", "ALIMENTOS", "METALURGICA", "AGROPECUARIA", "EMPREENDIMENTOS", "PARTICIPACOES", "IMOVEIS" };
+	private static final String[] SUFIXOS_NOME = { "LTDA", "S/A", "EIRELI", "ME", "EPP", "" };
+	private static final String[] SITUACOES_FGTS = {
+			"Em cobrança;AJUIZADA", "Em cobrança;INSCRITA", "Benefício Fiscal;AJUIZ PARCELADA", "Benefício Fiscal;INSCR PARCELADA",
+			"Em cobrança;PETICIONADA", "Em cobrança;EMBARGADA" };
+	private static final String[] RECEITAS_FGTS = { "Contribuições FGTS", "Contribuições LC110 (FGTS)" };
+	private static final String[] SITUACOES_PREVIDENCIARIO = {
+			"Em cobrança;AJUIZAMENTO / DISTRIBUICAO", "Em cobrança;INSCRICAO DE CREDITO EM DIVIDA ATIVA", "Benefício Fiscal;NEGOCIADO NO SISPAR",
+			"Em cobrança;PARCELAMENTO RESCINDIDO", "Benefício Fiscal;PARCELAMENTO CONVENCIONAL MANUAL",
+			"Benefício Fiscal;INCLUIDO EM PARCELAMENTO SIMP. LEI 10.522" };
+	private static final String[] CREDITOS_PREVIDENCIARIO = { "OUTROS", "CONTRIBUICAO NAO REPASSADA", "AFERICAO INDIRETA", "Não Informado", "SOLIDARIEDADE" };
+	private static final String[] SITUACOES_NAO_PREVIDENCIARIO = {
+			"Em cobrança;ATIVA AJUIZADA", "Em cobrança;ATIVA NAO PRIORIZADA PARA AJUIZAMENTO", "Benefício Fiscal;ATIVA AJUIZADA NEGOCIADA NO SISPAR",
+			"Em cobrança;ATIVA EM COBRANCA", "Benefício Fiscal;ATIVA NAO AJUIZAVEL NEGOCIADA NO SISPAR", "Em cobrança;ATIVA A SER AJUIZADA" };
+	private static final String[] RECEITAS_NAO_PREVIDENCIARIO = {
+			"Receita da dívida ativa - Multa - CLT", "R D Ativa - Multa Isolada", "Receita da dívida ativa - IRRF",
+			"Receita da dívida ativa - SPU", "Receita da dívida ativa - PIS", "Receita da dívida ativa - COFINS" };
+
+	private final long linhas;
+	private final int arquivos;
+	private final long semente;
+	private final int devedores;
+
+	/**
+	 * @param linhas número de linhas de cada base
+	 * @param arquivos número de arquivos CSV em que as linhas de cada base são divididas
+	 */
+	public GeradorBasesPGFN(long linhas, int arquivos, long semente) {
+		this.linhas = linhas;
+		this.arquivos = arquivos;
+		this.semente = semente;
+		this.devedores = (int) Math.max(1, Math.min(Integer.MAX_VALUE, linhas / 4));
+	}
+
+	public static void main(String[] args) {
+		Options options = new Options()
+				.addRequiredOption("o", "output", true, "(Obrigatório) Diretório onde as bases são geradas")
+				.addRequiredOption("l", "linhas", true, "(Obrigatório) Número de linhas de cada base")
+				.addOption("a", "arquivos", true, "(Opcional) Número de arquivos CSV de cada base (padrão 1)")
+				.addOption("z", "zip", false, "(Opcional) Gera também os zips de cada base, como os baixados da PGFN")
+				.addOption("s", "semente", true, "(Opcional) Semente do gerador aleatório");
+
+		try {
+			CommandLine cmd = new DefaultParser().parse(options, args);
+			int arquivos = cmd.hasOption("arquivos") ? Integer.parseInt(cmd.getOptionValue("arquivos")) : 1;
+			long semente = cmd.hasOption("semente") ? Long.parseLong(cmd.getOptionValue("semente")) : SEMENTE_PADRAO;
+			GeradorBasesPGFN gerador = new GeradorBasesPGFN(Long.parseLong(cmd.getOptionValue("linhas")), arquivos, semente);
+
+			long t0 = System.nanoTime();
+			Path dir = Paths.get(cmd.getOptionValue("output"));
+			gerador.gera(dir);
+			if (cmd.hasOption("zip")) {
+				geraZips(dir);
+			}
+			System.out.println("Bases geradas em " + (System.nanoTime() - t0) / 1E9 + "s.");
+		} catch (ParseException | NumberFormatException e) {
+			System.err.println("Erro: " + e.getLocalizedMessage());
+			new HelpFormatter().printHelp("GeradorBasesPGFN", options);
+		} catch (IOException e) {
+			throw new RuntimeException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Diretório com as bases de {@code linhas} linhas, incluindo os zips, geradas com a semente padrão em um
+	 * diretório temporário compartilhado entre as execuções dos benchmarks, para que bases grandes só sejam
+	 * geradas uma vez.
+	 */
+	static synchronized Path dadosEmCache(long linhas, int arquivos) throws IOException {
+		Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "pgfn-bench", linhas + "-" + arquivos);
+		Path marcador = dir.resolve(MARCADOR_GERACAO);
+		if (!Files.exists(marcador)) {
+			if (Files.exists(dir)) {
+				BaixadorArquivos.apagaDiretorio(dir);
+			}
+			System.out.println("Gerando bases sintéticas de " + linhas + " linhas em " + dir);
+			new GeradorBasesPGFN(linhas, arquivos, SEMENTE_PADRAO).gera(dir);
+			geraZips(dir);
+			Files.createFile(marcador);
+		}
+		return dir;
+	}
+
+	static Path dirBase(Path dir, TipoBase base) {
+		String nome = base.getNomeArquivo();
+		return dir.resolve(nome.substring(0, nome.length() - ".csv".length()));
+	}
+
+	/**
+	 * Gera os CSVs das três bases e a lista de CNPJs no diretório.
+	 */
+	public void gera(Path dir) throws IOException {
+		for (TipoBase base : TipoBase.values()) {
+			Path dirBase = dirBase(dir, base);
+			Files.createDirectories(dirBase);
+			//Cada base tem sua própria sequência, derivada da semente
+			SplittableRandom aleatorio = new SplittableRandom(semente + base.ordinal());
+			long inicio = 0;
+			for (int arquivo = 1; arquivo <= arquivos; arquivo++) {
+				long fim = linhas * arquivo / arquivos;
+				Path csv = dirBase.resolve("arquivo_lai_" + base.getArquivoOrigem() + "_" + arquivo + ".csv");
+				try (Writer saida = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(csv), StandardCharsets.ISO_8859_1), 1024 * 1024);) {
+					saida.write(cabecalho(base));
+					saida.write(System.lineSeparator());
+					StringBuilder linha = new StringBuilder(256);
+					for (long i = inicio; i < fim; i++) {
+						linha.setLength(0);
+						escreveLinha(linha, base, aleatorio);
+						saida.append(linha);
+					}
+				}
+				inicio = fim;
+			}
+		}
+
+		try (Writer saida = Files.newBufferedWriter(dir.resolve(ARQUIVO_CNPJS), StandardCharsets.ISO_8859_1);) {
+			for (int devedor = 0; devedor < devedores; devedor += INTERVALO_LISTA) {
+				if (!isPessoaFisica(devedor)) {
+					saida.write(documento(devedor));
+					saida.write(System.lineSeparator());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gera em {@code dir/zip} os zips de cada base, com os CSVs já gerados no diretório.
+	 */
+	public static void geraZips(Path dir) throws IOException {
+		Path dirZip = dir.resolve(DIR_ZIP);
+		Files.createDirectories(dirZip);
+		for (TipoBase base : TipoBase.values()) {
+			List<Path> csvs;
+			try (Stream<Path> arquivos = Files.list(dirBase(dir, base));) {
+				csvs = arquivos.sorted().collect(Collectors.toList());
+			}
+			try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(arquivoZip(dir, base)));) {
+				for (Path csv : csvs) {
+					zip.putNextEntry(new ZipEntry(csv.getFileName().toString()));
+					Files.copy(csv, zip);
+					zip.closeEntry();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Zip gerado para a base, com o mesmo nome do zip publicado pela PGFN.
+	 */
+	static Path arquivoZip(Path dir, TipoBase base) {
+		switch (base) {
+		case FGTS:
+			return dir.resolve(DIR_ZIP).resolve("Dados_abertos_FGTS.zip");
+		case PREVIDENCIARIO:
+			return dir.resolve(DIR_ZIP).resolve("Dados_abertos_Previdenciario.zip");
+		case NAO_PREVIDENCIARIO:
+			return dir.resolve(DIR_ZIP).resolve("Dados_abertos_Nao_Previdenciario.zip");
+		default:
+			throw new IllegalArgumentException(base.toString());
+		}
+	}
+
+	static Map<TipoBase, Path> dirsBases(Path dir) {
+		Map<TipoBase, Path> dirs = new EnumMap<>(TipoBase.class);
+		for (TipoBase base : TipoBase.values()) {
+			dirs.put(base, dirBase(dir, base));
+		}
+		return dirs;
+	}
+
+	private static String cabecalho(TipoBase base) {
+		switch (base) {
+		case FGTS:
+			return CABECALHO_FGTS;
+		case PREVIDENCIARIO:
+			return CABECALHO_PREVIDENCIARIO;
+		case NAO_PREVIDENCIARIO:
+			return CABECALHO_NAO_PREVIDENCIARIO;
+		default:
+			throw new IllegalArgumentException(base.toString());
+		}
+	}
+
+	private void escreveLinha(StringBuilder linha, TipoBase base, SplittableRandom aleatorio) {
+		//O quadrado concentra as inscrições nos primeiros devedores
+		double sorteio = aleatorio.nextDouble();
+		int devedor = (int) (sorteio * sorteio * devedores);
+		boolean pessoaFisica = isPessoaFisica(devedor);
+		String uf = UFS[(int) ((espalha(devedor) >>> 1) % UFS.length)];
+
+		linha.append(documento(devedor)).append(';');
+		linha.append(pessoaFisica ? "Pessoa física" : "Pessoa jurídica").append(';');
+		if (base == TipoBase.NAO_PREVIDENCIARIO) {
+			linha.append(aleatorio.nextInt(100) < 2 ? "CORRESPONSAVEL" : "PRINCIPAL").append(';');
+		} else {
+			linha.append("Principal").append(';');
+		}
+		nome(linha, devedor, pessoaFisica);
+		linha.append(';').append(uf).append(';');
+
+		switch (base) {
+		case FGTS:
+			linha.append("PGFN;").append(uf, uf.indexOf(';') + 1, uf.length()).append(';');
+			linha.append("FG").append(uf, 0, 2).append(2000 + aleatorio.nextInt(21));
+			preenche(linha, aleatorio.nextInt(100000), 5).append(';');
+			linha.append(sorteia(SITUACOES_FGTS, aleatorio)).append(';');
+			linha.append(sorteia(RECEITAS_FGTS, aleatorio)).append(';');
+			break;
+		case PREVIDENCIARIO:
+			linha.append(140000000 + aleatorio.nextInt(20000000)).append(';');
+			linha.append(sorteia(SITUACOES_PREVIDENCIARIO, aleatorio)).append(';');
+			linha.append(sorteia(CREDITOS_PREVIDENCIARIO, aleatorio)).append(';');
+			break;
+		case NAO_PREVIDENCIARIO:
+			linha.append(2 + aleatorio.nextInt(8));
+			preenche(linha, aleatorio.nextLong(1000000000000L), 12).append(';');
+			linha.append(sorteia(SITUACOES_NAO_PREVIDENCIARIO, aleatorio)).append(';');
+			linha.append(sorteia(RECEITAS_NAO_PREVIDENCIARIO, aleatorio)).append(';');
+			break;
+		default:
+			throw new IllegalArgumentException(base.toString());
+		}
+
+		int dia = 1 + aleatorio.nextInt(28);
+		int mes = 1 + aleatorio.nextInt(12);
+		linha.append(dia < 10 ? "0" : "").append(dia).append('/').append(mes < 10 ? "0" : "").append(mes).append('/').append(1980 + aleatorio.nextInt(41)).append(';');
+		linha.append(aleatorio.nextInt(100) < 55 ? "SIM" : "NAO").append(';');
+
+		//Valores com distribuição de cauda longa, incluindo o formato '.00' das bases reais
+		long centavos = (long) Math.exp(aleatorio.nextDouble() * 18);
+		if (centavos < 100) {
+			linha.append('.').append(centavos < 10 ? "0" : "").append(centavos);
+		} else {
+			linha.append(Agregacao.formataCentavos(centavos));
+		}
+		linha.append(System.lineSeparator());
+	}
+
+	private boolean isPessoaFisica(int devedor) {
+		return Long.remainderUnsigned(espalha(devedor ^ semente), 100) < PERCENTUAL_CPF;
+	}
+
+	/**
+	 * CNPJ formatado do devedor, com dígitos verificadores válidos, ou CPF mascarado se for pessoa física.
+	 */
+	String documento(int devedor) {
+		long hash = espalha(devedor ^ semente);
+		if (isPessoaFisica(devedor)) {
+			StringBuilder cpf = new StringBuilder(14).append("***.");
+			preenche(cpf, (hash >>> 8) % 1000, 3).append('.');
+			return preenche(cpf, (hash >>> 24) % 1000, 3).append("-**").toString();
+		}
+
+		int[] digitos = new int[14];
+		long raiz = (hash >>> 1) % 100000000;
+		for (int i = 7; i >= 0; i--) {
+			digitos[i] = (int) (raiz % 10);
+			raiz /= 10;
+		}
+		//Filial 0001 na maior parte dos casos
+		int filial = (hash & 0xF) == 0 ? 2 + (int) ((hash >>> 40) % 20) : 1;
+		for (int i = 11; i >= 8; i--) {
+			digitos[i] = filial % 10;
+			filial /= 10;
+		}
+		digitos[12] = digitoVerificador(digitos, 12);
+		digitos[13] = digitoVerificador(digitos, 13);
+
+		StringBuilder cnpj = new StringBuilder(18);
+		for (int i = 0; i < 14; i++) {
+			if (i == 2 || i == 5) {
+				cnpj.append('.');
+			} else if (i == 8) {
+				cnpj.append('/');
+			} else if (i == 12) {
+				cnpj.append('-');
+			}
+			cnpj.append(digitos[i]);
+		}
+		return cnpj.toString();
+	}
+
+	private static int digitoVerificador(int[] digitos, int quantidade) {
+		int soma = 0;
+		int peso = quantidade - 7;
+		for (int i = 0; i < quantidade; i++) {
+			soma += digitos[i] * peso;
+			peso = peso == 2 ? 9 : peso - 1;
+		}
+		int resto = soma % 11;
+		return resto < 2 ? 0 : 11 - resto;
+	}
+
+	private void nome(StringBuilder linha, int devedor, boolean pessoaFisica) {
+		long hash = espalha(devedor + semente);
+		int palavras = 2 + (int) ((hash >>> 60) & 3);
+		for (int i = 0; i < palavras; i++) {
+			if (i > 0) {
+				linha.append(' ');
+			}
+			linha.append(PALAVRAS_NOME[(int) ((hash >>> (i * 8)) & 0xFF) % PALAVRAS_NOME.length]);
+		}
+		String sufixo = pessoaFisica ? "" : SUFIXOS_NOME[(int) ((hash >>> 40) & 0xFF) % SUFIXOS_NOME.length];
+		if (!sufixo.isEmpty()) {
+			linha.append(' ').append(sufixo);
+		}
+	}
+
+	//Escreve o valor com zeros à esquerda até completar os dígitos
+	private static StringBuilder preenche(StringBuilder texto, long valor, int digitos) {
+		for (long limite = 10; digitos > 1; limite *= 10, digitos--) {
+			if (valor < limite) {
+				texto.append('0');
+			}
+		}
+		return texto.append(valor);
+	}
+
+	private static String sorteia(String[] valores, SplittableRandom aleatorio) {
+		//Os primeiros valores são os mais frequentes
+		double sorteio = aleatorio.nextDouble();
+		return valores[(int) (sorteio * sorteio * valores.length)];
+	}
+
+	private static long espalha(long valor) {
+		long h = valor * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		h *= 0xD6E8FEB86659FD93L;
+		return h ^ (h >>> 32);
+	}
+}
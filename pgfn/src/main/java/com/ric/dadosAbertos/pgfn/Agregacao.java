@@ -0,0 +1,240 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Totais de VALOR_CONSOLIDADO e número de inscrições por CPF/CNPJ, por UF_UNIDADE_RESPONSAVEL
+ * e por SITUACAO_INSCRICAO/INDICADOR_AJUIZADO, calculados durante a leitura das bases.
+ *
+ * Cada thread acumula seus próprios totais parciais, sem sincronização, com os valores em centavos
+ * e as colunas de poucos valores representadas por códigos de {@link Dicionario}.
+ * Os totais parciais são juntados apenas ao final, na gravação dos arquivos de totais.
+ *
+ * A exceção são os totais por CPF/CNPJ, que sem lista de CNPJs têm uma entrada por devedor da base:
+ * quando os de uma thread passam de {@link #LIMITE_CHAVES_PARCIAIS} chaves, eles são somados aos totais
+ * compartilhados da lista e recomeçam vazios. Assim a memória ocupada é a de uma tabela com todos os
+ * CPFs/CNPJs mais, no máximo, uma tabela limitada por thread, e não uma tabela completa por thread.
+ */
+final class Agregacao {
+	//Colunas da base consolidada
+	private static final int COLUNA_UF = 4;
+	private static final int COLUNA_SITUACAO = 10;
+	private static final int COLUNA_AJUIZADO = 14;
+	private static final int COLUNA_VALOR = 15;
+
+	static final String ARQUIVO_CPF_CNPJ = "totais_cpf_cnpj.csv";
+	static final String ARQUIVO_UF = "totais_uf.csv";
+	static final String ARQUIVO_SITUACAO = "totais_situacao_ajuizado.csv";
+
+	private static final int LIMITE_CHAVES_PARCIAIS = 1 << 19;
+
+	private final int listas;
+	//Totais por CPF/CNPJ de cada lista, para onde as threads descarregam os seus totais parciais
+	private final TotaisPorChave[] porChave;
+	private final Queue<Parcial[]> parciais = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<Parcial[]> parciaisThread = ThreadLocal.withInitial(this::novasParciais);
+
+	/**
+	 * Agregação com totais separados para cada uma das {@code listas} listas de CNPJs.
+	 */
+	Agregacao(int listas) {
+		this.listas = listas;
+		this.porChave = new TotaisPorChave[listas];
+		for (int i = 0; i < listas; i++) {
+			porChave[i] = new TotaisPorChave();
+		}
+	}
+
+	/**
+	 * Totais parciais da thread atual, um para cada lista.
+	 */
+	Parcial[] parciais() {
+		return parciaisThread.get();
+	}
+
+	private Parcial[] novasParciais() {
+		Parcial[] novas = new Parcial[listas];
+		for (int i = 0; i < listas; i++) {
+			novas[i] = new Parcial(porChave[i]);
+		}
+		parciais.add(novas);
+		return novas;
+	}
+
+	/**
+	 * Junta os totais parciais de todas as threads e grava os arquivos de totais de cada lista em seu diretório.
+	 */
+	void grava(List<Path> dirsSaida) throws IOException {
+		for (int lista = 0; lista < listas; lista++) {
+			TotaisPorChave porChave = this.porChave[lista];
+			Map<String, long[]> porTexto = new TreeMap<>();
+			Map<String, long[]> porUF = new TreeMap<>();
+			Map<String, long[]> porSituacao = new TreeMap<>();
+
+			for (Parcial[] parciaisThread : parciais) {
+				Parcial parcial = parciaisThread[lista];
+				parcial.porChave.paraCada(porChave::adiciona);
+				parcial.porTexto.forEach((texto, totais) -> soma(porTexto, texto, totais[0], totais[1]));
+				parcial.porUF.paraCada((uf, soma, linhas) -> soma(porUF, parcial.ufs.texto((int) uf), soma, linhas));
+				parcial.porSituacao.paraCada((par, soma, linhas) ->
+						soma(porSituacao, parcial.situacoes.texto((int) (par >>> 32)) + ";" + parcial.ajuizados.texto((int) par), soma, linhas));
+			}
+
+			Path dir = dirsSaida.get(lista);
+			System.out.println("Gravando totais em " + dir);
+			try (BufferedWriter saida = Files.newBufferedWriter(dir.resolve(ARQUIVO_CPF_CNPJ), StandardCharsets.ISO_8859_1);) {
+				saida.write("CPF_CNPJ;QUANTIDADE_INSCRICOES;VALOR_CONSOLIDADO" + System.lineSeparator());
+				porChave.paraCadaOrdenado((chave, soma, linhas) -> escreveLinha(saida, ConjuntoCNPJ.formata(chave), soma, linhas));
+				for (Map.Entry<String, long[]> total : porTexto.entrySet()) {
+					escreveLinha(saida, total.getKey(), total.getValue()[0], total.getValue()[1]);
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			escreveTotais(dir.resolve(ARQUIVO_UF), "UF_UNIDADE_RESPONSAVEL", porUF);
+			escreveTotais(dir.resolve(ARQUIVO_SITUACAO), "SITUACAO_INSCRICAO;INDICADOR_AJUIZADO", porSituacao);
+		}
+	}
+
+	private static void soma(Map<String, long[]> totais, String chave, long soma, long linhas) {
+		long[] total = totais.computeIfAbsent(chave, c -> new long[2]);
+		total[0] += soma;
+		total[1] += linhas;
+	}
+
+	private static void escreveTotais(Path arquivo, String cabecalho, Map<String, long[]> totais) throws IOException {
+		try (BufferedWriter saida = Files.newBufferedWriter(arquivo, StandardCharsets.ISO_8859_1);) {
+			saida.write(cabecalho + ";QUANTIDADE_INSCRICOES;VALOR_CONSOLIDADO" + System.lineSeparator());
+			for (Map.Entry<String, long[]> total : totais.entrySet()) {
+				escreveLinha(saida, total.getKey(), total.getValue()[0], total.getValue()[1]);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void escreveLinha(BufferedWriter saida, String chave, long soma, long linhas) {
+		try {
+			saida.write(chave + ";" + linhas + ";" + formataCentavos(soma) + System.lineSeparator());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static String formataCentavos(long centavos) {
+		long absoluto = Math.abs(centavos);
+		long fracao = absoluto % 100;
+		return (centavos < 0 ? "-" : "") + absoluto / 100 + (fracao < 10 ? ".0" : ".") + fracao;
+	}
+
+	/**
+	 * Valor em centavos do número decimal entre as posições absolutas {@code inicio} e {@code fim} do buffer,
+	 * com '.' ou ',' como separador decimal, arredondado na terceira casa. Campo vazio vale zero.
+	 */
+	static long centavos(ByteBuffer bytes, int inicio, int fim) {
+		long inteiro = 0;
+		long fracao = 0;
+		int casas = -1;
+		boolean arredonda = false;
+		boolean negativo = false;
+
+		for (int i = inicio; i < fim; i++) {
+			byte c = bytes.get(i);
+			if (c >= '0' && c <= '9') {
+				if (casas < 0) {
+					inteiro = inteiro * 10 + (c - '0');
+				} else if (casas < 2) {
+					fracao = fracao * 10 + (c - '0');
+					casas++;
+				} else if (casas == 2) {
+					arredonda = c >= '5';
+					casas++;
+				}
+			} else if ((c == '.' || c == ',') && casas < 0) {
+				casas = 0;
+			} else if (c == '-' && i == inicio) {
+				negativo = true;
+			} else {
+				throw new RuntimeException("Valor '" + new String(bytesDe(bytes, inicio, fim), StandardCharsets.ISO_8859_1) + "' inválido.");
+			}
+		}
+
+		for (int i = Math.max(casas, 0); i < 2; i++) {
+			fracao *= 10;
+		}
+		long valor = inteiro * 100 + fracao + (arredonda ? 1 : 0);
+		return negativo ? -valor : valor;
+	}
+
+	private static byte[] bytesDe(ByteBuffer bytes, int inicio, int fim) {
+		byte[] copia = new byte[fim - inicio];
+		for (int i = inicio; i < fim; i++) {
+			copia[i - inicio] = bytes.get(i);
+		}
+		return copia;
+	}
+
+	/**
+	 * Totais acumulados por uma única thread para uma lista.
+	 */
+	static final class Parcial {
+		private final TotaisPorChave total;
+		private TotaisPorChave porChave = new TotaisPorChave();
+		//Valores de CPF_CNPJ que não formam uma chave (vazios, com outros caracteres ou com '*' fora da máscara de CPF)
+		private final Map<String, long[]> porTexto = new HashMap<>();
+		private final Dicionario ufs = new Dicionario();
+		private final TotaisPorChave porUF = new TotaisPorChave();
+		private final Dicionario situacoes = new Dicionario();
+		private final Dicionario ajuizados = new Dicionario();
+		private final TotaisPorChave porSituacao = new TotaisPorChave();
+
+		private Parcial(TotaisPorChave total) {
+			this.total = total;
+		}
+
+		/**
+		 * Acumula a linha da base cujos campos foram separados em {@code inicios} e {@code fins}.
+		 */
+		void adiciona(ByteBuffer bytes, int[] inicios, int[] fins, TipoBase base) {
+			int valor = base.colunaIndividual(COLUNA_VALOR);
+			long centavos = centavos(bytes, inicios[valor], fins[valor]);
+
+			long chave = ConjuntoCNPJ.chave(bytes, inicios[0], fins[0]);
+			if (chave != ConjuntoCNPJ.CHAVE_INVALIDA) {
+				porChave.adiciona(chave, centavos);
+				if (porChave.tamanho() >= LIMITE_CHAVES_PARCIAIS) {
+					descarrega();
+				}
+			} else {
+				soma(porTexto, new String(bytesDe(bytes, inicios[0], fins[0]), StandardCharsets.ISO_8859_1), centavos, 1);
+			}
+
+			int uf = base.colunaIndividual(COLUNA_UF);
+			porUF.adiciona(ufs.codigo(bytes, inicios[uf], fins[uf]), centavos);
+
+			int situacao = base.colunaIndividual(COLUNA_SITUACAO);
+			int ajuizado = base.colunaIndividual(COLUNA_AJUIZADO);
+			long par = ((long) situacoes.codigo(bytes, inicios[situacao], fins[situacao]) << 32) | ajuizados.codigo(bytes, inicios[ajuizado], fins[ajuizado]);
+			porSituacao.adiciona(par, centavos);
+		}
+
+		private void descarrega() {
+			synchronized (total) {
+				porChave.paraCada(total::adiciona);
+			}
+			porChave = new TotaisPorChave();
+		}
+	}
+}
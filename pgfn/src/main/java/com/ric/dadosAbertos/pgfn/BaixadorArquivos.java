@@ -1,112 +1,761 @@
-package com.ric.dadosAbertos.pgfn;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-
-public class BaixadorArquivos {
-	private static final String ARQUIVO_FGTS = "http://dadosabertos.pgfn.gov.br/Dados_abertos_FGTS.zip";
-	private static final String ARQUIVO_NAO_PREVIDENCIARIO = "http://dadosabertos.pgfn.gov.br/Dados_abertos_Nao_Previdenciario.zip";
-	private static final String ARQUIVO_PREVIDENCIARIO = "http://dadosabertos.pgfn.gov.br/Dados_abertos_Previdenciario.zip";
-
-	public void baixarArquivos(Path dirFGTS, Path dirNaoPrevidenciario, Path dirPrevidenciario) {
-		HttpClient httpClient = HttpClient.newBuilder().build();
-		ExecutorService executor = Executors.newFixedThreadPool(3);
-
-		CompletableFuture<Void> futureFGTS = baixarExtrairZipAsync(dirFGTS, ARQUIVO_FGTS, httpClient, executor);
-		CompletableFuture<Void> futureNaoPrevidenciario = baixarExtrairZipAsync(dirNaoPrevidenciario, ARQUIVO_NAO_PREVIDENCIARIO, httpClient, executor);
-		CompletableFuture<Void> futurePrevidenciario = baixarExtrairZipAsync(dirPrevidenciario, ARQUIVO_PREVIDENCIARIO, httpClient, executor);
-
-		CompletableFuture.allOf(futureFGTS, futureNaoPrevidenciario, futurePrevidenciario).join();
-		executor.shutdown();
-	}
-
-	public Path baixarExtrairZip(String urlStr, HttpClient httpClient) throws IOException, InterruptedException {
-		Path tempDir = Files.createTempDirectory("pgfn_");
-		System.out.println("Arquivo " + urlStr + " => " + tempDir);
-
-		long t0 = System.nanoTime();
-
-		HttpRequest request = HttpRequest
-				.newBuilder()
-				.uri(URI.create(urlStr))
-				.GET()
-				.build();
-
-		HttpResponse<InputStream> response = httpClient.send(request, BodyHandlers.ofInputStream());
-
-		try (InputStream is = response.body();) {
-			extrairZip(tempDir, is);
-
-			double deltaT = (System.nanoTime() - t0)/1E9;
-			System.out.println("Baixado em " + deltaT + "s.");
-
-			return tempDir;
-		}
-	}
-
-	public CompletableFuture<Void> baixarExtrairZipAsync(Path dir, String urlStr, HttpClient httpClient, Executor executor) {
-		HttpRequest request = HttpRequest
-				.newBuilder()
-				.uri(URI.create(urlStr))
-				.GET()
-				.build();
-
-		System.out.println("Arquivo " + urlStr + " => " + dir);
-		return httpClient.sendAsync(request, BodyHandlers.ofInputStream())
-		.thenApplyAsync(HttpResponse::body, executor)
-		.thenAcceptAsync(is -> extrairZip(dir, is));
-	}
-
-	public void extrairZip(Path tempDir, InputStream is) {
-		long t0 = System.nanoTime();
-
-		System.out.println("Baixando arquivo e extraindo em " + tempDir);
-		try (ZipInputStream zis = new ZipInputStream(is);) {
-			ZipEntry entry = zis.getNextEntry();
-			while (entry != null) {
-				Path newFile = newFile(tempDir, entry);
-
-				try (OutputStream os = Files.newOutputStream(newFile);) {
-					zis.transferTo(os);
-				}
-
-				zis.closeEntry();
-				entry = zis.getNextEntry();
-			}
-
-			double deltaT = (System.nanoTime() - t0)/1E9;
-			System.out.println("Arquivo extraído em " + deltaT + "s.");
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	//https://www.baeldung.com/java-compress-and-uncompress
-	//https://snyk.io/research/zip-slip-vulnerability#java
-	private Path newFile(Path destinationDir, ZipEntry zipEntry) throws IOException {
-        Path destFile = destinationDir.resolve(zipEntry.getName());
-
-        destinationDir = destinationDir.toAbsolutePath().normalize();
-        destFile = destFile.toAbsolutePath().normalize();
-
-        if (!destFile.startsWith(destinationDir)) {
-            throw new IOException("Entry is outside of the target dir: " + zipEntry.getName());
-        }
-
-        return destFile;
-    }
-}
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+public class BaixadorArquivos {
+	private static final String URL_PADRAO = "http://dadosabertos.pgfn.gov.br/";
+	private static final String ARQUIVO_FGTS = "Dados_abertos_FGTS.zip";
+	private static final String ARQUIVO_NAO_PREVIDENCIARIO = "Dados_abertos_Nao_Previdenciario.zip";
+	private static final String ARQUIVO_PREVIDENCIARIO = "Dados_abertos_Previdenciario.zip";
+
+	private static final String DIR_EXTRAIDOS = "extraidos";
+	private static final String MARCADOR_EXTRACAO = ".completo";
+
+	private static final int TENTATIVAS = 5;
+	private static final long ESPERA_INICIAL_MS = 1000;
+	private static final long ESPERA_MAXIMA_MS = 30000;
+
+	private final String urlBase;
+	private int partesParalelas = 4;
+	private long tamanhoParte = 32L * 1024 * 1024;
+	private Optional<Path> dirZip = Optional.empty();
+	private Optional<Duration> idadeMaximaCache = Optional.empty();
+	private Optional<Long> tamanhoMaximoCache = Optional.empty();
+	private Metricas metricas = new Metricas();
+
+	public BaixadorArquivos() {
+		this(URL_PADRAO);
+	}
+
+	/**
+	 * @param urlBase Endereço onde estão os arquivos zip da PGFN, permitindo usar um espelho ou servidor local
+	 */
+	public BaixadorArquivos(String urlBase) {
+		this.urlBase = urlBase.endsWith("/") ? urlBase : urlBase + "/";
+	}
+
+	/**
+	 * Número máximo de partes de um mesmo arquivo baixadas ao mesmo tempo.
+	 */
+	public void setPartesParalelas(int partesParalelas) {
+		this.partesParalelas = partesParalelas;
+	}
+
+	/**
+	 * Tamanho, em bytes, de cada parte pedida ao servidor com o cabeçalho Range.
+	 */
+	public void setTamanhoParte(long tamanhoParte) {
+		this.tamanhoParte = tamanhoParte;
+	}
+
+	/**
+	 * Diretório de cache onde os arquivos zip são gravados e mantidos. As partes já baixadas ficam nesse diretório,
+	 * de forma que um download interrompido é retomado na próxima execução. Cada zip é guardado com seu ETag,
+	 * data de modificação e SHA-256, e só é baixado novamente se o servidor indicar que foi alterado; os arquivos
+	 * extraídos de cada versão do zip ficam em {@code extraidos/<SHA-256>} e também são reaproveitados.
+	 * Se não for informado, os zips são gravados em um diretório temporário e apagados após a extração.
+	 */
+	public void setDirZip(Path dirZip) {
+		this.dirZip = Optional.of(dirZip);
+	}
+
+	/**
+	 * Extrações de versões anteriores dos zips sem uso há mais tempo do que o informado são apagadas do cache.
+	 */
+	public void setIdadeMaximaCache(Duration idadeMaximaCache) {
+		this.idadeMaximaCache = Optional.of(idadeMaximaCache);
+	}
+
+	/**
+	 * Se o cache passar do tamanho informado, em bytes, as extrações de versões anteriores dos zips são
+	 * apagadas, das usadas há mais tempo para as mais recentes, até que o cache fique abaixo do limite.
+	 */
+	public void setTamanhoMaximoCache(long tamanhoMaximoCache) {
+		this.tamanhoMaximoCache = Optional.of(tamanhoMaximoCache);
+	}
+
+	/**
+	 * Métricas onde são contados os bytes baixados de cada zip e os bytes extraídos de cada arquivo.
+	 */
+	void setMetricas(Metricas metricas) {
+		this.metricas = metricas;
+	}
+
+	public String url(TipoBase base) {
+		switch (base) {
+		case FGTS:
+			return urlBase + ARQUIVO_FGTS;
+		case PREVIDENCIARIO:
+			return urlBase + ARQUIVO_PREVIDENCIARIO;
+		case NAO_PREVIDENCIARIO:
+			return urlBase + ARQUIVO_NAO_PREVIDENCIARIO;
+		default:
+			throw new IllegalArgumentException(base.toString());
+		}
+	}
+
+	/**
+	 * Baixa e extrai os arquivos das três bases, retornando o diretório com os CSVs de cada uma.
+	 */
+	public Map<TipoBase, Path> baixarArquivos() {
+		HttpClient httpClient = HttpClient.newBuilder().build();
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+
+		Map<TipoBase, CompletableFuture<Path>> futures = new EnumMap<>(TipoBase.class);
+		for (TipoBase base : TipoBase.values()) {
+			futures.put(base, baixarExtrairZipAsync(base, httpClient, executor));
+		}
+
+		//Encerra as threads mesmo se algum download falhar, para que o erro não deixe o programa parado
+		try {
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+		} finally {
+			executor.shutdown();
+		}
+
+		Map<TipoBase, Path> dirs = new EnumMap<>(TipoBase.class);
+		futures.forEach((base, future) -> dirs.put(base, future.join()));
+
+		if (dirZip.isPresent()) {
+			try {
+				limpaCache(dirs.values());
+			} catch (IOException e) {
+				System.out.println("Erro ao limpar o cache " + dirZip.get() + ": " + e.getLocalizedMessage());
+			}
+		}
+
+		return dirs;
+	}
+
+	/**
+	 * Baixa o zip extraindo-o à medida que chega em um diretório temporário, sem gravar o zip em disco.
+	 * Usado quando não há diretório de cache; uma falha refaz o download e a extração desde o início.
+	 */
+	public Path baixarExtrairZip(String urlStr, HttpClient httpClient) throws IOException {
+		Path tempDir = Files.createTempDirectory("pgfn_");
+		System.out.println("Arquivo " + urlStr + " => " + tempDir);
+
+		long t0 = System.nanoTime();
+
+		HttpRequest request = HttpRequest
+				.newBuilder()
+				.uri(URI.create(urlStr))
+				.GET()
+				.build();
+
+		Metricas.Arquivo arquivo = metricas.arquivo(Metricas.Fase.DOWNLOAD, urlStr);
+		comTentativas("download de " + urlStr, () -> {
+			HttpResponse<InputStream> response = httpClient.send(request, BodyHandlers.ofInputStream());
+			try (InputStream is = Metricas.conta(response.body(), arquivo::baixados);) {
+				if (response.statusCode() != 200) {
+					throw new RespostaHttp(response.statusCode(), "Erro ao baixar " + urlStr + ": HTTP " + response.statusCode());
+				}
+				extrairZip(tempDir, is);
+			}
+			return null;
+		});
+
+		double deltaT = (System.nanoTime() - t0)/1E9;
+		System.out.println("Baixado em " + deltaT + "s.");
+
+		return tempDir;
+	}
+
+	/**
+	 * Inicia o download do arquivo zip da base, retornando o corpo da resposta para ser lido à medida que chega.
+	 * A leitura controla o ritmo do download: enquanto o corpo não é consumido, o envio pelo servidor é contido.
+	 */
+	public InputStream abrirZip(TipoBase base, HttpClient httpClient) throws IOException {
+		String urlStr = url(base);
+		System.out.println("Arquivo " + urlStr + " => filtragem durante o download");
+
+		HttpRequest request = HttpRequest
+				.newBuilder()
+				.uri(URI.create(urlStr))
+				.GET()
+				.build();
+
+		try {
+			HttpResponse<InputStream> response = httpClient.send(request, BodyHandlers.ofInputStream());
+			if (response.statusCode() != 200) {
+				response.body().close();
+				throw new IOException("Erro ao baixar " + urlStr + ": HTTP " + response.statusCode());
+			}
+			return Metricas.conta(response.body(), metricas.arquivo(Metricas.Fase.DOWNLOAD, urlStr)::baixados);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Download de " + urlStr + " interrompido.", e);
+		}
+	}
+
+	public CompletableFuture<Path> baixarExtrairZipAsync(TipoBase base, HttpClient httpClient, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				//Sem cache não há o que retomar ou reaproveitar, então o zip é extraído durante o download
+				if (dirZip.isEmpty()) {
+					return baixarExtrairZip(url(base), httpClient);
+				}
+
+				Path zip = baixarZip(url(base), httpClient);
+
+				//Os arquivos extraídos são guardados pelo SHA-256 do zip, e só são extraídos de novo se o zip mudar
+				Path dir = dirZip.get().resolve(DIR_EXTRAIDOS).resolve(leDescricaoCache(zip).getProperty("sha256"));
+				Path marcador = dir.resolve(MARCADOR_EXTRACAO);
+				if (Files.exists(marcador)) {
+					System.out.println("Usando arquivos já extraídos em " + dir);
+					Files.setLastModifiedTime(marcador, FileTime.from(Instant.now()));
+					return dir;
+				}
+
+				//Uma extração interrompida é continuada: as entradas já extraídas por completo são mantidas
+				Files.createDirectories(dir);
+				extrairZip(dir, zip);
+				Files.createFile(marcador);
+				return dir;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Baixa o arquivo zip para o diretório de zips. Se o servidor aceitar pedidos de intervalos de bytes,
+	 * o arquivo é baixado em partes paralelas, gravadas em arquivos separados e juntadas ao final;
+	 * caso contrário, é baixado em uma única requisição.
+	 */
+	public Path baixarZip(String urlStr, HttpClient httpClient) throws IOException {
+		Path dir = dirZip.isPresent() ? dirZip.get() : Files.createTempDirectory("pgfn_");
+		Path destino = dir.resolve(urlStr.substring(urlStr.lastIndexOf('/') + 1));
+
+		long t0 = System.nanoTime();
+
+		Properties cache = leDescricaoCache(destino);
+		InfoArquivo info = consultaArquivo(urlStr, httpClient, cache);
+		if (info.naoModificado) {
+			System.out.println("Arquivo " + urlStr + " não foi alterado, usando " + destino);
+			return destino;
+		}
+
+		if (info.aceitaIntervalos && info.tamanho > tamanhoParte) {
+			try {
+				baixarEmPartes(urlStr, httpClient, info, destino);
+			} catch (ArquivoAlterado e) {
+				//As partes já baixadas são de outra versão do arquivo e não servem mais
+				System.out.println("Arquivo " + urlStr + " mudou no servidor durante o download (" + e.getLocalizedMessage() + "), baixando de novo em uma única requisição.");
+				descartaPartes(destino);
+				baixarInteiro(urlStr, httpClient, info, destino);
+			}
+		} else {
+			baixarInteiro(urlStr, httpClient, info, destino);
+		}
+
+		double deltaT = (System.nanoTime() - t0)/1E9;
+		System.out.println("Arquivo " + urlStr + " baixado em " + deltaT + "s.");
+
+		if (dirZip.isPresent()) {
+			gravaDescricaoCache(destino, info);
+		}
+
+		return destino;
+	}
+
+	/**
+	 * Consulta o arquivo no servidor. Se houver uma cópia em cache, a consulta é condicional
+	 * (If-None-Match e If-Modified-Since) e o resultado indica se a cópia ainda é válida.
+	 */
+	private InfoArquivo consultaArquivo(String urlStr, HttpClient httpClient, Properties cache) throws IOException {
+		HttpRequest.Builder builder = HttpRequest
+				.newBuilder()
+				.uri(URI.create(urlStr))
+				.method("HEAD", BodyPublishers.noBody());
+		String etagCache = cache.getProperty("etag", "");
+		String ultimaModificacaoCache = cache.getProperty("ultimaModificacao", "");
+		if (!etagCache.isEmpty()) {
+			builder.header("If-None-Match", etagCache);
+		}
+		if (!ultimaModificacaoCache.isEmpty()) {
+			builder.header("If-Modified-Since", ultimaModificacaoCache);
+		}
+		HttpRequest request = builder.build();
+
+		HttpResponse<Void> response = comTentativas("consulta de " + urlStr, () -> httpClient.send(request, BodyHandlers.discarding()));
+
+		InfoArquivo info = new InfoArquivo();
+		if (response.statusCode() == 304 && !cache.isEmpty()) {
+			info.naoModificado = true;
+			return info;
+		} else if (response.statusCode() != 200) {
+			//Sem informações sobre o arquivo, faz o download em uma única requisição
+			return info;
+		}
+
+		info.tamanho = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		info.aceitaIntervalos = response.headers().firstValue("Accept-Ranges").map("bytes"::equalsIgnoreCase).orElse(false);
+		info.etag = response.headers().firstValue("ETag").orElse("");
+		info.ultimaModificacao = response.headers().firstValue("Last-Modified").orElse("");
+
+		//Servidores que ignoram os cabeçalhos condicionais ainda permitem comparar ETag e data de modificação
+		if (!cache.isEmpty() && (!info.etag.isEmpty() || !info.ultimaModificacao.isEmpty())
+				&& info.etag.equals(etagCache) && info.ultimaModificacao.equals(ultimaModificacaoCache)
+				&& Long.toString(info.tamanho).equals(cache.getProperty("tamanho"))) {
+			info.naoModificado = true;
+		}
+		return info;
+	}
+
+	private void baixarEmPartes(String urlStr, HttpClient httpClient, InfoArquivo info, Path destino) throws IOException {
+		int quantidade = (int) ((info.tamanho + tamanhoParte - 1) / tamanhoParte);
+		preparaPartes(destino, info, quantidade);
+		System.out.println("Baixando " + urlStr + " em " + quantidade + " partes");
+
+		ExecutorService executor = Executors.newFixedThreadPool(partesParalelas);
+		try {
+			List<Future<Void>> partes = new ArrayList<>();
+			for (int i = 0; i < quantidade; i++) {
+				Path parte = parte(destino, i);
+				long inicio = i * tamanhoParte;
+				long fim = Math.min(inicio + tamanhoParte, info.tamanho);
+				partes.add(executor.submit(() -> {
+					baixarParte(urlStr, httpClient, info, parte, inicio, fim);
+					return null;
+				}));
+			}
+			for (Future<Void> parte : partes) {
+				parte.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Download de " + urlStr + " interrompido.", e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		juntaPartes(destino, quantidade, info.tamanho);
+	}
+
+	/**
+	 * Grava a descrição do arquivo sendo baixado ao lado das partes. Se já houver partes de uma versão
+	 * diferente do arquivo (outro tamanho, ETag ou data de modificação), elas são descartadas.
+	 */
+	private void preparaPartes(Path destino, InfoArquivo info, int quantidade) throws IOException {
+		Path descricao = destino.resolveSibling(destino.getFileName() + ".partes");
+
+		Properties atual = new Properties();
+		atual.setProperty("tamanho", Long.toString(info.tamanho));
+		atual.setProperty("tamanhoParte", Long.toString(tamanhoParte));
+		atual.setProperty("etag", info.etag);
+		atual.setProperty("ultimaModificacao", info.ultimaModificacao);
+
+		Properties anterior = new Properties();
+		if (Files.exists(descricao)) {
+			try (InputStream is = Files.newInputStream(descricao);) {
+				anterior.load(is);
+			}
+		}
+
+		if (!atual.equals(anterior)) {
+			descartaPartes(destino);
+			try (OutputStream os = Files.newOutputStream(descricao);) {
+				atual.store(os, null);
+			}
+		} else {
+			System.out.println("Retomando download de " + destino);
+		}
+	}
+
+	/**
+	 * Apaga as partes baixadas do arquivo e a sua descrição.
+	 */
+	private static void descartaPartes(Path destino) throws IOException {
+		try (Stream<Path> arquivos = Files.list(destino.getParent());) {
+			for (Path antiga : (Iterable<Path>) arquivos.filter((p) -> p.getFileName().toString().startsWith(destino.getFileName() + ".parte"))::iterator) {
+				Files.deleteIfExists(antiga);
+			}
+		}
+	}
+
+	/**
+	 * Baixa o intervalo [inicio, fim) para o arquivo da parte, continuando de onde parou se a parte já existir.
+	 * Se o servidor responder com o arquivo inteiro ou recusar o intervalo, o arquivo mudou desde a consulta
+	 * e é lançado {@link ArquivoAlterado}, sem novas tentativas.
+	 */
+	private void baixarParte(String urlStr, HttpClient httpClient, InfoArquivo info, Path parte, long inicio, long fim) throws IOException {
+		Metricas.Arquivo arquivo = metricas.arquivo(Metricas.Fase.DOWNLOAD, urlStr);
+		comTentativas("parte " + parte.getFileName(), () -> {
+			long existente = Files.exists(parte) ? Files.size(parte) : 0;
+			if (existente > fim - inicio) {
+				Files.delete(parte);
+				existente = 0;
+			}
+			if (existente == fim - inicio) {
+				return null;
+			}
+
+			HttpRequest.Builder builder = HttpRequest
+					.newBuilder()
+					.uri(URI.create(urlStr))
+					.header("Range", "bytes=" + (inicio + existente) + "-" + (fim - 1))
+					.GET();
+			//Garante que as partes sejam da mesma versão do arquivo
+			String validador = info.etag.isEmpty() || info.etag.startsWith("W/") ? info.ultimaModificacao : info.etag;
+			if (!validador.isEmpty()) {
+				builder.header("If-Range", validador);
+			}
+
+			HttpResponse<InputStream> response = httpClient.send(builder.build(), BodyHandlers.ofInputStream());
+			try (InputStream is = Metricas.conta(response.body(), arquivo::baixados);) {
+				if (response.statusCode() == 200 || response.statusCode() == 412 || response.statusCode() == 416) {
+					throw new ArquivoAlterado(response.statusCode(), "Resposta HTTP " + response.statusCode() + " ao pedir intervalo de " + urlStr);
+				} else if (response.statusCode() != 206) {
+					throw new RespostaHttp(response.statusCode(), "Resposta HTTP " + response.statusCode() + " ao pedir intervalo de " + urlStr);
+				}
+				try (OutputStream os = Files.newOutputStream(parte, StandardOpenOption.CREATE, StandardOpenOption.APPEND);) {
+					is.transferTo(os);
+				}
+			}
+
+			if (Files.size(parte) != fim - inicio) {
+				throw new IOException("Parte " + parte.getFileName() + " incompleta.");
+			}
+			return null;
+		});
+	}
+
+	private void juntaPartes(Path destino, int quantidade, long tamanho) throws IOException {
+		Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+		try (FileChannel saida = FileChannel.open(temporario, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);) {
+			for (int i = 0; i < quantidade; i++) {
+				try (FileChannel entrada = FileChannel.open(parte(destino, i), StandardOpenOption.READ);) {
+					long posicao = 0;
+					while (posicao < entrada.size()) {
+						posicao += entrada.transferTo(posicao, entrada.size() - posicao, saida);
+					}
+				}
+			}
+			if (saida.size() != tamanho) {
+				throw new IOException("Tamanho de " + destino + " diferente do informado pelo servidor.");
+			}
+		}
+
+		Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		for (int i = 0; i < quantidade; i++) {
+			Files.delete(parte(destino, i));
+		}
+		Files.delete(destino.resolveSibling(destino.getFileName() + ".partes"));
+	}
+
+	/**
+	 * Baixa o arquivo em uma única requisição, atualizando a descrição do arquivo com a ETag e a data de
+	 * modificação da resposta, que podem ser de uma versão mais nova que a da consulta.
+	 */
+	private void baixarInteiro(String urlStr, HttpClient httpClient, InfoArquivo info, Path destino) throws IOException {
+		Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+		HttpRequest request = HttpRequest
+				.newBuilder()
+				.uri(URI.create(urlStr))
+				.GET()
+				.build();
+
+		HttpResponse<Path> resposta = comTentativas("download de " + urlStr, () -> {
+			HttpResponse<Path> response = httpClient.send(request, BodyHandlers.ofFile(temporario));
+			if (response.statusCode() != 200) {
+				throw new RespostaHttp(response.statusCode(), "Erro ao baixar " + urlStr + ": HTTP " + response.statusCode());
+			}
+			return response;
+		});
+		info.etag = resposta.headers().firstValue("ETag").orElse("");
+		info.ultimaModificacao = resposta.headers().firstValue("Last-Modified").orElse("");
+		metricas.arquivo(Metricas.Fase.DOWNLOAD, urlStr).baixados(Files.size(temporario));
+
+		Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Lê a descrição da cópia em cache do zip, ou retorna uma descrição vazia se não houver cópia válida.
+	 */
+	private Properties leDescricaoCache(Path zip) throws IOException {
+		Properties descricao = new Properties();
+		Path arquivo = zip.resolveSibling(zip.getFileName() + ".cache");
+		if (dirZip.isPresent() && Files.exists(arquivo) && Files.exists(zip)) {
+			try (InputStream is = Files.newInputStream(arquivo);) {
+				descricao.load(is);
+			}
+			if (!Long.toString(Files.size(zip)).equals(descricao.getProperty("tamanho"))) {
+				descricao.clear();
+			}
+		}
+		return descricao;
+	}
+
+	private void gravaDescricaoCache(Path zip, InfoArquivo info) throws IOException {
+		Properties descricao = new Properties();
+		descricao.setProperty("tamanho", Long.toString(Files.size(zip)));
+		descricao.setProperty("etag", info.etag);
+		descricao.setProperty("ultimaModificacao", info.ultimaModificacao);
+		descricao.setProperty("sha256", sha256(zip));
+		descricao.setProperty("baixadoEm", Instant.now().toString());
+
+		Path arquivo = zip.resolveSibling(zip.getFileName() + ".cache");
+		Path temporario = zip.resolveSibling(zip.getFileName() + ".cache.tmp");
+		try (OutputStream os = Files.newOutputStream(temporario);) {
+			descricao.store(os, null);
+		}
+		Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String sha256(Path arquivo) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			try (InputStream is = Files.newInputStream(arquivo);) {
+				byte[] buffer = new byte[1024 * 1024];
+				int lidos;
+				while ((lidos = is.read(buffer)) > 0) {
+					digest.update(buffer, 0, lidos);
+				}
+			}
+
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Apaga as extrações de versões anteriores dos zips que passaram da idade máxima e, se o cache
+	 * ainda estiver acima do tamanho máximo, as usadas há mais tempo até que fique abaixo do limite.
+	 */
+	private void limpaCache(Collection<Path> emUso) throws IOException {
+		Path dirExtraidos = dirZip.get().resolve(DIR_EXTRAIDOS);
+		if (!Files.isDirectory(dirExtraidos) || (idadeMaximaCache.isEmpty() && tamanhoMaximoCache.isEmpty())) {
+			return;
+		}
+
+		List<Path> antigos;
+		try (Stream<Path> dirs = Files.list(dirExtraidos);) {
+			antigos = dirs.filter((dir) -> !emUso.contains(dir)).collect(Collectors.toList());
+		}
+		Map<Path, FileTime> ultimoUso = new HashMap<>();
+		for (Path dir : antigos) {
+			Path marcador = dir.resolve(MARCADOR_EXTRACAO);
+			ultimoUso.put(dir, Files.exists(marcador) ? Files.getLastModifiedTime(marcador) : FileTime.fromMillis(0));
+		}
+		antigos.sort(Comparator.comparing(ultimoUso::get));
+
+		long tamanhoCache = tamanhoDiretorio(dirZip.get());
+		for (Path dir : antigos) {
+			boolean expirado = idadeMaximaCache.isPresent() && ultimoUso.get(dir).toInstant().isBefore(Instant.now().minus(idadeMaximaCache.get()));
+			boolean excedente = tamanhoMaximoCache.isPresent() && tamanhoCache > tamanhoMaximoCache.get();
+			if (expirado || excedente) {
+				System.out.println("Removendo do cache " + dir);
+				tamanhoCache -= tamanhoDiretorio(dir);
+				apagaDiretorio(dir);
+			}
+		}
+	}
+
+	private static long tamanhoDiretorio(Path dir) throws IOException {
+		try (Stream<Path> arquivos = Files.walk(dir);) {
+			return arquivos.filter(Files::isRegularFile).mapToLong((arquivo) -> arquivo.toFile().length()).sum();
+		}
+	}
+
+	static void apagaDiretorio(Path dir) throws IOException {
+		if (Files.exists(dir)) {
+			try (Stream<Path> arquivos = Files.walk(dir);) {
+				for (Path arquivo : (Iterable<Path>) arquivos.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(arquivo);
+				}
+			}
+		}
+	}
+
+	private static Path parte(Path destino, int indice) {
+		return destino.resolveSibling(destino.getFileName() + ".parte" + indice);
+	}
+
+	/**
+	 * Executa a operação, repetindo-a com espera exponencial entre as tentativas em caso de erro de E/S
+	 * ou de erro do servidor (HTTP 5xx). As demais respostas HTTP inesperadas não são tentadas de novo.
+	 */
+	private static <T> T comTentativas(String descricao, OperacaoRede<T> operacao) throws IOException {
+		long espera = ESPERA_INICIAL_MS;
+		for (int tentativa = 1; ; tentativa++) {
+			try {
+				return operacao.executa();
+			} catch (IOException e) {
+				if (tentativa >= TENTATIVAS || (e instanceof RespostaHttp && !((RespostaHttp) e).isTransitoria())) {
+					throw e;
+				}
+				System.out.println("Erro em " + descricao + " (" + e.getLocalizedMessage() + "), nova tentativa em " + espera + "ms.");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(descricao + " interrompido.", e);
+			}
+
+			try {
+				Thread.sleep(espera);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(descricao + " interrompido.", e);
+			}
+			espera = Math.min(2 * espera, ESPERA_MAXIMA_MS);
+		}
+	}
+
+	@FunctionalInterface
+	private interface OperacaoRede<T> {
+		T executa() throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Resposta HTTP diferente da esperada.
+	 */
+	private static class RespostaHttp extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		RespostaHttp(int status, String mensagem) {
+			super(mensagem);
+			this.status = status;
+		}
+
+		boolean isTransitoria() {
+			return status >= 500;
+		}
+	}
+
+	/**
+	 * O arquivo mudou no servidor durante o download em partes: o pedido de intervalo com If-Range foi
+	 * respondido com o arquivo inteiro (200) ou recusado (412, 416).
+	 */
+	private static final class ArquivoAlterado extends RespostaHttp {
+		private static final long serialVersionUID = 1L;
+
+		ArquivoAlterado(int status, String mensagem) {
+			super(status, mensagem);
+		}
+	}
+
+	private static final class InfoArquivo {
+		private boolean naoModificado = false;
+		private long tamanho = -1;
+		private boolean aceitaIntervalos = false;
+		private String etag = "";
+		private String ultimaModificacao = "";
+	}
+
+	/**
+	 * Extrai o zip local no diretório. Cada entrada é gravada em um arquivo temporário renomeado ao final,
+	 * de forma que um arquivo com o nome da entrada e o seu tamanho está completo e não é extraído de novo.
+	 */
+	public void extrairZip(Path dir, Path zip) throws IOException {
+		long t0 = System.nanoTime();
+
+		System.out.println("Extraindo arquivo " + zip + " em " + dir);
+		try (ZipFile arquivo = new ZipFile(zip.toFile());) {
+			for (ZipEntry entry : Collections.list(arquivo.entries())) {
+				Path newFile = newFile(dir, entry);
+				if (Files.exists(newFile) && Files.size(newFile) == entry.getSize()) {
+					System.out.println("Entrada " + entry.getName() + " já extraída");
+					continue;
+				}
+
+				try (InputStream is = arquivo.getInputStream(entry);) {
+					extrairEntrada(is, newFile);
+				}
+			}
+		}
+
+		double deltaT = (System.nanoTime() - t0)/1E9;
+		System.out.println("Arquivo extraído em " + deltaT + "s.");
+	}
+
+	public void extrairZip(Path tempDir, InputStream is) throws IOException {
+		long t0 = System.nanoTime();
+
+		System.out.println("Baixando arquivo e extraindo em " + tempDir);
+		try (ZipInputStream zis = new ZipInputStream(is);) {
+			ZipEntry entry = zis.getNextEntry();
+			while (entry != null) {
+				extrairEntrada(zis, newFile(tempDir, entry));
+
+				zis.closeEntry();
+				entry = zis.getNextEntry();
+			}
+
+			double deltaT = (System.nanoTime() - t0)/1E9;
+			System.out.println("Arquivo extraído em " + deltaT + "s.");
+		}
+	}
+
+	private void extrairEntrada(InputStream entrada, Path newFile) throws IOException {
+		Metricas.Arquivo arquivo = metricas.arquivo(Metricas.Fase.EXTRACAO, newFile.toString());
+		Path temporario = newFile.resolveSibling(newFile.getFileName() + ".tmp");
+		try (OutputStream os = Files.newOutputStream(temporario);) {
+			//O fluxo que conta os bytes não é fechado, para não fechar o zip
+			Metricas.conta(entrada, arquivo::extraidos).transferTo(os);
+		}
+		Files.move(temporario, newFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	//https://www.baeldung.com/java-compress-and-uncompress
+	//https://snyk.io/research/zip-slip-vulnerability#java
+	private Path newFile(Path destinationDir, ZipEntry zipEntry) throws IOException {
+        Path destFile = destinationDir.resolve(zipEntry.getName());
+
+        destinationDir = destinationDir.toAbsolutePath().normalize();
+        destFile = destFile.toAbsolutePath().normalize();
+
+        if (!destFile.startsWith(destinationDir)) {
+            throw new IOException("Entry is outside of the target dir: " + zipEntry.getName());
+        }
+
+        return destFile;
+    }
+}
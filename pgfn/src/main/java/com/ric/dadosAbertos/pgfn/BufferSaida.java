@@ -0,0 +1,142 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Buffer de bytes expansível usado para acumular linhas de saída antes de gravá-las em um canal.
+ *
+ * Um buffer com transbordo passa o conteúdo acumulado para um arquivo temporário quando
+ * {@link #transbordaSeNecessario()} encontra mais bytes que o limite, para que o resultado de
+ * arquivos inteiros possa aguardar sua vez de ser gravado sem ocupar a memória.
+ */
+final class BufferSaida {
+	private byte[] bytes;
+	private int tamanho;
+	private Path dirTransbordo;
+	private int limiteTransbordo;
+	private FileChannel transbordo;
+
+	BufferSaida(int capacidadeInicial) {
+		this.bytes = new byte[capacidadeInicial];
+	}
+
+	static BufferSaida comTransbordo(int capacidadeInicial, Path dirTemporario, int limite) {
+		BufferSaida buffer = new BufferSaida(capacidadeInicial);
+		buffer.dirTransbordo = dirTemporario;
+		buffer.limiteTransbordo = limite;
+		return buffer;
+	}
+
+	int tamanho() {
+		return tamanho;
+	}
+
+	/**
+	 * Conteúdo em memória, sem cópia; só é válido até a próxima escrita no buffer.
+	 */
+	ByteBuffer conteudo() {
+		return ByteBuffer.wrap(bytes, 0, tamanho);
+	}
+
+	/**
+	 * Esvazia o conteúdo em memória, mantendo a capacidade já alocada.
+	 */
+	void limpa() {
+		tamanho = 0;
+	}
+
+	void escreve(byte b) {
+		garanteCapacidade(1);
+		bytes[tamanho++] = b;
+	}
+
+	void escreve(byte[] origem) {
+		garanteCapacidade(origem.length);
+		System.arraycopy(origem, 0, bytes, tamanho, origem.length);
+		tamanho += origem.length;
+	}
+
+	/**
+	 * Copia os bytes de {@code origem} entre as posições absolutas {@code inicio} e {@code fim}.
+	 * A posição e o limite de {@code origem} são alterados durante a cópia e o limite é restaurado ao final.
+	 */
+	void escreve(ByteBuffer origem, int inicio, int fim) {
+		int quantidade = fim - inicio;
+		garanteCapacidade(quantidade);
+
+		int limite = origem.limit();
+		origem.limit(fim).position(inicio);
+		origem.get(bytes, tamanho, quantidade);
+		origem.limit(limite);
+
+		tamanho += quantidade;
+	}
+
+	void escreve(BufferSaida origem) {
+		escreve(origem, 0);
+	}
+
+	/**
+	 * Copia os bytes de {@code origem} a partir da posição {@code inicio} até o fim do seu conteúdo em memória.
+	 */
+	void escreve(BufferSaida origem, int inicio) {
+		int quantidade = origem.tamanho - inicio;
+		garanteCapacidade(quantidade);
+		System.arraycopy(origem.bytes, inicio, bytes, tamanho, quantidade);
+		tamanho += quantidade;
+	}
+
+	/**
+	 * Se o buffer tiver transbordo e o conteúdo em memória tiver passado do limite, grava-o no arquivo temporário.
+	 */
+	void transbordaSeNecessario() throws IOException {
+		if (dirTransbordo == null || tamanho < limiteTransbordo) {
+			return;
+		}
+		if (transbordo == null) {
+			Path arquivo = Files.createTempFile(dirTransbordo, "pgfn", ".tmp");
+			transbordo = FileChannel.open(arquivo, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		gravaMemoria(transbordo);
+	}
+
+	/**
+	 * Grava todo o conteúdo no canal, inclusive o que tiver transbordado, e esvazia o buffer.
+	 */
+	void descarrega(WritableByteChannel canal) throws IOException {
+		if (transbordo != null) {
+			try {
+				long total = transbordo.size();
+				for (long posicao = 0; posicao < total; ) {
+					posicao += transbordo.transferTo(posicao, total - posicao, canal);
+				}
+			} finally {
+				transbordo.close();
+				transbordo = null;
+			}
+		}
+		gravaMemoria(canal);
+	}
+
+	private void gravaMemoria(WritableByteChannel canal) throws IOException {
+		ByteBuffer conteudo = ByteBuffer.wrap(bytes, 0, tamanho);
+		while (conteudo.hasRemaining()) {
+			canal.write(conteudo);
+		}
+		tamanho = 0;
+	}
+
+	private void garanteCapacidade(int adicional) {
+		int necessario = tamanho + adicional;
+		if (necessario > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(necessario, 2 * bytes.length));
+		}
+	}
+}
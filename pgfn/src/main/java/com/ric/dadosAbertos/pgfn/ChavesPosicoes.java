@@ -0,0 +1,117 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pares de chave de CPF/CNPJ (ver {@link ConjuntoCNPJ}) e posição de linha em um arquivo, em vetores expansíveis,
+ * ordenáveis por chave sem criar objetos por par.
+ */
+final class ChavesPosicoes {
+	//Limite para que os vetores de chaves e de posições possam ser gravados em um único mapeamento de até 2GB
+	static final long MAXIMO_PARES = Integer.MAX_VALUE / Long.BYTES;
+
+	private long[] chaves;
+	private long[] posicoes;
+	private int tamanho;
+
+	ChavesPosicoes(int capacidade) {
+		chaves = new long[capacidade];
+		posicoes = new long[capacidade];
+	}
+
+	void adiciona(long chave, long posicao) {
+		if (tamanho == chaves.length) {
+			chaves = Arrays.copyOf(chaves, 2 * tamanho);
+			posicoes = Arrays.copyOf(posicoes, 2 * tamanho);
+		}
+		chaves[tamanho] = chave;
+		posicoes[tamanho] = posicao;
+		tamanho++;
+	}
+
+	static ChavesPosicoes junta(List<ChavesPosicoes> partes) {
+		long total = partes.stream().mapToLong(parte -> parte.tamanho).sum();
+		if (total > MAXIMO_PARES) {
+			throw new IllegalStateException("Base grande demais para ser indexada.");
+		}
+
+		ChavesPosicoes entradas = new ChavesPosicoes(Math.max(1, (int) total));
+		for (ChavesPosicoes parte : partes) {
+			System.arraycopy(parte.chaves, 0, entradas.chaves, entradas.tamanho, parte.tamanho);
+			System.arraycopy(parte.posicoes, 0, entradas.posicoes, entradas.tamanho, parte.tamanho);
+			entradas.tamanho += parte.tamanho;
+		}
+		return entradas;
+	}
+
+	int tamanho() {
+		return tamanho;
+	}
+
+	long[] chaves() {
+		return chaves;
+	}
+
+	long[] posicoes() {
+		return posicoes;
+	}
+
+	/**
+	 * Ordena os pares por chave, mantendo a ordem original entre pares de mesma chave.
+	 * Intercala as sequências já ordenadas presentes nos vetores, de forma que vetores
+	 * formados por poucas sequências ordenadas são ordenados em poucas passadas.
+	 */
+	void ordena() {
+		int[] inicios = new int[16];
+		int sequencias = 0;
+		for (int i = 0; i < tamanho; i++) {
+			if (i == 0 || chaves[i] < chaves[i - 1]) {
+				if (sequencias + 1 >= inicios.length) {
+					inicios = Arrays.copyOf(inicios, 2 * inicios.length);
+				}
+				inicios[sequencias++] = i;
+			}
+		}
+		inicios[sequencias] = tamanho;
+		if (sequencias <= 1) {
+			return;
+		}
+
+		long[] chavesDestino = new long[tamanho];
+		long[] posicoesDestino = new long[tamanho];
+		while (sequencias > 1) {
+			int novas = 0;
+			for (int s = 0; s < sequencias; s += 2) {
+				int inicio = inicios[s];
+				int meio = inicios[Math.min(s + 1, sequencias)];
+				int fim = inicios[Math.min(s + 2, sequencias)];
+				intercala(chavesDestino, posicoesDestino, inicio, meio, fim);
+				inicios[novas++] = inicio;
+			}
+			inicios[novas] = tamanho;
+			sequencias = novas;
+
+			long[] chavesOrigem = chaves;
+			long[] posicoesOrigem = posicoes;
+			chaves = chavesDestino;
+			posicoes = posicoesDestino;
+			chavesDestino = chavesOrigem;
+			posicoesDestino = posicoesOrigem;
+		}
+	}
+
+	private void intercala(long[] chavesDestino, long[] posicoesDestino, int inicio, int meio, int fim) {
+		int a = inicio;
+		int b = meio;
+		for (int i = inicio; i < fim; i++) {
+			if (b >= fim || (a < meio && chaves[a] <= chaves[b])) {
+				chavesDestino[i] = chaves[a];
+				posicoesDestino[i] = posicoes[a++];
+			} else {
+				chavesDestino[i] = chaves[b];
+				posicoesDestino[i] = posicoes[b++];
+			}
+		}
+	}
+}
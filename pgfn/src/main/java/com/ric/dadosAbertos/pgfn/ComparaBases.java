@@ -0,0 +1,316 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compara a base consolidada de uma versão anterior dos dados da PGFN com a da versão atual,
+ * gravando as linhas incluídas, removidas e alteradas.
+ *
+ * As linhas são identificadas por ARQUIVO_ORIGEM, NUMERO_INSCRICAO e CPF_CNPJ, já que uma inscrição
+ * se repete para cada corresponsável. Para que as bases não precisem caber na memória, as linhas das duas
+ * bases são antes distribuídas em partições em disco pelo hash da identificação, de forma que cada linha
+ * só precise ser procurada na partição de mesmo número da outra base. As partições são comparadas em paralelo.
+ */
+public final class ComparaBases {
+	public static final String ARQUIVO_INCLUIDAS = "delta_incluidas.csv";
+	public static final String ARQUIVO_REMOVIDAS = "delta_removidas.csv";
+	public static final String ARQUIVO_ALTERADAS = "delta_alteradas.csv";
+
+	private static final String[] COLUNAS = TipoBase.CABECALHO_CONSOLIDADO.split(";");
+	//Colunas da base consolidada
+	private static final int COLUNA_INSCRICAO = 8;
+	private static final int COLUNA_SITUACAO = 10;
+	private static final int COLUNA_VALOR = 15;
+	private static final int COLUNA_ORIGEM = 16;
+
+	private static final long TAMANHO_TRECHO = 64 * 1024 * 1024;
+	private static final int TAMANHO_BUFFER = 1024 * 1024;
+	private static final int MAXIMO_PARTICOES = 1024;
+	//Memória ocupada pelas linhas de uma partição carregada, em relação ao tamanho do arquivo
+	private static final int FATOR_MEMORIA = 4;
+	private static final byte[] FIM_LINHA = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+
+	private final int threads;
+	private final long memoria;
+
+	/**
+	 * @param memoria memória aproximada, em bytes, que a comparação pode ocupar, que define o número de partições
+	 */
+	public ComparaBases(int threads, long memoria) {
+		this.threads = threads;
+		this.memoria = memoria;
+	}
+
+	public void compara(Path arqAnterior, Path arqAtual, Path dirSaida) throws IOException {
+		System.out.println("Comparando " + arqAtual + " com a versão anterior " + arqAnterior);
+		validaCabecalho(arqAnterior);
+		validaCabecalho(arqAtual);
+
+		//A varredura mantém em memória até 2 x threads pares de partições, entre as comparadas e as que aguardam gravação
+		long tamanhoParticao = Math.max(1024 * 1024, memoria / (4L * threads * FATOR_MEMORIA));
+		int particoes = (int) Math.min(MAXIMO_PARTICOES, Math.max(Files.size(arqAnterior), Files.size(arqAtual)) / tamanhoParticao + 1);
+
+		Delta total = new Delta();
+		Path dirTemporario = Files.createTempDirectory(dirSaida.toAbsolutePath(), "delta");
+		try {
+			Path[] anteriores = particiona(arqAnterior, dirTemporario, "anterior", particoes);
+			Path[] atuais = particiona(arqAtual, dirTemporario, "atual", particoes);
+
+			try (FileChannel incluidas = abreSaida(dirSaida.resolve(ARQUIVO_INCLUIDAS), TipoBase.CABECALHO_CONSOLIDADO);
+					FileChannel removidas = abreSaida(dirSaida.resolve(ARQUIVO_REMOVIDAS), TipoBase.CABECALHO_CONSOLIDADO);
+					FileChannel alteradas = abreSaida(dirSaida.resolve(ARQUIVO_ALTERADAS),
+							TipoBase.CABECALHO_CONSOLIDADO + ";COLUNAS_ALTERADAS;VALOR_CONSOLIDADO_ANTERIOR;SITUACAO_INSCRICAO_ANTERIOR");
+					VarreduraParalela<Delta> varredura = new VarreduraParalela<>(threads, true, (delta) -> {
+						delta.incluidas.descarrega(incluidas);
+						delta.removidas.descarrega(removidas);
+						delta.alteradas.descarrega(alteradas);
+						total.quantidadeIncluidas += delta.quantidadeIncluidas;
+						total.quantidadeRemovidas += delta.quantidadeRemovidas;
+						total.quantidadeAlteradas += delta.quantidadeAlteradas;
+					});) {
+				for (int p = 0; p < particoes; p++) {
+					int particao = p;
+					varredura.submete(() -> comparaParticao(anteriores[particao], atuais[particao]));
+				}
+				varredura.aguarda();
+			}
+		} finally {
+			BaixadorArquivos.apagaDiretorio(dirTemporario);
+		}
+		System.out.println("Inscrições da versão atual em relação à anterior: " + total.contagem());
+	}
+
+	private static void validaCabecalho(Path arquivo) throws IOException {
+		try (BufferedReader entrada = Files.newBufferedReader(arquivo, StandardCharsets.ISO_8859_1);) {
+			if (!TipoBase.CABECALHO_CONSOLIDADO.equals(entrada.readLine())) {
+				throw new IOException("O arquivo " + arquivo + " não é uma base consolidada.");
+			}
+		}
+	}
+
+	/**
+	 * Distribui as linhas da base em partições pelo hash da identificação, mantendo em cada partição a ordem da base.
+	 */
+	private Path[] particiona(Path arquivo, Path dirTemporario, String prefixo, int particoes) throws IOException {
+		System.out.println("Particionando " + arquivo + " em " + particoes + " partições");
+
+		Path[] arquivos = new Path[particoes];
+		FileChannel[] canais = new FileChannel[particoes];
+		try {
+			for (int p = 0; p < particoes; p++) {
+				arquivos[p] = dirTemporario.resolve(prefixo + p);
+				canais[p] = FileChannel.open(arquivos[p], StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			}
+
+			try (VarreduraParalela<BufferSaida[]> varredura = new VarreduraParalela<>(threads, true, (buffers) -> {
+				for (int p = 0; p < particoes; p++) {
+					if (buffers[p] != null) {
+						buffers[p].descarrega(canais[p]);
+					}
+				}
+			});) {
+				for (TrechoArquivo trecho : TrechoArquivo.divide(arquivo, TAMANHO_TRECHO)) {
+					varredura.submete(() -> particionaTrecho(trecho.mapeia(), particoes));
+				}
+				varredura.aguarda();
+			}
+		} finally {
+			for (FileChannel canal : canais) {
+				if (canal != null) {
+					canal.close();
+				}
+			}
+		}
+		return arquivos;
+	}
+
+	private static BufferSaida[] particionaTrecho(ByteBuffer trecho, int particoes) {
+		BufferSaida[] buffers = new BufferSaida[particoes];
+		int capacidade = Math.max(1024, trecho.remaining() / particoes + trecho.remaining() / particoes / 8);
+		LeitorCSV leitor = new LeitorCSV(trecho);
+		int[] inicios = new int[TipoBase.COLUNAS_CONSOLIDADAS];
+		int[] fins = new int[TipoBase.COLUNAS_CONSOLIDADAS];
+
+		while (leitor.proximaLinha()) {
+			if (leitor.linhaVazia()) {
+				continue;
+			}
+			separaCampos(leitor, inicios, fins);
+
+			int particao = Math.floorMod(hashIdentificacao(trecho, inicios, fins), particoes);
+			if (buffers[particao] == null) {
+				buffers[particao] = new BufferSaida(capacidade);
+			}
+			buffers[particao].escreve(trecho, leitor.inicioLinha(), leitor.fimLinha());
+			buffers[particao].escreve((byte) '\n');
+		}
+		return buffers;
+	}
+
+	private static int hashIdentificacao(ByteBuffer bytes, int[] inicios, int[] fins) {
+		int h = 0;
+		for (int coluna : new int[] {COLUNA_ORIGEM, COLUNA_INSCRICAO, 0}) {
+			for (int i = inicios[coluna]; i < fins[coluna]; i++) {
+				h = 31 * h + bytes.get(i);
+			}
+			h = 31 * h + ';';
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Compara as linhas de mesma partição das duas bases. Linhas repetidas com a mesma identificação
+	 * são pareadas na ordem em que aparecem em cada base.
+	 */
+	private static Delta comparaParticao(Path arqAnterior, Path arqAtual) throws IOException {
+		ByteBuffer anterior = ByteBuffer.wrap(Files.readAllBytes(arqAnterior));
+		ByteBuffer atual = ByteBuffer.wrap(Files.readAllBytes(arqAtual));
+		int[] inicios = new int[TipoBase.COLUNAS_CONSOLIDADAS];
+		int[] fins = new int[TipoBase.COLUNAS_CONSOLIDADAS];
+
+		Map<String, Deque<Integer>> linhasAnteriores = new HashMap<>();
+		LeitorCSV leitor = new LeitorCSV(anterior);
+		while (leitor.proximaLinha()) {
+			separaCampos(leitor, inicios, fins);
+			linhasAnteriores.computeIfAbsent(identificacao(anterior, inicios, fins), chave -> new ArrayDeque<>()).addLast(leitor.inicioLinha());
+		}
+
+		Delta delta = new Delta();
+		LeitorCSV leitorAnterior = new LeitorCSV(anterior);
+		int[] iniciosAnterior = new int[TipoBase.COLUNAS_CONSOLIDADAS];
+		int[] finsAnterior = new int[TipoBase.COLUNAS_CONSOLIDADAS];
+
+		leitor = new LeitorCSV(atual);
+		while (leitor.proximaLinha()) {
+			separaCampos(leitor, inicios, fins);
+			String chave = identificacao(atual, inicios, fins);
+			Deque<Integer> candidatas = linhasAnteriores.get(chave);
+
+			if (candidatas == null) {
+				escreveLinha(delta.incluidas, atual, leitor.inicioLinha(), leitor.fimLinha());
+				delta.quantidadeIncluidas++;
+				continue;
+			}
+
+			int inicioAnterior = candidatas.removeFirst();
+			if (candidatas.isEmpty()) {
+				linhasAnteriores.remove(chave);
+			}
+
+			leitorAnterior.posiciona(inicioAnterior);
+			leitorAnterior.proximaLinha();
+			separaCampos(leitorAnterior, iniciosAnterior, finsAnterior);
+
+			String alteradas = colunasAlteradas(atual, inicios, fins, anterior, iniciosAnterior, finsAnterior);
+			if (!alteradas.isEmpty()) {
+				BufferSaida saida = delta.alteradas;
+				saida.escreve(atual, leitor.inicioLinha(), leitor.fimLinha());
+				saida.escreve(texto(";" + alteradas + ";"));
+				saida.escreve(anterior, iniciosAnterior[COLUNA_VALOR], finsAnterior[COLUNA_VALOR]);
+				saida.escreve((byte) ';');
+				saida.escreve(anterior, iniciosAnterior[COLUNA_SITUACAO], finsAnterior[COLUNA_SITUACAO]);
+				saida.escreve(FIM_LINHA);
+				delta.quantidadeAlteradas++;
+			}
+		}
+
+		//As linhas anteriores que sobraram foram removidas; são gravadas na ordem da base anterior
+		int[] removidas = linhasAnteriores.values().stream().flatMap(Deque::stream).mapToInt(Integer::intValue).toArray();
+		Arrays.sort(removidas);
+		for (int inicio : removidas) {
+			leitorAnterior.posiciona(inicio);
+			leitorAnterior.proximaLinha();
+			escreveLinha(delta.removidas, anterior, leitorAnterior.inicioLinha(), leitorAnterior.fimLinha());
+		}
+		delta.quantidadeRemovidas = removidas.length;
+
+		return delta;
+	}
+
+	private static void separaCampos(LeitorCSV leitor, int[] inicios, int[] fins) {
+		if (leitor.separaCampos(inicios, fins) != TipoBase.COLUNAS_CONSOLIDADAS) {
+			throw new RuntimeException("Formato da base consolidada diferente do esperado.");
+		}
+	}
+
+	private static String identificacao(ByteBuffer bytes, int[] inicios, int[] fins) {
+		StringBuilder chave = new StringBuilder(48);
+		for (int coluna : new int[] {COLUNA_ORIGEM, COLUNA_INSCRICAO, 0}) {
+			for (int i = inicios[coluna]; i < fins[coluna]; i++) {
+				chave.append((char) (bytes.get(i) & 0xff));
+			}
+			chave.append(';');
+		}
+		return chave.toString();
+	}
+
+	private static String colunasAlteradas(ByteBuffer atual, int[] inicios, int[] fins, ByteBuffer anterior, int[] iniciosAnterior, int[] finsAnterior) {
+		List<String> alteradas = new ArrayList<>();
+		for (int coluna = 0; coluna < TipoBase.COLUNAS_CONSOLIDADAS; coluna++) {
+			if (!iguais(atual, inicios[coluna], fins[coluna], anterior, iniciosAnterior[coluna], finsAnterior[coluna])) {
+				alteradas.add(COLUNAS[coluna]);
+			}
+		}
+		return String.join(",", alteradas);
+	}
+
+	private static boolean iguais(ByteBuffer a, int inicioA, int fimA, ByteBuffer b, int inicioB, int fimB) {
+		if (fimA - inicioA != fimB - inicioB) {
+			return false;
+		}
+		for (int i = 0; i < fimA - inicioA; i++) {
+			if (a.get(inicioA + i) != b.get(inicioB + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void escreveLinha(BufferSaida saida, ByteBuffer bytes, int inicio, int fim) {
+		saida.escreve(bytes, inicio, fim);
+		saida.escreve(FIM_LINHA);
+	}
+
+	private static byte[] texto(String texto) {
+		return texto.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static FileChannel abreSaida(Path arquivo, String cabecalho) throws IOException {
+		FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		ByteBuffer bytes = ByteBuffer.wrap(texto(cabecalho + System.lineSeparator()));
+		while (bytes.hasRemaining()) {
+			canal.write(bytes);
+		}
+		return canal;
+	}
+
+	/**
+	 * Linhas incluídas, removidas e alteradas de uma partição, ou apenas suas quantidades no total.
+	 */
+	private static final class Delta {
+		private final BufferSaida incluidas = new BufferSaida(TAMANHO_BUFFER / 16);
+		private final BufferSaida removidas = new BufferSaida(TAMANHO_BUFFER / 16);
+		private final BufferSaida alteradas = new BufferSaida(TAMANHO_BUFFER / 16);
+		private int quantidadeIncluidas;
+		private int quantidadeRemovidas;
+		private int quantidadeAlteradas;
+
+		private String contagem() {
+			return quantidadeIncluidas + " incluídas, " + quantidadeRemovidas + " removidas, " + quantidadeAlteradas + " alteradas";
+		}
+	}
+}
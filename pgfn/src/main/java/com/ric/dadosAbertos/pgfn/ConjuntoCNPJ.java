@@ -0,0 +1,394 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Conjunto de CPFs/CNPJs representados como {@code long}.
+ *
+ * A chave de um CPF/CNPJ é formada pelos seus dígitos, ignorando '.', '/', '-' e espaços,
+ * com o número de dígitos nos bits mais altos, para que um CPF e um CNPJ de mesmo valor
+ * numérico (ou dois números que só diferem por zeros à esquerda) não se confundam.
+ * O CPF mascarado dos dados abertos ({@code ***.453.027-**}) tem como chave os 6 dígitos visíveis,
+ * com uma marca própria no lugar do número de dígitos.
+ *
+ * As chaves ficam em uma tabela hash de endereçamento aberto sobre um {@code long[]},
+ * precedida por um filtro de Bloom que descarta a maior parte das chaves ausentes
+ * sem acessar a tabela, que com listas de dezenas de milhões de CNPJs não cabe no cache.
+ */
+public final class ConjuntoCNPJ {
+	/**
+	 * Chave de um texto que não é um CPF/CNPJ (vazio, com outros caracteres, com '*' fora da máscara de CPF
+	 * ou com mais de 17 dígitos).
+	 * Também marca as posições vazias da tabela.
+	 */
+	static final long CHAVE_INVALIDA = -1;
+
+	private static final int MAXIMO_DIGITOS = 17;
+	//As chaves são gravadas neste formato nos snapshots (SnapshotPGFN): mudá-lo invalida os snapshots existentes
+	private static final int DESLOCAMENTO_DIGITOS = 57;
+
+	/**
+	 * Marca, no lugar do número de dígitos, da chave de um CPF mascarado ({@code ***.453.027-**}).
+	 */
+	static final int CPF_MASCARADO = 32;
+	//Posições dos '*' no CPF mascarado, sem os separadores
+	private static final int ASTERISCOS_CPF_MASCARADO = 0b11000000111;
+	private static final int POSICOES_CPF = 11;
+
+	private static final int CAPACIDADE_INICIAL = 1024;
+	private static final int BITS_BLOOM_POR_CHAVE = 10;
+	private static final int TAMANHO_TRECHO_LISTA = 256 * 1024 * 1024;
+
+	private static final ConjuntoCNPJ VAZIO = new ConjuntoCNPJ().criaBloom();
+
+	private long[] tabela;
+	private int mascara;
+	private int tamanho;
+	private long[] bloom;
+	private int mascaraBloom;
+
+	private ConjuntoCNPJ() {
+		tabela = novaTabela(CAPACIDADE_INICIAL);
+		mascara = CAPACIDADE_INICIAL - 1;
+	}
+
+	static ConjuntoCNPJ vazio() {
+		return VAZIO;
+	}
+
+	/**
+	 * Lê um arquivo texto com um CPF/CNPJ por linha, diretamente dos bytes e sem carregar o arquivo inteiro.
+	 * Linhas vazias são ignoradas, e as que não contêm um CPF/CNPJ são ignoradas e contadas em um aviso.
+	 * Um arquivo sem nenhum CPF/CNPJ é um erro, já que a lista vazia desligaria a filtragem.
+	 */
+	static ConjuntoCNPJ leArquivo(Path arquivo) throws IOException {
+		ConjuntoCNPJ conjunto = new ConjuntoCNPJ();
+		long rejeitadas = 0;
+
+		for (TrechoArquivo trecho : TrechoArquivo.divide(arquivo, TAMANHO_TRECHO_LISTA, false)) {
+			ByteBuffer bytes = trecho.mapeia();
+			if (trecho.getInicio() == 0) {
+				pulaBOM(bytes);
+			}
+
+			LeitorCSV leitor = new LeitorCSV(bytes);
+			while (leitor.proximaLinha()) {
+				if (leitor.linhaVazia()) {
+					continue;
+				}
+				long chave = chave(bytes, leitor.inicioLinha(), leitor.fimLinha());
+				if (chave == CHAVE_INVALIDA) {
+					rejeitadas++;
+				} else {
+					conjunto.adiciona(chave);
+				}
+			}
+		}
+
+		if (rejeitadas > 0) {
+			System.out.println("Ignoradas " + rejeitadas + " linhas de " + arquivo + " que não contêm um CPF/CNPJ válido.");
+		}
+		if (conjunto.isEmpty()) {
+			throw new IOException("O arquivo " + arquivo + " não contém nenhum CPF/CNPJ válido.");
+		}
+		return conjunto.criaBloom();
+	}
+
+	/**
+	 * Conjunto com os CPFs/CNPJs de todos os conjuntos informados.
+	 */
+	static ConjuntoCNPJ uniao(List<ConjuntoCNPJ> conjuntos) {
+		ConjuntoCNPJ uniao = new ConjuntoCNPJ();
+		for (ConjuntoCNPJ conjunto : conjuntos) {
+			conjunto.paraCada(uniao::adiciona);
+		}
+		return uniao.criaBloom();
+	}
+
+	/**
+	 * Conjunto com as chaves informadas.
+	 */
+	static ConjuntoCNPJ de(long[] chaves) {
+		ConjuntoCNPJ conjunto = new ConjuntoCNPJ();
+		for (long chave : chaves) {
+			conjunto.adiciona(chave);
+		}
+		return conjunto.criaBloom();
+	}
+
+	public int tamanho() {
+		return tamanho;
+	}
+
+	public boolean isEmpty() {
+		return tamanho == 0;
+	}
+
+	boolean contem(long chave) {
+		//A chave inválida marca as posições vazias da tabela e nunca faz parte do conjunto
+		if (chave == CHAVE_INVALIDA) {
+			return false;
+		}
+
+		long hash = espalha(chave);
+		if (!talvezContem(hash)) {
+			return false;
+		}
+
+		for (int i = (int) hash & mascara; ; i = (i + 1) & mascara) {
+			long atual = tabela[i];
+			if (atual == chave) {
+				return true;
+			} else if (atual == CHAVE_INVALIDA) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Posição da chave na tabela, ou -1 se a chave não estiver no conjunto. Como o conjunto não muda depois
+	 * de criado, a posição identifica a chave e pode indexar vetores com dados associados a ela,
+	 * de tamanho {@link #capacidade()}.
+	 */
+	int posicao(long chave) {
+		if (chave == CHAVE_INVALIDA) {
+			return -1;
+		}
+
+		long hash = espalha(chave);
+		if (!talvezContem(hash)) {
+			return -1;
+		}
+
+		for (int i = (int) hash & mascara; ; i = (i + 1) & mascara) {
+			long atual = tabela[i];
+			if (atual == chave) {
+				return i;
+			} else if (atual == CHAVE_INVALIDA) {
+				return -1;
+			}
+		}
+	}
+
+	int capacidade() {
+		return tabela.length;
+	}
+
+	void paraCada(LongConsumer acao) {
+		for (long chave : tabela) {
+			if (chave != CHAVE_INVALIDA) {
+				acao.accept(chave);
+			}
+		}
+	}
+
+	private void adiciona(long chave) {
+		if (chave == CHAVE_INVALIDA) {
+			return;
+		}
+
+		for (int i = (int) espalha(chave) & mascara; ; i = (i + 1) & mascara) {
+			long atual = tabela[i];
+			if (atual == chave) {
+				return;
+			} else if (atual == CHAVE_INVALIDA) {
+				tabela[i] = chave;
+				//Mantém a ocupação da tabela abaixo de 3/4
+				if (++tamanho > (mascara + 1) / 4 * 3) {
+					redimensiona();
+				}
+				return;
+			}
+		}
+	}
+
+	private void redimensiona() {
+		long[] antiga = tabela;
+		int capacidade = 2 * (mascara + 1);
+		if (capacidade <= 0) {
+			throw new IllegalStateException("Conjunto de CNPJs grande demais.");
+		}
+
+		tabela = novaTabela(capacidade);
+		mascara = capacidade - 1;
+		for (long chave : antiga) {
+			if (chave != CHAVE_INVALIDA) {
+				int i = (int) espalha(chave) & mascara;
+				while (tabela[i] != CHAVE_INVALIDA) {
+					i = (i + 1) & mascara;
+				}
+				tabela[i] = chave;
+			}
+		}
+	}
+
+	private ConjuntoCNPJ criaBloom() {
+		int bits = Integer.highestOneBit(Math.max(64, Math.min(tamanho, 1 << 26) * BITS_BLOOM_POR_CHAVE) - 1) << 1;
+		bloom = new long[bits / 64];
+		mascaraBloom = bits - 1;
+
+		for (long chave : tabela) {
+			if (chave != CHAVE_INVALIDA) {
+				long hash = espalha(chave);
+				int h1 = (int) (hash >>> 32);
+				int h2 = (int) hash | 1;
+				for (int k = 1; k <= 3; k++) {
+					int bit = (h1 + k * h2) & mascaraBloom;
+					bloom[bit >>> 6] |= 1L << bit;
+				}
+			}
+		}
+		return this;
+	}
+
+	//Três bits derivados de um único hash (Kirsch-Mitzenmacher)
+	private boolean talvezContem(long hash) {
+		int h1 = (int) (hash >>> 32);
+		int h2 = (int) hash | 1;
+		for (int k = 1; k <= 3; k++) {
+			int bit = (h1 + k * h2) & mascaraBloom;
+			if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long[] novaTabela(int capacidade) {
+		long[] tabela = new long[capacidade];
+		Arrays.fill(tabela, CHAVE_INVALIDA);
+		return tabela;
+	}
+
+	/**
+	 * Finalizador do MurmurHash3, para que chaves sequenciais não fiquem agrupadas nas tabelas hash de chaves.
+	 */
+	static long espalha(long chave) {
+		long h = chave;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static void pulaBOM(ByteBuffer bytes) {
+		if (bytes.remaining() >= 3 && bytes.get(0) == (byte) 0xEF && bytes.get(1) == (byte) 0xBB && bytes.get(2) == (byte) 0xBF) {
+			bytes.position(3);
+		}
+	}
+
+	static long chave(CharSequence texto) {
+		long valor = 0;
+		int digitos = 0;
+		int asteriscos = 0;
+		for (int i = 0; i < texto.length(); i++) {
+			char c = texto.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (++digitos > MAXIMO_DIGITOS) {
+					return CHAVE_INVALIDA;
+				}
+				valor = valor * 10 + (c - '0');
+			} else if (c == '*') {
+				asteriscos = marcaAsterisco(asteriscos, digitos);
+			} else if (!isSeparador(c)) {
+				return CHAVE_INVALIDA;
+			}
+		}
+		return chave(valor, digitos, asteriscos);
+	}
+
+	/**
+	 * Chave do CPF/CNPJ escrito em ISO-8859-1 entre as posições absolutas {@code inicio} e {@code fim} do buffer.
+	 */
+	static long chave(ByteBuffer buffer, int inicio, int fim) {
+		long valor = 0;
+		int digitos = 0;
+		int asteriscos = 0;
+		for (int i = inicio; i < fim; i++) {
+			byte c = buffer.get(i);
+			if (c >= '0' && c <= '9') {
+				if (++digitos > MAXIMO_DIGITOS) {
+					return CHAVE_INVALIDA;
+				}
+				valor = valor * 10 + (c - '0');
+			} else if (c == '*') {
+				asteriscos = marcaAsterisco(asteriscos, digitos);
+			} else if (!isSeparador((char) c)) {
+				return CHAVE_INVALIDA;
+			}
+		}
+		return chave(valor, digitos, asteriscos);
+	}
+
+	/**
+	 * Acrescenta aos bits de {@code asteriscos} a posição de um '*' encontrado depois de {@code digitos} dígitos.
+	 * O bit 31 marca um '*' em uma posição que nenhum CPF mascarado teria.
+	 */
+	private static int marcaAsterisco(int asteriscos, int digitos) {
+		int posicao = digitos + Integer.bitCount(asteriscos);
+		return posicao < POSICOES_CPF ? asteriscos | (1 << posicao) : asteriscos | Integer.MIN_VALUE;
+	}
+
+	private static long chave(long valor, int digitos, int asteriscos) {
+		if (asteriscos == 0) {
+			return digitos == 0 ? CHAVE_INVALIDA : ((long) digitos << DESLOCAMENTO_DIGITOS) | valor;
+		} else if (asteriscos == ASTERISCOS_CPF_MASCARADO && digitos == POSICOES_CPF - Integer.bitCount(ASTERISCOS_CPF_MASCARADO)) {
+			return ((long) CPF_MASCARADO << DESLOCAMENTO_DIGITOS) | valor;
+		}
+		return CHAVE_INVALIDA;
+	}
+
+	/**
+	 * Número de dígitos do CPF/CNPJ de uma chave válida, ou {@link #CPF_MASCARADO}.
+	 */
+	static int digitos(long chave) {
+		return (int) (chave >>> DESLOCAMENTO_DIGITOS);
+	}
+
+	/**
+	 * Número formado pelos dígitos do CPF/CNPJ de uma chave válida (no CPF mascarado, os dígitos visíveis).
+	 */
+	static long numero(long chave) {
+		return chave & ((1L << DESLOCAMENTO_DIGITOS) - 1);
+	}
+
+	/**
+	 * Chave da raiz (8 primeiros dígitos) do CNPJ de uma chave, ou {@link #CHAVE_INVALIDA} se a chave não for de um CNPJ.
+	 */
+	static long raiz(long chave) {
+		if (chave == CHAVE_INVALIDA || digitos(chave) != 14) {
+			return CHAVE_INVALIDA;
+		}
+		return (8L << DESLOCAMENTO_DIGITOS) | (numero(chave) / 1_000_000);
+	}
+
+	/**
+	 * Texto do CPF/CNPJ de uma chave, com a máscara de CNPJ (14 dígitos) ou de CPF (11 dígitos, ou o CPF mascarado),
+	 * ou apenas os dígitos nos demais casos.
+	 */
+	static String formata(long chave) {
+		int digitos = digitos(chave);
+		if (digitos == CPF_MASCARADO) {
+			String numero = String.format("%06d", numero(chave));
+			return "***." + numero.substring(0, 3) + "." + numero.substring(3) + "-**";
+		}
+		String numero = String.format("%0" + digitos + "d", numero(chave));
+		if (digitos == 14) {
+			return numero.substring(0, 2) + "." + numero.substring(2, 5) + "." + numero.substring(5, 8) + "/" + numero.substring(8, 12) + "-" + numero.substring(12);
+		} else if (digitos == 11) {
+			return numero.substring(0, 3) + "." + numero.substring(3, 6) + "." + numero.substring(6, 9) + "-" + numero.substring(9);
+		}
+		return numero;
+	}
+
+	private static boolean isSeparador(char c) {
+		return c == '.' || c == '/' || c == '-' || c == ' ' || c == '\t';
+	}
+}
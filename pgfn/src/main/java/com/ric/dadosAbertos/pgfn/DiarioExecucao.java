@@ -0,0 +1,208 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Diário de execução gravado no diretório de saída, que registra o trabalho já concluído de cada etapa
+ * para que uma execução interrompida seja retomada do último ponto registrado.
+ *
+ * Cada etapa grava um arquivo de saída e registra os trechos de entrada já gravados e o tamanho da saída
+ * logo depois deles. Ao retomar, a saída é truncada nesse tamanho, descartando o que foi gravado depois
+ * do último registro, e só os trechos restantes são processados. Cada etapa guarda também um resumo das
+ * suas entradas: se as entradas mudarem, a etapa recomeça do início.
+ *
+ * O diário é regravado a cada registro em um arquivo temporário, gravado em disco e renomeado, e a saída
+ * deve ser gravada em disco antes de cada registro, de forma que o diário nunca aponte para dados perdidos.
+ */
+final class DiarioExecucao {
+	static final String ARQUIVO = "diario_execucao.properties";
+	private static final String SEPARADOR_TRECHOS = "|";
+
+	private final Path arquivo;
+	private final Properties registros = new Properties();
+
+	private DiarioExecucao(Path arquivo) {
+		this.arquivo = arquivo;
+	}
+
+	/**
+	 * Abre o diário do diretório de saída, lendo os registros de uma execução anterior interrompida, se houver.
+	 */
+	static DiarioExecucao abre(Path dirSaida) throws IOException {
+		DiarioExecucao diario = new DiarioExecucao(dirSaida.resolve(ARQUIVO));
+		if (Files.exists(diario.arquivo)) {
+			try (InputStream is = Files.newInputStream(diario.arquivo);) {
+				diario.registros.load(is);
+			}
+			System.out.println("Retomando a execução registrada em " + diario.arquivo);
+		}
+		return diario;
+	}
+
+	/**
+	 * Etapa de nome informado, com os registros da execução anterior se o resumo das entradas for o mesmo.
+	 */
+	synchronized Etapa etapa(String nome, String resumoEntradas) {
+		Etapa etapa = new Etapa(nome);
+		if (!resumoEntradas.equals(registros.getProperty(nome + ".entradas"))) {
+			if (registros.containsKey(nome + ".entradas")) {
+				System.out.println("Entradas de " + nome + " mudaram desde a execução anterior, recomeçando.");
+			}
+			etapa.limpa();
+			registros.setProperty(nome + ".entradas", resumoEntradas);
+		} else if (!etapa.concluida && !etapa.trechos.isEmpty()) {
+			System.out.println("Retomando " + nome + " com " + etapa.trechos.size() + " trechos já gravados.");
+		}
+		return etapa;
+	}
+
+	/**
+	 * Apaga o diário ao final de uma execução completa, para que a próxima comece do início.
+	 */
+	synchronized void encerra() throws IOException {
+		Files.deleteIfExists(arquivo);
+	}
+
+	private synchronized void grava() throws IOException {
+		ByteArrayOutputStream conteudo = new ByteArrayOutputStream();
+		registros.store(conteudo, null);
+
+		Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+		try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);) {
+			ByteBuffer bytes = ByteBuffer.wrap(conteudo.toByteArray());
+			while (bytes.hasRemaining()) {
+				canal.write(bytes);
+			}
+			canal.force(true);
+		}
+		Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * SHA-256, em hexadecimal, de um texto que descreve as entradas de uma etapa.
+	 */
+	static String resumo(String descricao) {
+		MessageDigest digest = sha256();
+		digest.update(descricao.getBytes(StandardCharsets.UTF_8));
+		return hex(digest);
+	}
+
+	/**
+	 * SHA-256, em hexadecimal, de uma sequência de chaves, que deve estar ordenada para que o resumo
+	 * não dependa da ordem em que as chaves foram lidas.
+	 */
+	static String resumo(long[] chaves) {
+		MessageDigest digest = sha256();
+		ByteBuffer bytes = ByteBuffer.allocate(8 * 1024);
+		for (long chave : chaves) {
+			if (!bytes.hasRemaining()) {
+				digest.update(bytes.flip());
+				bytes.clear();
+			}
+			bytes.putLong(chave);
+		}
+		digest.update(bytes.flip());
+		return hex(digest);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(MessageDigest digest) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Progresso registrado de uma etapa: trechos de entrada gravados, tamanho da saída e se a etapa foi concluída.
+	 */
+	final class Etapa {
+		private final String nome;
+		private final Set<String> trechos = new LinkedHashSet<>();
+		private long tamanhoSaida;
+		private boolean concluida;
+
+		private Etapa(String nome) {
+			this.nome = nome;
+			String registrados = registros.getProperty(nome + ".trechos", "");
+			if (!registrados.isEmpty()) {
+				trechos.addAll(Arrays.asList(registrados.split("\\" + SEPARADOR_TRECHOS)));
+			}
+			this.tamanhoSaida = Long.parseLong(registros.getProperty(nome + ".tamanho", "0"));
+			this.concluida = Boolean.parseBoolean(registros.getProperty(nome + ".concluida", "false"));
+		}
+
+		boolean isConcluida() {
+			return concluida;
+		}
+
+		boolean isGravado(String trecho) {
+			return trechos.contains(trecho);
+		}
+
+		/**
+		 * Tamanho da saída depois do último trecho registrado, ou 0 se nenhum foi registrado.
+		 */
+		long getTamanhoSaida() {
+			return tamanhoSaida;
+		}
+
+		/**
+		 * Registra que o trecho foi gravado e que a saída tem agora o tamanho informado. A saída já deve estar gravada em disco.
+		 */
+		void registra(String trecho, long tamanhoSaida) throws IOException {
+			synchronized (DiarioExecucao.this) {
+				trechos.add(trecho);
+				this.tamanhoSaida = tamanhoSaida;
+				registros.setProperty(nome + ".trechos", String.join(SEPARADOR_TRECHOS, trechos));
+				registros.setProperty(nome + ".tamanho", Long.toString(tamanhoSaida));
+				grava();
+			}
+		}
+
+		/**
+		 * Descarta o progresso registrado, quando a saída precisa ser recriada do início.
+		 */
+		void limpa() {
+			synchronized (DiarioExecucao.this) {
+				trechos.clear();
+				tamanhoSaida = 0;
+				concluida = false;
+				registros.remove(nome + ".trechos");
+				registros.remove(nome + ".tamanho");
+				registros.remove(nome + ".concluida");
+			}
+		}
+
+		void conclui() throws IOException {
+			synchronized (DiarioExecucao.this) {
+				concluida = true;
+				registros.setProperty(nome + ".concluida", "true");
+				grava();
+			}
+		}
+	}
+}
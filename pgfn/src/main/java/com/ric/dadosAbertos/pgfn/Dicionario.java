@@ -0,0 +1,96 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dá códigos sequenciais aos valores distintos de uma coluna de poucos valores (UF, situação etc.),
+ * comparando diretamente os bytes do campo, sem criar um objeto por linha.
+ */
+final class Dicionario {
+	private byte[][] valores = new byte[16][];
+	private int[] hashes = new int[16];
+	private int tamanho;
+	//Código + 1 de cada posição da tabela hash, ou 0 se a posição estiver vazia
+	private int[] tabela = new int[64];
+
+	/**
+	 * Código do valor entre as posições absolutas {@code inicio} e {@code fim} do buffer, criado se ainda não existir.
+	 */
+	int codigo(ByteBuffer bytes, int inicio, int fim) {
+		int hash = hash(bytes, inicio, fim);
+		int mascara = tabela.length - 1;
+		for (int i = hash & mascara; ; i = (i + 1) & mascara) {
+			int codigo = tabela[i] - 1;
+			if (codigo < 0) {
+				return adiciona(bytes, inicio, fim, hash, i);
+			} else if (hashes[codigo] == hash && iguais(valores[codigo], bytes, inicio, fim)) {
+				return codigo;
+			}
+		}
+	}
+
+	int tamanho() {
+		return tamanho;
+	}
+
+	String texto(int codigo) {
+		return new String(valores[codigo], StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Bytes do valor de um código; o vetor retornado é compartilhado e não deve ser alterado.
+	 */
+	byte[] valor(int codigo) {
+		return valores[codigo];
+	}
+
+	private int adiciona(ByteBuffer bytes, int inicio, int fim, int hash, int posicao) {
+		if (tamanho == valores.length) {
+			valores = Arrays.copyOf(valores, 2 * tamanho);
+			hashes = Arrays.copyOf(hashes, 2 * tamanho);
+		}
+		byte[] valor = new byte[fim - inicio];
+		for (int i = inicio; i < fim; i++) {
+			valor[i - inicio] = bytes.get(i);
+		}
+		valores[tamanho] = valor;
+		hashes[tamanho] = hash;
+		tabela[posicao] = ++tamanho;
+
+		//Mantém a ocupação da tabela abaixo de 1/2
+		if (2 * tamanho > tabela.length) {
+			tabela = new int[2 * tabela.length];
+			int mascara = tabela.length - 1;
+			for (int codigo = 0; codigo < tamanho; codigo++) {
+				int i = hashes[codigo] & mascara;
+				while (tabela[i] != 0) {
+					i = (i + 1) & mascara;
+				}
+				tabela[i] = codigo + 1;
+			}
+		}
+		return tamanho - 1;
+	}
+
+	private static int hash(ByteBuffer bytes, int inicio, int fim) {
+		int h = 0;
+		for (int i = inicio; i < fim; i++) {
+			h = 31 * h + bytes.get(i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean iguais(byte[] valor, ByteBuffer bytes, int inicio, int fim) {
+		if (valor.length != fim - inicio) {
+			return false;
+		}
+		for (int i = 0; i < valor.length; i++) {
+			if (valor[i] != bytes.get(inicio + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,50 @@
+package com.ric.dadosAbertos.pgfn;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento do JDK Flight Recorder de um trecho de arquivo processado, gerado quando as métricas são
+ * coletadas com -jfr (ver {@link Metricas}).
+ */
+@Name("com.ric.dadosAbertos.pgfn.Trecho")
+@Label("Trecho processado")
+@Category("PGFN")
+final class EventoTrechoJFR extends Event {
+	@Label("Fase")
+	String fase;
+
+	@Label("Arquivo")
+	String arquivo;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Linhas lidas")
+	long linhas;
+
+	@Label("Linhas selecionadas")
+	long selecionadas;
+
+	static EventoTrechoJFR inicia() {
+		EventoTrechoJFR evento = new EventoTrechoJFR();
+		evento.begin();
+		return evento;
+	}
+
+	void conclui(String fase, String arquivo, long bytes, long linhas, long selecionadas) {
+		end();
+		if (shouldCommit()) {
+			this.fase = fase;
+			this.arquivo = arquivo;
+			this.bytes = bytes;
+			this.linhas = linhas;
+			this.selecionadas = selecionadas;
+			commit();
+		}
+	}
+}
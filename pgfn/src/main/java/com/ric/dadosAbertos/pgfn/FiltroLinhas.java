@@ -0,0 +1,352 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Filtro das linhas das bases por uma expressão com critérios sobre as colunas, em que todos os
+ * critérios devem ser atendidos. A expressão tem um critério por trecho separado por ';', no formato
+ * {@code campo=valores}, com os valores de cada critério separados por ',':
+ * <ul>
+ * <li>{@code raiz=04071544,35561786}: raiz (8 primeiros dígitos) do CNPJ, ou {@code raiz=@arquivo} com uma raiz por linha;</li>
+ * <li>{@code uf=SP,RJ}: UF_UNIDADE_RESPONSAVEL;</li>
+ * <li>{@code situacao=ATIVA AJUIZADA,AJUIZADA}: SITUACAO_INSCRICAO;</li>
+ * <li>{@code ajuizado=SIM}: INDICADOR_AJUIZADO;</li>
+ * <li>{@code valor=1000..50000.50}: VALOR_CONSOLIDADO entre os limites, inclusive, podendo faltar um deles;</li>
+ * <li>{@code data=01/01/2015..31/12/2019}: DATA_INSCRICAO entre as datas, inclusive, podendo faltar uma delas.</li>
+ * </ul>
+ *
+ * A expressão é compilada uma só vez para cada base em uma sequência de etapas na ordem das colunas:
+ * os campos da linha são percorridos da esquerda para a direita, cada critério é avaliado assim que
+ * sua coluna é alcançada, e a linha é descartada no primeiro critério não atendido, sem que as colunas
+ * seguintes sejam localizadas. Como localizar uma coluna custa percorrer as anteriores, essa é também
+ * a ordem do critério mais barato para o mais caro, começando pela raiz do CNPJ, na primeira coluna,
+ * e deixando por último o valor, o único convertido em número.
+ */
+final class FiltroLinhas {
+	//Colunas da base consolidada
+	private static final int COLUNA_CPF_CNPJ = 0;
+	private static final int COLUNA_UF = 4;
+	private static final int COLUNA_SITUACAO = 10;
+	private static final int COLUNA_DATA = 13;
+	private static final int COLUNA_AJUIZADO = 14;
+	private static final int COLUNA_VALOR = 15;
+
+	private static final int DIGITOS_RAIZ = 8;
+
+	private final String expressao;
+	//Etapas de cada base, pelo ordinal da base, ordenadas pela coluna
+	private final Etapa[][] etapas;
+
+	private FiltroLinhas(String expressao, List<Criterio> criterios) {
+		this.expressao = expressao;
+		this.etapas = new Etapa[TipoBase.values().length][];
+		for (TipoBase base : TipoBase.values()) {
+			List<Etapa> etapasBase = new ArrayList<>();
+			for (Criterio criterio : criterios) {
+				int coluna = base.colunaIndividual(criterio.colunaConsolidada);
+				if (coluna < 0) {
+					throw new RuntimeException("A base " + base.getDescricao() + " não tem a coluna do critério " + criterio.nome + ".");
+				}
+				etapasBase.add(new Etapa(coluna, criterio));
+			}
+			etapasBase.sort(Comparator.comparingInt(etapa -> etapa.coluna));
+			etapas[base.ordinal()] = etapasBase.toArray(new Etapa[0]);
+		}
+	}
+
+	/**
+	 * Compila a expressão. Critérios desconhecidos, repetidos ou com valores inválidos são erros.
+	 */
+	static FiltroLinhas compila(String expressao) throws IOException {
+		List<Criterio> criterios = new ArrayList<>();
+		for (String trecho : expressao.split(";")) {
+			if (trecho.isBlank()) {
+				continue;
+			}
+			int igual = trecho.indexOf('=');
+			if (igual < 0) {
+				throw new RuntimeException("Critério '" + trecho.trim() + "' do filtro sem '='.");
+			}
+			String nome = trecho.substring(0, igual).trim().toLowerCase(Locale.ROOT);
+			String valores = trecho.substring(igual + 1).trim();
+			for (Criterio criterio : criterios) {
+				if (criterio.nome.equals(nome)) {
+					throw new RuntimeException("Critério " + nome + " repetido no filtro.");
+				}
+			}
+
+			switch (nome) {
+			case "raiz":
+				criterios.add(new CriterioRaiz(nome, valores.startsWith("@") ? Files.readAllLines(Paths.get(valores.substring(1)), StandardCharsets.ISO_8859_1) : lista(valores)));
+				break;
+			case "uf":
+				criterios.add(new CriterioTexto(nome, COLUNA_UF, lista(valores)));
+				break;
+			case "situacao":
+				criterios.add(new CriterioTexto(nome, COLUNA_SITUACAO, lista(valores)));
+				break;
+			case "ajuizado":
+				criterios.add(new CriterioTexto(nome, COLUNA_AJUIZADO, lista(valores)));
+				break;
+			case "valor":
+				criterios.add(new CriterioValor(nome, valores));
+				break;
+			case "data":
+				criterios.add(new CriterioData(nome, valores));
+				break;
+			default:
+				throw new RuntimeException("Critério '" + nome + "' do filtro desconhecido.");
+			}
+		}
+		if (criterios.isEmpty()) {
+			throw new RuntimeException("Filtro sem critérios.");
+		}
+		return new FiltroLinhas(expressao, criterios);
+	}
+
+	private static List<String> lista(String valores) {
+		List<String> lista = new ArrayList<>();
+		for (String valor : valores.split(",")) {
+			if (!valor.isBlank()) {
+				lista.add(valor.trim());
+			}
+		}
+		if (lista.isEmpty()) {
+			throw new RuntimeException("Critério do filtro sem valores.");
+		}
+		return lista;
+	}
+
+	/**
+	 * Se a linha da base entre as posições absolutas {@code inicioLinha} e {@code fimLinha} do buffer,
+	 * sem a quebra de linha, atende a todos os critérios.
+	 */
+	boolean aceita(ByteBuffer bytes, int inicioLinha, int fimLinha, TipoBase base) {
+		int coluna = 0;
+		int inicio = inicioLinha;
+		int fim = fimCampo(bytes, inicio, fimLinha);
+		for (Etapa etapa : etapas[base.ordinal()]) {
+			while (coluna < etapa.coluna) {
+				if (fim >= fimLinha) {
+					throw new RuntimeException(JuntaArquivosPGFN.mensagemFormatoInvalido(base));
+				}
+				inicio = fim + 1;
+				fim = fimCampo(bytes, inicio, fimLinha);
+				coluna++;
+			}
+			if (!etapa.criterio.aceita(bytes, inicio, fim)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int fimCampo(ByteBuffer bytes, int inicio, int fimLinha) {
+		int i = inicio;
+		while (i < fimLinha && bytes.get(i) != ';') {
+			i++;
+		}
+		return i;
+	}
+
+	@Override
+	public String toString() {
+		return expressao;
+	}
+
+	/**
+	 * Critério compilado e a coluna da base individual em que é avaliado.
+	 */
+	private static final class Etapa {
+		private final int coluna;
+		private final Criterio criterio;
+
+		private Etapa(int coluna, Criterio criterio) {
+			this.coluna = coluna;
+			this.criterio = criterio;
+		}
+	}
+
+	/**
+	 * Critério sobre o valor de um campo, avaliado diretamente sobre os bytes do campo.
+	 */
+	private abstract static class Criterio {
+		private final String nome;
+		private final int colunaConsolidada;
+
+		private Criterio(String nome, int colunaConsolidada) {
+			this.nome = nome;
+			this.colunaConsolidada = colunaConsolidada;
+		}
+
+		abstract boolean aceita(ByteBuffer bytes, int inicio, int fim);
+	}
+
+	/**
+	 * Raiz do CNPJ em um conjunto de raízes. CPFs e CPFs mascarados não são aceitos.
+	 */
+	private static final class CriterioRaiz extends Criterio {
+		private final ConjuntoCNPJ raizes;
+
+		private CriterioRaiz(String nome, List<String> raizes) {
+			super(nome, COLUNA_CPF_CNPJ);
+			long[] chaves = new long[raizes.size()];
+			int quantidade = 0;
+			for (String raiz : raizes) {
+				if (raiz.isBlank()) {
+					continue;
+				}
+				long chave = ConjuntoCNPJ.chave(raiz.trim());
+				if (chave == ConjuntoCNPJ.CHAVE_INVALIDA || ConjuntoCNPJ.digitos(chave) != DIGITOS_RAIZ) {
+					throw new RuntimeException("Raiz de CNPJ '" + raiz.trim() + "' inválida.");
+				}
+				chaves[quantidade++] = chave;
+			}
+			this.raizes = ConjuntoCNPJ.de(Arrays.copyOf(chaves, quantidade));
+		}
+
+		@Override
+		boolean aceita(ByteBuffer bytes, int inicio, int fim) {
+			long raiz = ConjuntoCNPJ.raiz(ConjuntoCNPJ.chave(bytes, inicio, fim));
+			return raiz != ConjuntoCNPJ.CHAVE_INVALIDA && raizes.contem(raiz);
+		}
+	}
+
+	/**
+	 * Campo igual a um dos valores, comparados byte a byte em maiúsculas.
+	 */
+	private static final class CriterioTexto extends Criterio {
+		private final byte[][] valores;
+
+		private CriterioTexto(String nome, int colunaConsolidada, List<String> valores) {
+			super(nome, colunaConsolidada);
+			this.valores = new byte[valores.size()][];
+			for (int i = 0; i < valores.size(); i++) {
+				this.valores[i] = valores.get(i).toUpperCase(Locale.ROOT).getBytes(StandardCharsets.ISO_8859_1);
+			}
+		}
+
+		@Override
+		boolean aceita(ByteBuffer bytes, int inicio, int fim) {
+			for (byte[] valor : valores) {
+				if (iguais(valor, bytes, inicio, fim)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean iguais(byte[] valor, ByteBuffer bytes, int inicio, int fim) {
+			if (valor.length != fim - inicio) {
+				return false;
+			}
+			for (int i = 0; i < valor.length; i++) {
+				if (valor[i] != bytes.get(inicio + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * VALOR_CONSOLIDADO, em centavos, dentro do intervalo.
+	 */
+	private static final class CriterioValor extends Criterio {
+		private final long minimo;
+		private final long maximo;
+
+		private CriterioValor(String nome, String intervalo) {
+			super(nome, COLUNA_VALOR);
+			String[] limites = limites(nome, intervalo);
+			this.minimo = limites[0].isEmpty() ? Long.MIN_VALUE : centavos(limites[0]);
+			this.maximo = limites[1].isEmpty() ? Long.MAX_VALUE : centavos(limites[1]);
+		}
+
+		private static long centavos(String valor) {
+			byte[] bytes = valor.getBytes(StandardCharsets.ISO_8859_1);
+			return Agregacao.centavos(ByteBuffer.wrap(bytes), 0, bytes.length);
+		}
+
+		@Override
+		boolean aceita(ByteBuffer bytes, int inicio, int fim) {
+			long centavos = Agregacao.centavos(bytes, inicio, fim);
+			return centavos >= minimo && centavos <= maximo;
+		}
+	}
+
+	/**
+	 * DATA_INSCRICAO, no formato dd/mm/aaaa, dentro do intervalo. Datas vazias ou inválidas não são aceitas.
+	 */
+	private static final class CriterioData extends Criterio {
+		private final int minimo;
+		private final int maximo;
+
+		private CriterioData(String nome, String intervalo) {
+			super(nome, COLUNA_DATA);
+			String[] limites = limites(nome, intervalo);
+			this.minimo = limites[0].isEmpty() ? 0 : data(limites[0]);
+			this.maximo = limites[1].isEmpty() ? Integer.MAX_VALUE : data(limites[1]);
+		}
+
+		private static int data(String data) {
+			byte[] bytes = data.getBytes(StandardCharsets.ISO_8859_1);
+			int valor = aaaammdd(ByteBuffer.wrap(bytes), 0, bytes.length);
+			if (valor < 0) {
+				throw new RuntimeException("Data '" + data + "' do filtro inválida.");
+			}
+			return valor;
+		}
+
+		//A data dd/mm/aaaa como o número aaaammdd, que preserva a ordem, ou -1 se não estiver nesse formato
+		private static int aaaammdd(ByteBuffer bytes, int inicio, int fim) {
+			if (fim - inicio != 10 || bytes.get(inicio + 2) != '/' || bytes.get(inicio + 5) != '/') {
+				return -1;
+			}
+			int dia = numero(bytes, inicio, 2);
+			int mes = numero(bytes, inicio + 3, 2);
+			int ano = numero(bytes, inicio + 6, 4);
+			return dia < 0 || mes < 0 || ano < 0 ? -1 : ano * 10000 + mes * 100 + dia;
+		}
+
+		private static int numero(ByteBuffer bytes, int inicio, int digitos) {
+			int valor = 0;
+			for (int i = inicio; i < inicio + digitos; i++) {
+				byte c = bytes.get(i);
+				if (c < '0' || c > '9') {
+					return -1;
+				}
+				valor = valor * 10 + (c - '0');
+			}
+			return valor;
+		}
+
+		@Override
+		boolean aceita(ByteBuffer bytes, int inicio, int fim) {
+			int data = aaaammdd(bytes, inicio, fim);
+			return data >= minimo && data <= maximo;
+		}
+	}
+
+	//Limites inicial e final de um intervalo "inicio..fim", vazios quando omitidos
+	private static String[] limites(String nome, String intervalo) {
+		int separador = intervalo.indexOf("..");
+		if (separador < 0) {
+			throw new RuntimeException("Critério " + nome + " do filtro deve ser um intervalo inicio..fim.");
+		}
+		String[] limites = { intervalo.substring(0, separador).trim(), intervalo.substring(separador + 2).trim() };
+		if (limites[0].isEmpty() && limites[1].isEmpty()) {
+			throw new RuntimeException("Critério " + nome + " do filtro sem limites.");
+		}
+		return limites;
+	}
+}
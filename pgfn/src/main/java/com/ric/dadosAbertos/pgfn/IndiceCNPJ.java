@@ -0,0 +1,278 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Índice da base consolidada por CPF/CNPJ, gravado em disco ao lado da base, que permite
+ * obter as linhas de um CNPJ sem varrer a base.
+ *
+ * O arquivo tem um cabeçalho que identifica a versão da base indexada (tamanho e data de modificação),
+ * seguido das chaves de todas as linhas em ordem crescente (ver {@link ConjuntoCNPJ}) e das posições
+ * das linhas correspondentes na base. Na consulta, o índice e a base são mapeados em memória e só uma
+ * a cada {@value #INTERVALO_CERCA} chaves fica no heap, delimitando o trecho do índice da busca binária.
+ */
+public final class IndiceCNPJ {
+	private static final long ASSINATURA = 0x5047464e49445831L; //"PGFNIDX1"
+	private static final int TAMANHO_CABECALHO = 4 * Long.BYTES;
+	private static final int INTERVALO_CERCA = 4096;
+	private static final int TAMANHO_BUFFER = 1024 * 1024;
+	private static final long TAMANHO_TRECHO = 64 * 1024 * 1024;
+	private static final long TAMANHO_SEGMENTO = 1L << 30;
+	//Cada segmento da base mapeado se estende sobre o próximo, para que as linhas que começam nele caibam inteiras
+	private static final int MARGEM_SEGMENTO = 1024 * 1024;
+
+	private final Path arqBase;
+	private final int linhas;
+	private final LongBuffer chaves;
+	private final LongBuffer posicoes;
+	private final long[] cerca;
+	private final ByteBuffer[] segmentos;
+	private final long tamanhoBase;
+	private final long modificacaoBase;
+
+	private IndiceCNPJ(Path arqBase, int linhas, LongBuffer chaves, LongBuffer posicoes, ByteBuffer[] segmentos, long tamanhoBase, long modificacaoBase) {
+		this.arqBase = arqBase;
+		this.linhas = linhas;
+		this.chaves = chaves;
+		this.posicoes = posicoes;
+		this.segmentos = segmentos;
+		this.tamanhoBase = tamanhoBase;
+		this.modificacaoBase = modificacaoBase;
+
+		this.cerca = new long[(linhas + INTERVALO_CERCA - 1) / INTERVALO_CERCA];
+		for (int i = 0; i < cerca.length; i++) {
+			cerca[i] = chaves.get(i * INTERVALO_CERCA);
+		}
+	}
+
+	/**
+	 * Arquivo de índice da base consolidada informada.
+	 */
+	public static Path arquivoIndice(Path arqBase) {
+		String nome = arqBase.getFileName().toString();
+		return arqBase.resolveSibling((nome.endsWith(".csv") ? nome.substring(0, nome.length() - 4) : nome) + ".idx");
+	}
+
+	/**
+	 * Cria o índice da base consolidada, lendo a base em trechos processados em paralelo.
+	 * O índice é gravado em um arquivo temporário e só então renomeado, para que uma consulta
+	 * nunca encontre um índice pela metade.
+	 */
+	public static void cria(Path arqBase, int threads) throws IOException {
+		Path arqIndice = arquivoIndice(arqBase);
+		System.out.println("Criando índice " + arqIndice);
+
+		long tamanhoBase = Files.size(arqBase);
+		long modificacaoBase = Files.getLastModifiedTime(arqBase).toMillis();
+
+		List<ChavesPosicoes> partes = new ArrayList<>();
+		try (VarreduraParalela<ChavesPosicoes> varredura = new VarreduraParalela<>(threads, true, partes::add);) {
+			for (TrechoArquivo trecho : TrechoArquivo.divide(arqBase, TAMANHO_TRECHO)) {
+				varredura.submete(() -> indexaTrecho(trecho));
+			}
+			varredura.aguarda();
+		}
+
+		//Cada parte já está ordenada, e as partes estão na ordem da base: a ordenação final só intercala as partes
+		ChavesPosicoes entradas = ChavesPosicoes.junta(partes);
+		entradas.ordena();
+
+		Path temporario = arqIndice.resolveSibling(arqIndice.getFileName() + ".tmp");
+		try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);) {
+			ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+			buffer.putLong(ASSINATURA).putLong(entradas.tamanho()).putLong(tamanhoBase).putLong(modificacaoBase);
+			escreve(canal, buffer, entradas.chaves(), entradas.tamanho());
+			escreve(canal, buffer, entradas.posicoes(), entradas.tamanho());
+			descarrega(canal, buffer);
+			canal.force(false);
+		}
+		Files.move(temporario, arqIndice, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		System.out.println("Índice criado com " + entradas.tamanho() + " linhas.");
+	}
+
+	/**
+	 * Abre o índice da base consolidada, que deve ter sido criado sobre a versão atual da base.
+	 */
+	public static IndiceCNPJ abre(Path arqBase) throws IOException {
+		Path arqIndice = arquivoIndice(arqBase);
+		if (!Files.isRegularFile(arqIndice)) {
+			throw new IOException("Índice " + arqIndice + " não encontrado. Crie o índice com a opção -indexar.");
+		}
+
+		try (FileChannel canal = FileChannel.open(arqIndice, StandardOpenOption.READ);
+				FileChannel base = FileChannel.open(arqBase, StandardOpenOption.READ);) {
+			ByteBuffer cabecalho = canal.map(FileChannel.MapMode.READ_ONLY, 0, TAMANHO_CABECALHO);
+			if (cabecalho.getLong() != ASSINATURA) {
+				throw new IOException("Arquivo " + arqIndice + " não é um índice válido.");
+			}
+			long linhas = cabecalho.getLong();
+			long tamanhoBase = cabecalho.getLong();
+			long modificacaoBase = cabecalho.getLong();
+			if (tamanhoBase != base.size() || modificacaoBase != Files.getLastModifiedTime(arqBase).toMillis()) {
+				throw new IOException("O índice " + arqIndice + " não corresponde à versão atual da base. Recrie o índice com a opção -indexar.");
+			}
+
+			long tamanhoChaves = linhas * Long.BYTES;
+			LongBuffer chaves = canal.map(FileChannel.MapMode.READ_ONLY, TAMANHO_CABECALHO, tamanhoChaves).asLongBuffer();
+			LongBuffer posicoes = canal.map(FileChannel.MapMode.READ_ONLY, TAMANHO_CABECALHO + tamanhoChaves, tamanhoChaves).asLongBuffer();
+
+			ByteBuffer[] segmentos = new ByteBuffer[(int) ((tamanhoBase + TAMANHO_SEGMENTO - 1) / TAMANHO_SEGMENTO)];
+			for (int i = 0; i < segmentos.length; i++) {
+				long inicio = i * TAMANHO_SEGMENTO;
+				segmentos[i] = base.map(FileChannel.MapMode.READ_ONLY, inicio, Math.min(tamanhoBase - inicio, TAMANHO_SEGMENTO + MARGEM_SEGMENTO));
+			}
+
+			return new IndiceCNPJ(arqBase, (int) linhas, chaves, posicoes, segmentos, tamanhoBase, modificacaoBase);
+		}
+	}
+
+	/**
+	 * Número de linhas indexadas.
+	 */
+	public int tamanho() {
+		return linhas;
+	}
+
+	/**
+	 * Indica se a base ainda é a versão sobre a qual o índice foi criado. Depois que a base é regravada,
+	 * as linhas mapeadas em memória deixam de corresponder ao índice e o índice não deve mais ser consultado.
+	 */
+	public boolean atual() {
+		try {
+			return Files.size(arqBase) == tamanhoBase && Files.getLastModifiedTime(arqBase).toMillis() == modificacaoBase;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copia para {@code saida} as linhas da base com o CPF/CNPJ informado, na ordem em que aparecem na base,
+	 * e retorna o número de linhas encontradas. Pode ser chamado por várias threads ao mesmo tempo.
+	 */
+	int consulta(long chave, BufferSaida saida) {
+		if (chave == ConjuntoCNPJ.CHAVE_INVALIDA) {
+			return 0;
+		}
+
+		int encontradas = 0;
+		for (int i = primeiraEntrada(chave); i < linhas && chaves.get(i) == chave; i++) {
+			copiaLinha(posicoes.get(i), saida);
+			encontradas++;
+		}
+		return encontradas;
+	}
+
+	/**
+	 * Grava no canal o cabeçalho da base seguido das linhas de cada CPF/CNPJ consultado
+	 * e retorna quantos deles têm linhas na base. Textos que não são CPF/CNPJ são ignorados.
+	 */
+	public int consulta(List<String> cnpjs, WritableByteChannel saida) throws IOException {
+		BufferSaida buffer = new BufferSaida(TAMANHO_BUFFER);
+		if (tamanhoBase > 0) {
+			copiaLinha(0, buffer);
+		}
+
+		int encontrados = 0;
+		for (String cnpj : cnpjs) {
+			if (consulta(ConjuntoCNPJ.chave(cnpj.trim()), buffer) > 0) {
+				encontrados++;
+			}
+			if (buffer.tamanho() >= TAMANHO_BUFFER) {
+				buffer.descarrega(saida);
+			}
+		}
+		buffer.descarrega(saida);
+		return encontrados;
+	}
+
+	//Primeira posição do índice com chave maior ou igual à informada
+	private int primeiraEntrada(long chave) {
+		//Primeiro bloco cuja chave inicial não é menor que a procurada: a primeira entrada está no bloco anterior ou no seu início
+		int bloco = 0;
+		int ultimo = cerca.length;
+		while (bloco < ultimo) {
+			int meio = (bloco + ultimo) >>> 1;
+			if (cerca[meio] < chave) {
+				bloco = meio + 1;
+			} else {
+				ultimo = meio;
+			}
+		}
+		int baixo = Math.max(0, (bloco - 1) * INTERVALO_CERCA);
+		int alto = bloco < cerca.length ? bloco * INTERVALO_CERCA : linhas;
+
+		while (baixo < alto) {
+			int meio = (baixo + alto) >>> 1;
+			if (chaves.get(meio) < chave) {
+				baixo = meio + 1;
+			} else {
+				alto = meio;
+			}
+		}
+		return baixo;
+	}
+
+	private void copiaLinha(long posicao, BufferSaida saida) {
+		//Cópia própria do segmento, porque a escrita no buffer de saída altera a posição e o limite
+		ByteBuffer segmento = segmentos[(int) (posicao / TAMANHO_SEGMENTO)].duplicate();
+		int inicio = (int) (posicao % TAMANHO_SEGMENTO);
+		int fim = inicio;
+		while (fim < segmento.limit() && segmento.get(fim) != '\n') {
+			fim++;
+		}
+
+		if (fim < segmento.limit()) {
+			saida.escreve(segmento, inicio, fim + 1);
+		} else if (posicao - inicio + segmento.limit() == tamanhoBase) {
+			saida.escreve(segmento, inicio, fim);
+			saida.escreve((byte) '\n');
+		} else {
+			throw new IllegalStateException("Linha da base " + arqBase + " na posição " + posicao + " é longa demais.");
+		}
+	}
+
+	private static ChavesPosicoes indexaTrecho(TrechoArquivo trecho) throws IOException {
+		ByteBuffer bytes = trecho.mapeia();
+		ChavesPosicoes entradas = new ChavesPosicoes((int) (trecho.getTamanho() / 128) + 16);
+		LeitorCSV leitor = new LeitorCSV(bytes);
+		while (leitor.proximaLinha()) {
+			if (leitor.linhaVazia()) {
+				continue;
+			}
+			long chave = ConjuntoCNPJ.chave(bytes, leitor.inicioLinha(), leitor.fimCampo(leitor.inicioLinha()));
+			if (chave != ConjuntoCNPJ.CHAVE_INVALIDA) {
+				entradas.adiciona(chave, trecho.getInicio() + leitor.inicioLinha());
+			}
+		}
+		entradas.ordena();
+		return entradas;
+	}
+
+	private static void escreve(FileChannel canal, ByteBuffer buffer, long[] valores, int quantidade) throws IOException {
+		for (int i = 0; i < quantidade; i++) {
+			if (buffer.remaining() < Long.BYTES) {
+				descarrega(canal, buffer);
+			}
+			buffer.putLong(valores[i]);
+		}
+	}
+
+	private static void descarrega(FileChannel canal, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			canal.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -1,265 +1,1000 @@
-/*
-    This program is free software: you can redistribute it and/or modify
-    it under the terms of the GNU General Public License as published by
-    the Free Software Foundation, either version 3 of the License, or
-    (at your option) any later version.
-
-    This program is distributed in the hope that it will be useful,
-    but WITHOUT ANY WARRANTY; without even the implied warranty of
-    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
-    GNU General Public License for more details.
-
-    You should have received a copy of the GNU General Public License
-    along with this program.  If not, see <https://www.gnu.org/licenses/>
- */
-
-package com.ric.dadosAbertos.pgfn;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
-
-/**
- * Este programa lê os arquivos disponibilizados no sítio eletrônico da Procuradoria
- * Geral da Fazenda Nacional (PGFN), em https://www.pgfn.fazenda.gov.br/acesso-a-informacao/dados-abertos
- * juntando em apenas um arquivo as entradas referentes aos CNPJs de interesse.
- *
- * Parâmetros:
- * Opcional: Arquivo texto contendo os CNPJs de interesse, um em cada linha
- * Obrigatório: Diretório com a base da dívida FGTS
- * Obrigatório: Diretório com a base da dívida previdenciária
- * Obrigatório: Diretório com a base da dívida geral
- * Obrigatório: Diretório de saída
- *
- * @author Ricardo Ribeiro
- */
-public class JuntaArquivosPGFN {
-	private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
-
-	public void juntaArquivos(Optional<Path> arqCNPJ, Path dirFGTS, Path dirPrevidenciario, Path dirNaoPrevidenciario, Path dirSaida) throws IOException {
-		Path arqFGTS = dirSaida.resolve("fgts.csv");
-		Path arqPrevidenciario = dirSaida.resolve("previdenciario.csv");
-		Path arqNaoPrevidenciario = dirSaida.resolve("nao_previdenciario.csv");
-		Path arqSaida = dirSaida.resolve("base_consolidada.csv");
-
-		Set<String> conjuntoCNPJs = leArquivoCNPJs(arqCNPJ);
-		if (conjuntoCNPJs.isEmpty()) {
-			System.out.println("Não foi passada conjunto de CNPJs a serem filtrados.");
-		} else {
-			System.out.println("Conjunto de CNPJs a serem filtrados tem tamanho = " + conjuntoCNPJs.size());
-		}
-
-		//Primeiro lê cada tipo de base e cria um arquivo de saída para cada base, contendo apenas os CNPJs filtrados
-		criaBaseIndividual(arqFGTS, dirFGTS, "FGTS", conjuntoCNPJs);
-		criaBaseIndividual(arqPrevidenciario, dirPrevidenciario, "PREVIDENCIARIO", conjuntoCNPJs);
-		criaBaseIndividual(arqNaoPrevidenciario, dirNaoPrevidenciario, "NAO_PREVIDENCIARIO", conjuntoCNPJs);
-
-		//Junta os arquivos de cada base em uma base consolidada, colocando vazio quando a coluna for inexistente
-		criaBaseConsolidada(arqFGTS, arqPrevidenciario, arqNaoPrevidenciario, arqSaida);
-	}
-
-	public Set<String> leArquivoCNPJs(Optional<Path> arqCNPJ) throws IOException {
-		if (arqCNPJ.isPresent()) {
-			List<String> listaCNPJs = Files.readAllLines(arqCNPJ.get());
-			listaCNPJs.replaceAll(JuntaArquivosPGFN::cnpjParaNumero);
-
-			//Usando Set fica mais rápido do que usando List
-			return new HashSet<>(listaCNPJs);
-		} else {
-			return Collections.emptySet();
-		}
-	}
-
-	public void criaBaseIndividual(Path arqSaida, Path dirEntrada, String arquivoOrigem, Collection<String> cnpjs) throws IOException {
-		System.out.println("Criando saída individual " + arqSaida);
-
-		try (BufferedWriter saida = Files.newBufferedWriter(arqSaida, JuntaArquivosPGFN.CHARSET);) {
-			//Primeiro escreve o cabeçalho, copiando de algum arquivo qualquer.
-			//Adiciona coluna indicando o arquivo de origem
-			escreveCabecalhoBaseIndividual(saida, dirEntrada);
-
-			//Depois escreve os arquivos, pulando a primeira linha, que tem o cabeçalho
-			Files.list(dirEntrada).filter(JuntaArquivosPGFN::isCSV).forEach((arqEntrada) -> {
-				System.out.println("Processando arquivo " + arqEntrada);
-
-				try (BufferedReader entrada = Files.newBufferedReader(arqEntrada, JuntaArquivosPGFN.CHARSET);) {
-					entrada.lines().skip(1).forEach((line) -> {
-						try {
-							String cnpj = cnpjParaNumero(line.substring(0, line.indexOf(';')));
-
-							//Escreve apenas as linhas com CNPJ na lista, incluindo a coluna com o arquivo de origem
-							//Se não houver lista de CNPJs, não faz filtragem alguma (escreve todas as linhas)
-							if (cnpjs.isEmpty() || cnpjs.contains(cnpj)) {
-								saida.write(line);
-								saida.write(';');
-								saida.write(arquivoOrigem);
-								saida.newLine();
-							}
-						} catch (IOException e) {
-							throw new RuntimeException(e);
-						}
-					});
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			});
-		}
-	}
-
-	public void escreveCabecalhoBaseIndividual(BufferedWriter saida, Path dirEntrada) throws IOException {
-		Path arquivoQualquer = Files.list(dirEntrada).filter(JuntaArquivosPGFN::isCSV).findAny().get();
-		try (BufferedReader entrada = Files.newBufferedReader(arquivoQualquer, JuntaArquivosPGFN.CHARSET);) {
-			saida.write(entrada.readLine());
-			saida.write(";ARQUIVO_ORIGEM");
-			saida.newLine();
-		}
-	}
-
-	public void criaBaseConsolidada(Path arqFGTS, Path arqPrevidenciario, Path arqNaoPrevidenciario, Path arqSaida) throws IOException {
-		try (BufferedWriter saida = Files.newBufferedWriter(arqSaida, JuntaArquivosPGFN.CHARSET);) {
-			System.out.println("Criando saída consolidada " + arqSaida);
-
-			//Cabeçalho contendo todas as colunas dos três arquivos
-			saida.write("CPF_CNPJ;TIPO_PESSOA;TIPO_DEVEDOR;NOME_DEVEDOR;UF_UNIDADE_RESPONSAVEL;UNIDADE_RESPONSAVEL;ENTIDADE_RESPONSAVEL;UNIDADE_INSCRICAO;NUMERO_INSCRICAO;TIPO_SITUACAO_INSCRICAO;SITUACAO_INSCRICAO;RECEITA_PRINCIPAL;TIPO_CREDITO;DATA_INSCRICAO;INDICADOR_AJUIZADO;VALOR_CONSOLIDADO;ARQUIVO_ORIGEM");
-			saida.newLine();
-
-			escreveBaseConsolidadaFGTS(arqFGTS, saida);
-			escreveBaseConsolidadaPrevidenciario(arqPrevidenciario, saida);
-			escreveBaseConsolidadaNaoPrevidenciario(arqNaoPrevidenciario, saida);
-		}
-	}
-
-	public void escreveBaseConsolidadaFGTS(Path arqEntrada, BufferedWriter saida) throws IOException {
-		try (BufferedReader entrada = Files.newBufferedReader(arqEntrada, JuntaArquivosPGFN.CHARSET);) {
-			System.out.println("Juntando arquivo FGTS " + arqEntrada);
-
-			//Pula a primeira linha, do cabeçalho
-			entrada.lines().skip(1).forEach((linha) -> {
-				try {
-					String[] componentes = linha.split(";");
-					if (componentes.length != 16) {
-						throw new RuntimeException("Formato do arquivo FGTS diferente do esperado.");
-					}
-
-					//FGTS não tem a coluna 'TIPO_CREDITO'
-					saida.write(componentes[0]); saida.write(";"); //CPF_CNPJ
-					saida.write(componentes[1]); saida.write(";"); //TIPO_PESSOA
-					saida.write(componentes[2]); saida.write(";"); //TIPO_DEVEDOR
-					saida.write(componentes[3]); saida.write(";"); //NOME_DEVEDOR
-					saida.write(componentes[4]); saida.write(";"); //UF_UNIDADE_RESPONSAVEL
-					saida.write(componentes[5]); saida.write(";"); //UNIDADE_RESPONSAVEL
-					saida.write(componentes[6]); saida.write(";"); //ENTIDADE_RESPONSAVEL
-					saida.write(componentes[7]); saida.write(";"); //UNIDADE_INSCRICAO
-					saida.write(componentes[8]); saida.write(";"); //NUMERO_INSCRICAO
-					saida.write(componentes[9]); saida.write(";"); //TIPO_SITUACAO_INSCRICAO
-					saida.write(componentes[10]); saida.write(";"); //SITUACAO_INSCRICAO
-					saida.write(componentes[11]); saida.write(";"); //RECEITA_PRINCIPAL
-					saida.write(";"); //TIPO_CREDITO
-					saida.write(componentes[12]); saida.write(";"); //DATA_INSCRICAO
-					saida.write(componentes[13]); saida.write(";"); //INDICADOR_AJUIZADO
-					saida.write(componentes[14]); saida.write(";"); //VALOR_CONSOLIDADO
-					saida.write(componentes[15]); //ARQUIVO_ORIGEM
-					saida.newLine();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			});
-		}
-	}
-
-	public void escreveBaseConsolidadaPrevidenciario(Path arqEntrada, BufferedWriter saida) throws IOException {
-		try (BufferedReader entrada = Files.newBufferedReader(arqEntrada, JuntaArquivosPGFN.CHARSET);) {
-			System.out.println("Juntando arquivo Previdenciário " + arqEntrada);
-
-			//Pula a primeira linha, do cabeçalho
-			entrada.lines().skip(1).forEach((linha) -> {
-				try {
-					String[] componentes = linha.split(";");
-					if (componentes.length != 14) {
-						throw new RuntimeException("Formato do arquivo previdenciário diferente do esperado.");
-					}
-
-					//Previdenciário não tem as colunas 'ENTIDADE_RESPONSAVEL', 'UNIDADE_INSCRICAO' e 'TIPO_CREDITO'
-					saida.write(componentes[0]); saida.write(";"); //CPF_CNPJ
-					saida.write(componentes[1]); saida.write(";"); //TIPO_PESSOA
-					saida.write(componentes[2]); saida.write(";"); //TIPO_DEVEDOR
-					saida.write(componentes[3]); saida.write(";"); //NOME_DEVEDOR
-					saida.write(componentes[4]); saida.write(";"); //UF_UNIDADE_RESPONSAVEL
-					saida.write(componentes[5]); saida.write(";"); //UNIDADE_RESPONSAVEL
-					saida.write(";"); //ENTIDADE_RESPONSAVEL
-					saida.write(";"); //UNIDADE_INSCRICAO
-					saida.write(componentes[6]); saida.write(";"); //NUMERO_INSCRICAO
-					saida.write(componentes[7]); saida.write(";"); //TIPO_SITUACAO_INSCRICAO
-					saida.write(componentes[8]); saida.write(";"); //SITUACAO_INSCRICAO
-					saida.write(componentes[9]); saida.write(";"); //RECEITA_PRINCIPAL
-					saida.write(";"); //TIPO_CREDITO
-					saida.write(componentes[10]); saida.write(";"); //DATA_INSCRICAO
-					saida.write(componentes[11]); saida.write(";"); //INDICADOR_AJUIZADO
-					saida.write(componentes[12]); saida.write(";"); //VALOR_CONSOLIDADO
-					saida.write(componentes[13]); //ARQUIVO_ORIGEM
-					saida.newLine();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			});
-		}
-	}
-
-	public void escreveBaseConsolidadaNaoPrevidenciario(Path arqEntrada, BufferedWriter saida) throws IOException {
-		try (BufferedReader entrada = Files.newBufferedReader(arqEntrada, JuntaArquivosPGFN.CHARSET);) {
-			System.out.println("Juntando arquivo Não Previdenciário " + arqEntrada);
-
-			//Pula a primeira linha, do cabeçalho
-			entrada.lines().skip(1).forEach((linha) -> {
-				try {
-					String[] componentes = linha.split(";");
-					if (componentes.length != 14) {
-						throw new RuntimeException("Formato do arquivo não previdenciário diferente do esperado.");
-					}
-
-					//Não previdenciário não tem as colunas 'ENTIDADE_RESPONSAVEL', 'UNIDADE_INSCRICAO' e 'RECEITA_PRINCIPAL'
-					saida.write(componentes[0]); saida.write(";"); //CPF_CNPJ
-					saida.write(componentes[1]); saida.write(";"); //TIPO_PESSOA
-					saida.write(componentes[2]); saida.write(";"); //TIPO_DEVEDOR
-					saida.write(componentes[3]); saida.write(";"); //NOME_DEVEDOR
-					saida.write(componentes[4]); saida.write(";"); //UF_UNIDADE_RESPONSAVEL
-					saida.write(componentes[5]); saida.write(";"); //UNIDADE_RESPONSAVEL
-					saida.write(";"); //ENTIDADE_RESPONSAVEL
-					saida.write(";"); //UNIDADE_INSCRICAO
-					saida.write(componentes[6]); saida.write(";"); //NUMERO_INSCRICAO
-					saida.write(componentes[7]); saida.write(";"); //TIPO_SITUACAO_INSCRICAO
-					saida.write(componentes[8]); saida.write(";"); //SITUACAO_INSCRICAO
-					saida.write(";"); //RECEITA_PRINCIPAL
-					saida.write(componentes[9]); saida.write(";"); //TIPO_CREDITO
-					saida.write(componentes[10]); saida.write(";"); //DATA_INSCRICAO
-					saida.write(componentes[11]); saida.write(";"); //INDICADOR_AJUIZADO
-					saida.write(componentes[12]); saida.write(";"); //VALOR_CONSOLIDADO
-					saida.write(componentes[13]); //ARQUIVO_ORIGEM
-					saida.newLine();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			});
-		}
-	}
-
-	private static boolean isCSV(Path path) {
-		return path.getFileName().toString().toLowerCase().endsWith(".csv");
-	}
-
-	private static String cnpjParaNumero(String cnpj) {
-		return cnpj
-				.replaceAll("[./-]", "")
-				.strip();
-	}
-}
+/*
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Este programa lê os arquivos disponibilizados no sítio eletrônico da Procuradoria
+ * Geral da Fazenda Nacional (PGFN), em https://www.pgfn.fazenda.gov.br/acesso-a-informacao/dados-abertos
+ * juntando em apenas um arquivo as entradas referentes aos CNPJs de interesse.
+ *
+ * Parâmetros:
+ * Opcional: Arquivo texto contendo os CNPJs de interesse, um em cada linha
+ * Obrigatório: Diretório ou arquivo zip com a base da dívida FGTS
+ * Obrigatório: Diretório ou arquivo zip com a base da dívida previdenciária
+ * Obrigatório: Diretório ou arquivo zip com a base da dívida geral
+ * Obrigatório: Diretório de saída
+ *
+ * @author Ricardo Ribeiro
+ */
+public class JuntaArquivosPGFN {
+	private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+	private static final int TAMANHO_BUFFER = 1024 * 1024;
+	private static final int TAMANHO_BUFFER_FILTRADO = 64 * 1024;
+	private static final long TAMANHO_TRECHO = 64 * 1024 * 1024;
+	private static final int TAMANHO_BLOCO = 16 * 1024 * 1024;
+	private static final int LIMITE_TRANSBORDO = 16 * 1024 * 1024;
+	static final String ARQUIVO_CONSOLIDADO = "base_consolidada.csv";
+	private static final byte[] FIM_LINHA = System.lineSeparator().getBytes(CHARSET);
+
+	private int threads = 1;
+	private boolean saidaOrdenada = false;
+	private boolean passoUnico = false;
+	private boolean gravaIndividuais = true;
+	private boolean agrega = false;
+	private FiltroLinhas filtro = null;
+	private Metricas metricas = new Metricas();
+	private DiarioExecucao diario = null;
+
+	/**
+	 * Número de threads usadas na filtragem das bases individuais.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Número de threads deve ser positivo.");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Se verdadeiro, as linhas de saída seguem a ordem dos arquivos de entrada, independentemente
+	 * de qual thread terminar primeiro.
+	 */
+	public void setSaidaOrdenada(boolean saidaOrdenada) {
+		this.saidaOrdenada = saidaOrdenada;
+	}
+
+	/**
+	 * Se verdadeiro, cada linha filtrada é gravada na base consolidada no momento em que é lida,
+	 * sem que a base consolidada seja criada relendo os arquivos de cada base.
+	 */
+	public void setPassoUnico(boolean passoUnico) {
+		this.passoUnico = passoUnico;
+	}
+
+	/**
+	 * Se falso, no passo único só é gravada a base consolidada, sem os arquivos de cada base.
+	 */
+	public void setGravaIndividuais(boolean gravaIndividuais) {
+		this.gravaIndividuais = gravaIndividuais;
+	}
+
+	/**
+	 * Se verdadeiro, em vez das linhas filtradas são gravados apenas arquivos com os totais de
+	 * VALOR_CONSOLIDADO por CPF/CNPJ, por UF e por situação/ajuizamento, calculados em uma única leitura das bases.
+	 */
+	public void setAgrega(boolean agrega) {
+		this.agrega = agrega;
+	}
+
+	/**
+	 * Filtro das linhas pelas demais colunas, aplicado além das listas de CNPJs: só são gravadas, ou somadas
+	 * aos totais, as linhas que atendem ao filtro. Se for nulo, as linhas são filtradas apenas pelo CPF/CNPJ.
+	 */
+	void setFiltro(FiltroLinhas filtro) {
+		this.filtro = filtro;
+	}
+
+	/**
+	 * Métricas onde são contadas as linhas lidas e selecionadas de cada arquivo.
+	 */
+	void setMetricas(Metricas metricas) {
+		this.metricas = metricas;
+	}
+
+	/**
+	 * Diário onde as bases individuais e a base consolidada registram os trechos já gravados, para que uma
+	 * execução interrompida seja retomada. Se for nulo, as bases são sempre criadas do início.
+	 */
+	void setDiario(DiarioExecucao diario) {
+		this.diario = diario;
+	}
+
+	public void juntaArquivos(Optional<Path> arqCNPJ, Path dirFGTS, Path dirPrevidenciario, Path dirNaoPrevidenciario, Path dirSaida) throws IOException {
+		Path arqFGTS = dirSaida.resolve(TipoBase.FGTS.getNomeArquivo());
+		Path arqPrevidenciario = dirSaida.resolve(TipoBase.PREVIDENCIARIO.getNomeArquivo());
+		Path arqNaoPrevidenciario = dirSaida.resolve(TipoBase.NAO_PREVIDENCIARIO.getNomeArquivo());
+		Path arqSaida = dirSaida.resolve(ARQUIVO_CONSOLIDADO);
+
+		ConjuntoCNPJ conjuntoCNPJs = leArquivoCNPJs(arqCNPJ);
+
+		if (agrega) {
+			ListasCNPJ listas = ListasCNPJ.unica(conjuntoCNPJs, dirSaida);
+			agrega(submissores(entradas(dirFGTS, dirPrevidenciario, dirNaoPrevidenciario), listas, dirSaida.toAbsolutePath()), listas);
+			return;
+		}
+
+		if (passoUnico) {
+			criaBaseConsolidadaPassoUnico(entradas(dirFGTS, dirPrevidenciario, dirNaoPrevidenciario), conjuntoCNPJs, arqSaida, saidasIndividuais(dirSaida));
+			return;
+		}
+
+		//Primeiro lê cada tipo de base e cria um arquivo de saída para cada base, contendo apenas os CNPJs filtrados
+		criaBaseIndividual(arqFGTS, dirFGTS, TipoBase.FGTS, conjuntoCNPJs);
+		criaBaseIndividual(arqPrevidenciario, dirPrevidenciario, TipoBase.PREVIDENCIARIO, conjuntoCNPJs);
+		criaBaseIndividual(arqNaoPrevidenciario, dirNaoPrevidenciario, TipoBase.NAO_PREVIDENCIARIO, conjuntoCNPJs);
+
+		//Junta os arquivos de cada base em uma base consolidada, colocando vazio quando a coluna for inexistente
+		criaBaseConsolidada(arqFGTS, arqPrevidenciario, arqNaoPrevidenciario, arqSaida);
+	}
+
+	/**
+	 * Filtra várias listas de CNPJs em uma única leitura dos arquivos de cada base, gravando no diretório
+	 * de saída de cada lista as linhas dos seus CNPJs. As bases consolidadas são sempre criadas em passo único.
+	 */
+	public void juntaArquivosListas(ListasCNPJ listas, Path dirFGTS, Path dirPrevidenciario, Path dirNaoPrevidenciario) throws IOException {
+		processaPassoUnico(submissores(entradas(dirFGTS, dirPrevidenciario, dirNaoPrevidenciario), listas, listas.getDirSaida(0).toAbsolutePath()), listas);
+	}
+
+	/**
+	 * Filtra os arquivos CSV contidos nos zips de cada base à medida que são lidos, sem extraí-los em disco.
+	 * Como não há arquivos de cada base para serem relidos, a base consolidada é sempre criada em passo único.
+	 */
+	public void juntaArquivosZip(Optional<Path> arqCNPJ, Map<TipoBase, FonteZip> zips, Path dirSaida) throws IOException {
+		ListasCNPJ listas = ListasCNPJ.unica(leArquivoCNPJs(arqCNPJ), dirSaida);
+		processaPassoUnico(submissoresZip(zips, listas), listas);
+	}
+
+	/**
+	 * Como {@link #juntaArquivosZip(Optional, Map, Path)}, gravando no diretório de saída de cada lista as linhas dos seus CNPJs.
+	 */
+	public void juntaArquivosZip(ListasCNPJ listas, Map<TipoBase, FonteZip> zips) throws IOException {
+		processaPassoUnico(submissoresZip(zips, listas), listas);
+	}
+
+	/**
+	 * Filtra as bases gravadas em um snapshot criado por {@link #criaSnapshot(Path, Path, Path, Path)}, em vez dos arquivos CSV.
+	 * As linhas de CPF/CNPJ fora da lista são descartadas sem serem decodificadas. Como não há arquivos de cada base
+	 * para serem relidos, a base consolidada é sempre criada em passo único.
+	 */
+	public void juntaArquivosSnapshot(Optional<Path> arqCNPJ, Path arqSnapshot, Path dirSaida) throws IOException {
+		juntaArquivosSnapshot(ListasCNPJ.unica(leArquivoCNPJs(arqCNPJ), dirSaida), arqSnapshot);
+	}
+
+	/**
+	 * Como {@link #juntaArquivosSnapshot(Optional, Path, Path)}, gravando no diretório de saída de cada lista as linhas dos seus CNPJs.
+	 */
+	public void juntaArquivosSnapshot(ListasCNPJ listas, Path arqSnapshot) throws IOException {
+		try (SnapshotPGFN.Leitor snapshot = SnapshotPGFN.Leitor.abre(arqSnapshot);) {
+			processaPassoUnico(submissoresSnapshot(snapshot, listas), listas);
+		}
+	}
+
+	/**
+	 * Grava as três bases em um snapshot compacto, que pode ser filtrado depois no lugar dos arquivos CSV.
+	 * Os arquivos de cada base são codificados em paralelo, mantendo a ordem das linhas.
+	 */
+	public void criaSnapshot(Path dirFGTS, Path dirPrevidenciario, Path dirNaoPrevidenciario, Path arqSnapshot) throws IOException {
+		System.out.println("Criando snapshot " + arqSnapshot);
+
+		//O snapshot é gravado em um arquivo temporário e só então renomeado, para que nunca seja lido pela metade
+		Path temporario = arqSnapshot.resolveSibling(arqSnapshot.getFileName() + ".tmp");
+		try {
+			try (SnapshotPGFN.Escritor escritor = new SnapshotPGFN.Escritor(temporario);) {
+				try (VarreduraParalela<List<SnapshotPGFN.Bloco>> varredura = new VarreduraParalela<>(threads, true, escritor::escreve);) {
+					for (Map.Entry<TipoBase, Path> entrada : entradas(dirFGTS, dirPrevidenciario, dirNaoPrevidenciario).entrySet()) {
+						TipoBase base = entrada.getKey();
+						escritor.cabecalho(base, cabecalho(entrada.getValue()));
+						submeteCodificacao(varredura, entrada.getValue(), base);
+					}
+					varredura.aguarda();
+				}
+				escritor.finaliza();
+				System.out.println("Snapshot criado com " + escritor.linhas() + " linhas.");
+			}
+			Files.move(temporario, arqSnapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporario);
+		}
+	}
+
+	private void submeteCodificacao(VarreduraParalela<List<SnapshotPGFN.Bloco>> varredura, Path dirEntrada, TipoBase base) throws IOException {
+		if (!isZip(dirEntrada)) {
+			for (Path arqEntrada : listaCSVs(dirEntrada)) {
+				System.out.println("Processando arquivo " + arqEntrada);
+				for (TrechoArquivo trecho : TrechoArquivo.divide(arqEntrada, TAMANHO_TRECHO)) {
+					varredura.submete(() -> SnapshotPGFN.codifica(trecho.mapeia(), base));
+				}
+			}
+			return;
+		}
+
+		//A descompactação de cada CSV do zip é sequencial, mas a codificação dos blocos é feita em paralelo
+		try (ZipFile zip = new ZipFile(dirEntrada.toFile());) {
+			for (String nomeEntrada : listaCSVsZip(dirEntrada)) {
+				System.out.println("Processando arquivo " + dirEntrada + "!" + nomeEntrada);
+				try (InputStream entrada = zip.getInputStream(zip.getEntry(nomeEntrada));) {
+					LeitorBlocos leitor = new LeitorBlocos(entrada, TAMANHO_BLOCO);
+					leitor.leCabecalho();
+
+					ByteBuffer bloco;
+					while ((bloco = leitor.proximoBloco()) != null) {
+						ByteBuffer trecho = bloco;
+						varredura.submete(() -> SnapshotPGFN.codifica(trecho, base));
+					}
+				}
+			}
+		}
+	}
+
+	private void processaPassoUnico(Map<TipoBase, Submissor> entradas, ListasCNPJ listas) throws IOException {
+		if (agrega) {
+			agrega(entradas, listas);
+		} else {
+			criaBaseConsolidadaPassoUnico(entradas, arquivosConsolidados(listas), saidasIndividuais(listas));
+		}
+	}
+
+	/**
+	 * Lê uma única vez os arquivos de cada base, acumulando em cada thread os totais das linhas de cada lista,
+	 * e grava os arquivos de totais no diretório de saída de cada lista.
+	 */
+	private void agrega(Map<TipoBase, Submissor> entradas, ListasCNPJ listas) throws IOException {
+		Agregacao agregacao = new Agregacao(listas.quantidade());
+
+		//Os resultados dos trechos não têm linhas a gravar, e por isso não precisam de ordem
+		try (VarreduraParalela<ResultadoTrecho> varredura = new VarreduraParalela<>(threads, false, (resultado) -> {});) {
+			for (Submissor entrada : entradas.values()) {
+				entrada.submete(varredura, List.of(), agregacao);
+			}
+			varredura.aguarda();
+		}
+
+		List<Path> dirsSaida = new ArrayList<>();
+		for (int lista = 0; lista < listas.quantidade(); lista++) {
+			dirsSaida.add(listas.getDirSaida(lista));
+		}
+		agregacao.grava(dirsSaida);
+	}
+
+	private static Map<TipoBase, Path> entradas(Path dirFGTS, Path dirPrevidenciario, Path dirNaoPrevidenciario) {
+		Map<TipoBase, Path> entradas = new EnumMap<>(TipoBase.class);
+		entradas.put(TipoBase.FGTS, dirFGTS);
+		entradas.put(TipoBase.PREVIDENCIARIO, dirPrevidenciario);
+		entradas.put(TipoBase.NAO_PREVIDENCIARIO, dirNaoPrevidenciario);
+		return entradas;
+	}
+
+	private Map<TipoBase, Submissor> submissores(Map<TipoBase, Path> dirsEntrada, ListasCNPJ listas, Path dirTemporario) {
+		Map<TipoBase, Submissor> entradas = new EnumMap<>(TipoBase.class);
+		for (Map.Entry<TipoBase, Path> dirEntrada : dirsEntrada.entrySet()) {
+			TipoBase base = dirEntrada.getKey();
+			entradas.put(base, (varredura, canaisIndividuais, agregacao) -> {
+				for (FileChannel canalIndividual : canaisIndividuais) {
+					escreveCabecalhoBaseIndividual(canalIndividual, dirEntrada.getValue());
+				}
+				submeteTrechos(varredura, dirEntrada.getValue(), base, new Filtragem(listas, !canaisIndividuais.isEmpty(), agregacao), dirTemporario, null);
+			});
+		}
+		return entradas;
+	}
+
+	private Map<TipoBase, Submissor> submissoresZip(Map<TipoBase, FonteZip> zips, ListasCNPJ listas) {
+		Map<TipoBase, Submissor> entradas = new EnumMap<>(TipoBase.class);
+		for (Map.Entry<TipoBase, FonteZip> zip : zips.entrySet()) {
+			TipoBase base = zip.getKey();
+			entradas.put(base, (varredura, canaisIndividuais, agregacao) -> {
+				try (InputStream entrada = zip.getValue().abre();) {
+					submeteZip(varredura, entrada, base, new Filtragem(listas, !canaisIndividuais.isEmpty(), agregacao), canaisIndividuais);
+				}
+			});
+		}
+		return entradas;
+	}
+
+	private Map<TipoBase, Submissor> submissoresSnapshot(SnapshotPGFN.Leitor snapshot, ListasCNPJ listas) {
+		Map<TipoBase, Submissor> entradas = new EnumMap<>(TipoBase.class);
+		for (TipoBase base : TipoBase.values()) {
+			entradas.put(base, (varredura, canaisIndividuais, agregacao) -> {
+				for (FileChannel canalIndividual : canaisIndividuais) {
+					escreve(canalIndividual, snapshot.cabecalho(base) + ";ARQUIVO_ORIGEM" + System.lineSeparator());
+				}
+				System.out.println("Processando base " + base.getDescricao() + " do snapshot, com " + snapshot.linhas(base) + " linhas");
+
+				Filtragem filtragem = new Filtragem(listas, !canaisIndividuais.isEmpty(), agregacao);
+				Metricas.Arquivo arquivo = metricas.arquivo(Metricas.Fase.FILTRAGEM, "snapshot:" + base.getDescricao());
+				for (SnapshotPGFN.Bloco bloco : snapshot.blocos(base)) {
+					varredura.submete(() -> processaTrecho(snapshot.decodifica(bloco, listas), base, filtragem, arquivo));
+				}
+			});
+		}
+		return entradas;
+	}
+
+	private static List<Path> arquivosConsolidados(ListasCNPJ listas) {
+		List<Path> arquivos = new ArrayList<>();
+		for (int lista = 0; lista < listas.quantidade(); lista++) {
+			arquivos.add(listas.getDirSaida(lista).resolve(ARQUIVO_CONSOLIDADO));
+		}
+		return arquivos;
+	}
+
+	private List<Map<TipoBase, Path>> saidasIndividuais(ListasCNPJ listas) {
+		List<Map<TipoBase, Path>> saidas = new ArrayList<>();
+		for (int lista = 0; lista < listas.quantidade(); lista++) {
+			saidas.add(saidasIndividuais(listas.getDirSaida(lista)));
+		}
+		return saidas;
+	}
+
+	private Map<TipoBase, Path> saidasIndividuais(Path dirSaida) {
+		Map<TipoBase, Path> saidasIndividuais = new EnumMap<>(TipoBase.class);
+		if (gravaIndividuais) {
+			for (TipoBase base : TipoBase.values()) {
+				saidasIndividuais.put(base, dirSaida.resolve(base.getNomeArquivo()));
+			}
+		}
+		return saidasIndividuais;
+	}
+
+	public ConjuntoCNPJ leArquivoCNPJs(Optional<Path> arqCNPJ) throws IOException {
+		ConjuntoCNPJ conjuntoCNPJs = arqCNPJ.isPresent() ? ConjuntoCNPJ.leArquivo(arqCNPJ.get()) : ConjuntoCNPJ.vazio();
+		if (conjuntoCNPJs.isEmpty()) {
+			System.out.println("Não foi passada conjunto de CNPJs a serem filtrados.");
+		} else {
+			System.out.println("Conjunto de CNPJs a serem filtrados tem tamanho = " + conjuntoCNPJs.tamanho());
+		}
+		return conjuntoCNPJs;
+	}
+
+	public void criaBaseIndividual(Path arqSaida, Path dirEntrada, TipoBase base, ConjuntoCNPJ cnpjs) throws IOException {
+		DiarioExecucao.Etapa etapa = diario != null ? diario.etapa(arqSaida.getFileName().toString(), resumoEntradas(dirEntrada, cnpjs)) : null;
+		if (etapa != null && etapa.isConcluida() && Files.exists(arqSaida)) {
+			System.out.println("Saída individual " + arqSaida + " já criada, conforme o diário de execução");
+			return;
+		}
+		System.out.println("Criando saída individual " + arqSaida);
+
+		//A saída é gravada em um arquivo temporário, renomeado apenas quando estiver completa
+		Path temporario = temporario(arqSaida);
+		Path dirTemporario = arqSaida.toAbsolutePath().getParent();
+		try (FileChannel saida = abreSaida(temporario, etapa);
+				VarreduraParalela<ResultadoTrecho> varredura = new VarreduraParalela<>(threads, saidaOrdenada, (resultado) -> {
+					resultado.descarrega(null, List.of(saida));
+					registra(etapa, resultado.trecho, saida);
+				});) {
+			//Primeiro escreve o cabeçalho, copiando de algum arquivo qualquer.
+			//Adiciona coluna indicando o arquivo de origem
+			if (saida.size() == 0) {
+				escreveCabecalhoBaseIndividual(saida, dirEntrada);
+			}
+
+			//Depois escreve os arquivos, pulando a primeira linha, que tem o cabeçalho.
+			//Cada arquivo é dividido em trechos, filtrados em paralelo, cada um em seu próprio buffer
+			submeteTrechos(varredura, dirEntrada, base, new Filtragem(ListasCNPJ.unica(cnpjs, dirTemporario), true, false, null), dirTemporario, etapa);
+			varredura.aguarda();
+		}
+		conclui(temporario, arqSaida, etapa);
+	}
+
+	/**
+	 * Cria a base consolidada lendo uma única vez os arquivos de cada base. Se {@code saidasIndividuais}
+	 * não estiver vazio, as linhas filtradas também são gravadas nos arquivos de cada base.
+	 */
+	public void criaBaseConsolidadaPassoUnico(Map<TipoBase, Path> dirsEntrada, ConjuntoCNPJ cnpjs, Path arqSaida, Map<TipoBase, Path> saidasIndividuais) throws IOException {
+		Path dirTemporario = arqSaida.toAbsolutePath().getParent();
+		Map<TipoBase, Submissor> entradas = submissores(dirsEntrada, ListasCNPJ.unica(cnpjs, dirTemporario), dirTemporario);
+		criaBaseConsolidadaPassoUnico(entradas, List.of(arqSaida), List.of(saidasIndividuais));
+	}
+
+	/**
+	 * Cria em passo único uma base consolidada para cada lista de CNPJs, em {@code arqsSaida}, e os arquivos
+	 * de cada base de cada lista, em {@code saidasIndividuais}, na mesma ordem das listas.
+	 */
+	private void criaBaseConsolidadaPassoUnico(Map<TipoBase, Submissor> entradas, List<Path> arqsSaida, List<Map<TipoBase, Path>> saidasIndividuais) throws IOException {
+		List<FileChannel> canais = new ArrayList<>();
+		FileChannel[] canaisConsolidados = new FileChannel[arqsSaida.size()];
+		Map<TipoBase, List<FileChannel>> canaisIndividuais = new EnumMap<>(TipoBase.class);
+		try {
+			for (int lista = 0; lista < arqsSaida.size(); lista++) {
+				System.out.println("Criando saída consolidada " + arqsSaida.get(lista));
+				canaisConsolidados[lista] = abreSaida(arqsSaida.get(lista));
+				canais.add(canaisConsolidados[lista]);
+
+				for (Map.Entry<TipoBase, Path> saidaIndividual : saidasIndividuais.get(lista).entrySet()) {
+					System.out.println("Criando saída individual " + saidaIndividual.getValue());
+					FileChannel canal = abreSaida(saidaIndividual.getValue());
+					canais.add(canal);
+					canaisIndividuais.computeIfAbsent(saidaIndividual.getKey(), base -> new ArrayList<>()).add(canal);
+				}
+
+				escreve(canaisConsolidados[lista], TipoBase.CABECALHO_CONSOLIDADO + System.lineSeparator());
+			}
+
+			try (VarreduraParalela<ResultadoTrecho> varredura = new VarreduraParalela<>(threads, saidaOrdenada,
+					(resultado) -> resultado.descarrega(canaisConsolidados, canaisIndividuais.get(resultado.base)));) {
+				for (Map.Entry<TipoBase, Submissor> entrada : entradas.entrySet()) {
+					entrada.getValue().submete(varredura, canaisIndividuais.getOrDefault(entrada.getKey(), List.of()), null);
+				}
+				varredura.aguarda();
+			}
+		} finally {
+			for (FileChannel canal : canais) {
+				canal.close();
+			}
+		}
+	}
+
+	/**
+	 * Submete os trechos dos arquivos da base, pulando os que o diário da etapa, se houver, registra como já gravados.
+	 */
+	private void submeteTrechos(VarreduraParalela<ResultadoTrecho> varredura, Path dirEntrada, TipoBase base, Filtragem filtragem, Path dirTemporario,
+			DiarioExecucao.Etapa etapa) throws IOException {
+		if (isZip(dirEntrada)) {
+			submeteEntradasZip(varredura, dirEntrada, base, filtragem, dirTemporario, etapa);
+			return;
+		}
+
+		for (Path arqEntrada : listaCSVs(dirEntrada)) {
+			System.out.println("Processando arquivo " + arqEntrada);
+
+			Metricas.Arquivo arquivo = metricas.arquivo(Metricas.Fase.FILTRAGEM, arqEntrada.toString());
+			for (TrechoArquivo trecho : TrechoArquivo.divide(arqEntrada, TAMANHO_TRECHO)) {
+				String nomeTrecho = arqEntrada.getFileName() + "@" + trecho.getInicio();
+				if (etapa != null && etapa.isGravado(nomeTrecho)) {
+					continue;
+				}
+				varredura.submete(() -> processaTrecho(trecho.mapeia(), base, filtragem, arquivo).identifica(nomeTrecho));
+			}
+		}
+	}
+
+	/**
+	 * Lê os CSVs de um zip local sem extraí-los, com cada CSV descompactado e filtrado por uma thread,
+	 * já que as entradas de um zip podem ser lidas de forma independente.
+	 * O resultado de cada CSV transborda para um arquivo temporário em {@code dirTemporario} se for grande demais para a memória.
+	 */
+	private void submeteEntradasZip(VarreduraParalela<ResultadoTrecho> varredura, Path zip, TipoBase base, Filtragem filtragem, Path dirTemporario,
+			DiarioExecucao.Etapa etapa) throws IOException {
+		for (String nomeEntrada : listaCSVsZip(zip)) {
+			if (etapa != null && etapa.isGravado(nomeEntrada)) {
+				continue;
+			}
+			System.out.println("Processando arquivo " + zip + "!" + nomeEntrada);
+
+			Metricas.Arquivo metricasEntrada = metricas.arquivo(Metricas.Fase.FILTRAGEM, zip + "!" + nomeEntrada);
+			varredura.submete(() -> {
+				int capacidade = filtragem.listas.filtra() ? TAMANHO_BUFFER_FILTRADO : TAMANHO_BUFFER;
+				ResultadoTrecho resultado = new ResultadoTrecho(base, filtragem, capacidade, dirTemporario);
+
+				try (ZipFile arquivo = new ZipFile(zip.toFile());
+						InputStream entrada = arquivo.getInputStream(arquivo.getEntry(nomeEntrada));) {
+					LeitorBlocos leitor = new LeitorBlocos(entrada, TAMANHO_BLOCO);
+					leitor.leCabecalho();
+
+					ByteBuffer bloco;
+					while ((bloco = leitor.proximoBloco()) != null) {
+						Metricas.Medicao medicao = metricasEntrada.inicia(bloco.remaining());
+						filtraTrecho(bloco, filtragem, resultado, medicao);
+						medicao.conclui();
+						resultado.transbordaSeNecessario();
+					}
+				}
+				return resultado.identifica(nomeEntrada);
+			});
+		}
+	}
+
+	/**
+	 * Lê os CSVs de um zip à medida que chegam, em blocos de linhas completas que são filtrados em paralelo.
+	 * Como a submissão aguarda quando há blocos demais em andamento, a leitura do zip acompanha o ritmo da filtragem.
+	 */
+	private void submeteZip(VarreduraParalela<ResultadoTrecho> varredura, InputStream zip, TipoBase base, Filtragem filtragem, List<FileChannel> canaisIndividuais) throws IOException {
+		boolean semCabecalho = !canaisIndividuais.isEmpty();
+
+		try (ZipInputStream zis = new ZipInputStream(zip);) {
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null) {
+				if (entry.isDirectory() || !isCSV(entry.getName())) {
+					continue;
+				}
+				System.out.println("Processando arquivo " + entry.getName());
+				Metricas.Arquivo arquivo = metricas.arquivo(Metricas.Fase.FILTRAGEM, entry.getName());
+
+				LeitorBlocos leitor = new LeitorBlocos(zis, TAMANHO_BLOCO);
+				String cabecalho = leitor.leCabecalho();
+				if (semCabecalho && cabecalho != null) {
+					for (FileChannel canalIndividual : canaisIndividuais) {
+						escreve(canalIndividual, cabecalho + ";ARQUIVO_ORIGEM" + System.lineSeparator());
+					}
+					semCabecalho = false;
+				}
+
+				ByteBuffer bloco;
+				while ((bloco = leitor.proximoBloco()) != null) {
+					ByteBuffer trecho = bloco;
+					varredura.submete(() -> processaTrecho(trecho, base, filtragem, arquivo));
+				}
+			}
+		}
+	}
+
+	private ResultadoTrecho processaTrecho(ByteBuffer trecho, TipoBase base, Filtragem filtragem, Metricas.Arquivo arquivo) {
+		Metricas.Medicao medicao = arquivo.inicia(trecho.remaining());
+		//Sem filtragem, a saída tem o tamanho da entrada; com filtragem, costuma ser bem menor
+		int capacidade = filtragem.listas.filtra() ? TAMANHO_BUFFER_FILTRADO : trecho.remaining() + trecho.remaining() / 8;
+		ResultadoTrecho resultado = new ResultadoTrecho(base, filtragem, capacidade, null);
+		filtraTrecho(trecho, filtragem, resultado, medicao);
+		medicao.conclui();
+		return resultado;
+	}
+
+	/**
+	 * Acrescenta às saídas do resultado de cada lista as linhas do trecho com CNPJ na lista que atendem ao filtro,
+	 * se houver, e as soma aos totais da lista na thread atual, se houver agregação.
+	 * Uma linha de CNPJ presente em várias listas é formatada uma só vez e copiada para as demais.
+	 * As linhas são contadas em variáveis locais e somadas à medição do trecho ao final.
+	 */
+	private void filtraTrecho(ByteBuffer trecho, Filtragem filtragem, ResultadoTrecho resultado, Metricas.Medicao medicao) {
+		TipoBase base = resultado.base;
+		ListasCNPJ listas = filtragem.listas;
+		boolean filtra = listas.filtra();
+		FiltroLinhas filtro = this.filtro;
+		Agregacao.Parcial[] parciais = filtragem.agregacao != null ? filtragem.agregacao.parciais() : null;
+		LeitorCSV leitor = new LeitorCSV(trecho);
+		int[] inicios = new int[base.getColunas()];
+		int[] fins = new int[base.getColunas()];
+		long lidas = 0;
+		long selecionadas = 0;
+		long semChave = 0;
+
+		while (leitor.proximaLinha()) {
+			if (leitor.linhaVazia()) {
+				continue;
+			}
+			lidas++;
+
+			//Escreve apenas as linhas com CNPJ em alguma lista, incluindo a coluna com o arquivo de origem
+			//Se não houver lista de CNPJs, não faz filtragem alguma (escreve todas as linhas)
+			int[] destinos = ListasCNPJ.PRIMEIRA_LISTA;
+			if (filtra) {
+				long chave = ConjuntoCNPJ.chave(trecho, leitor.inicioLinha(), leitor.fimCampo(leitor.inicioLinha()));
+				if (chave == ConjuntoCNPJ.CHAVE_INVALIDA) {
+					//Uma linha sem CPF/CNPJ representável não está em nenhuma lista
+					semChave++;
+					continue;
+				}
+				destinos = listas.listas(chave);
+			}
+			if (destinos == null || (filtro != null && !filtro.aceita(trecho, leitor.inicioLinha(), leitor.fimLinha(), base))) {
+				continue;
+			}
+			selecionadas++;
+
+			if (resultado.individuais != null) {
+				BufferSaida saida = resultado.individual(destinos[0]);
+				int inicio = saida.tamanho();
+				saida.escreve(trecho, leitor.inicioLinha(), leitor.fimLinha());
+				saida.escreve((byte) ';');
+				saida.escreve(base.getArquivoOrigemBytes());
+				saida.escreve(FIM_LINHA);
+				for (int i = 1; i < destinos.length; i++) {
+					resultado.individual(destinos[i]).escreve(saida, inicio);
+				}
+			}
+
+			//Os arquivos originais não têm a coluna ARQUIVO_ORIGEM
+			if ((resultado.consolidadas != null || parciais != null) && leitor.separaCampos(inicios, fins) != base.getColunas() - 1) {
+				throw new RuntimeException(mensagemFormatoInvalido(base));
+			}
+
+			if (parciais != null) {
+				for (int destino : destinos) {
+					parciais[destino].adiciona(trecho, inicios, fins, base);
+				}
+			}
+
+			if (resultado.consolidadas != null) {
+				BufferSaida saida = resultado.consolidada(destinos[0]);
+				int inicio = saida.tamanho();
+				escreveLinhaConsolidada(saida, trecho, inicios, fins, base);
+				for (int i = 1; i < destinos.length; i++) {
+					resultado.consolidada(destinos[i]).escreve(saida, inicio);
+				}
+			}
+		}
+		medicao.linhas(lidas, selecionadas, semChave);
+	}
+
+	public void escreveCabecalhoBaseIndividual(WritableByteChannel saida, Path dirEntrada) throws IOException {
+		escreve(saida, cabecalho(dirEntrada) + ";ARQUIVO_ORIGEM" + System.lineSeparator());
+	}
+
+	//Cabeçalho de algum arquivo CSV qualquer da base, sem a quebra de linha
+	private static String cabecalho(Path dirEntrada) throws IOException {
+		if (isZip(dirEntrada)) {
+			try (ZipFile zip = new ZipFile(dirEntrada.toFile());
+					InputStream entrada = zip.getInputStream(zip.getEntry(listaCSVsZip(dirEntrada).get(0)));) {
+				return new LeitorBlocos(entrada, TAMANHO_BUFFER_FILTRADO).leCabecalho();
+			}
+		}
+
+		Path arquivoQualquer = listaCSVs(dirEntrada).stream().findAny().get();
+		try (BufferedReader entrada = Files.newBufferedReader(arquivoQualquer, JuntaArquivosPGFN.CHARSET);) {
+			return entrada.readLine();
+		}
+	}
+
+	public void criaBaseConsolidada(Path arqFGTS, Path arqPrevidenciario, Path arqNaoPrevidenciario, Path arqSaida) throws IOException {
+		DiarioExecucao.Etapa etapa = null;
+		if (diario != null) {
+			StringBuilder entradas = new StringBuilder();
+			for (Path arquivo : List.of(arqFGTS, arqPrevidenciario, arqNaoPrevidenciario)) {
+				entradas.append(descricao(arquivo));
+			}
+			etapa = diario.etapa(arqSaida.getFileName().toString(), DiarioExecucao.resumo(entradas.toString()));
+			if (etapa.isConcluida() && Files.exists(arqSaida)) {
+				System.out.println("Saída consolidada " + arqSaida + " já criada, conforme o diário de execução");
+				return;
+			}
+		}
+
+		Path temporario = temporario(arqSaida);
+		try (FileChannel saida = abreSaida(temporario, etapa);) {
+			System.out.println("Criando saída consolidada " + arqSaida);
+
+			//Cabeçalho contendo todas as colunas dos três arquivos
+			if (saida.size() == 0) {
+				escreve(saida, TipoBase.CABECALHO_CONSOLIDADO + System.lineSeparator());
+			}
+
+			//Com diário, cada base já juntada é registrada e não é juntada de novo ao retomar
+			if (etapa == null || !etapa.isGravado(TipoBase.FGTS.name())) {
+				escreveBaseConsolidadaFGTS(arqFGTS, saida);
+				registra(etapa, TipoBase.FGTS.name(), saida);
+			}
+			if (etapa == null || !etapa.isGravado(TipoBase.PREVIDENCIARIO.name())) {
+				escreveBaseConsolidadaPrevidenciario(arqPrevidenciario, saida);
+				registra(etapa, TipoBase.PREVIDENCIARIO.name(), saida);
+			}
+			if (etapa == null || !etapa.isGravado(TipoBase.NAO_PREVIDENCIARIO.name())) {
+				escreveBaseConsolidadaNaoPrevidenciario(arqNaoPrevidenciario, saida);
+				registra(etapa, TipoBase.NAO_PREVIDENCIARIO.name(), saida);
+			}
+		}
+		conclui(temporario, arqSaida, etapa);
+	}
+
+	public void escreveBaseConsolidadaFGTS(Path arqEntrada, WritableByteChannel saida) throws IOException {
+		System.out.println("Juntando arquivo FGTS " + arqEntrada);
+		escreveBaseConsolidada(arqEntrada, TipoBase.FGTS, saida);
+	}
+
+	public void escreveBaseConsolidadaPrevidenciario(Path arqEntrada, WritableByteChannel saida) throws IOException {
+		System.out.println("Juntando arquivo Previdenciário " + arqEntrada);
+		escreveBaseConsolidada(arqEntrada, TipoBase.PREVIDENCIARIO, saida);
+	}
+
+	public void escreveBaseConsolidadaNaoPrevidenciario(Path arqEntrada, WritableByteChannel saida) throws IOException {
+		System.out.println("Juntando arquivo Não Previdenciário " + arqEntrada);
+		escreveBaseConsolidada(arqEntrada, TipoBase.NAO_PREVIDENCIARIO, saida);
+	}
+
+	private void escreveBaseConsolidada(Path arqEntrada, TipoBase base, WritableByteChannel saida) throws IOException {
+		BufferSaida buffer = new BufferSaida(TAMANHO_BUFFER);
+		int[] inicios = new int[base.getColunas()];
+		int[] fins = new int[base.getColunas()];
+		Metricas.Arquivo arquivo = metricas.arquivo(Metricas.Fase.CONSOLIDACAO, arqEntrada.toString());
+
+		//A divisão em trechos já pula a primeira linha, do cabeçalho
+		for (TrechoArquivo trecho : TrechoArquivo.divide(arqEntrada, TAMANHO_TRECHO)) {
+			ByteBuffer bytes = trecho.mapeia();
+			LeitorCSV leitor = new LeitorCSV(bytes);
+			Metricas.Medicao medicao = arquivo.inicia(bytes.remaining());
+			long linhas = 0;
+
+			while (leitor.proximaLinha()) {
+				if (leitor.separaCampos(inicios, fins) != base.getColunas()) {
+					throw new RuntimeException(mensagemFormatoInvalido(base));
+				}
+				escreveLinhaConsolidada(buffer, bytes, inicios, fins, base);
+				linhas++;
+
+				if (buffer.tamanho() >= TAMANHO_BUFFER) {
+					buffer.descarrega(saida);
+				}
+			}
+			medicao.linhas(linhas, linhas, 0);
+			medicao.conclui();
+		}
+
+		buffer.descarrega(saida);
+	}
+
+	/**
+	 * Escreve a linha cujos campos foram separados em {@code inicios} e {@code fins} no layout da base consolidada,
+	 * colocando vazio nas colunas que a base não tem.
+	 */
+	private static void escreveLinhaConsolidada(BufferSaida saida, ByteBuffer bytes, int[] inicios, int[] fins, TipoBase base) {
+		int colunaOrigem = base.getColunas() - 1;
+		for (int coluna = 0; coluna < TipoBase.COLUNAS_CONSOLIDADAS; coluna++) {
+			if (coluna > 0) {
+				saida.escreve((byte) ';');
+			}
+			int campo = base.colunaIndividual(coluna);
+			if (campo == colunaOrigem) {
+				saida.escreve(base.getArquivoOrigemBytes());
+			} else if (campo >= 0) {
+				saida.escreve(bytes, inicios[campo], fins[campo]);
+			}
+		}
+		saida.escreve(FIM_LINHA);
+	}
+
+	static String mensagemFormatoInvalido(TipoBase base) {
+		return "Formato do arquivo " + base.getDescricao() + " diferente do esperado.";
+	}
+
+	private static FileChannel abreSaida(Path arquivo) throws IOException {
+		return FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Abre a saída temporária de uma etapa. Se o diário da etapa registrar trechos já gravados e a saída ainda
+	 * os contiver, ela é truncada no tamanho registrado e a gravação continua do final; caso contrário, a saída
+	 * e o progresso da etapa recomeçam do início.
+	 */
+	private static FileChannel abreSaida(Path temporario, DiarioExecucao.Etapa etapa) throws IOException {
+		if (etapa != null && etapa.getTamanhoSaida() > 0 && Files.exists(temporario) && Files.size(temporario) >= etapa.getTamanhoSaida()) {
+			FileChannel canal = FileChannel.open(temporario, StandardOpenOption.WRITE);
+			canal.truncate(etapa.getTamanhoSaida());
+			canal.position(etapa.getTamanhoSaida());
+			return canal;
+		}
+		if (etapa != null) {
+			etapa.limpa();
+		}
+		return abreSaida(temporario);
+	}
+
+	/**
+	 * Registra no diário da etapa, se houver, que o trecho foi gravado, depois de gravar a saída em disco.
+	 */
+	private static void registra(DiarioExecucao.Etapa etapa, String trecho, FileChannel saida) throws IOException {
+		if (etapa != null) {
+			saida.force(false);
+			etapa.registra(trecho, saida.position());
+		}
+	}
+
+	//Renomeia a saída temporária completa para o nome final e registra a conclusão da etapa
+	private static void conclui(Path temporario, Path arqSaida, DiarioExecucao.Etapa etapa) throws IOException {
+		Files.move(temporario, arqSaida, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (etapa != null) {
+			etapa.conclui();
+		}
+	}
+
+	private static Path temporario(Path arquivo) {
+		return arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+	}
+
+	/**
+	 * Resumo dos arquivos de entrada de uma base e dos CPFs/CNPJs filtrados, que identifica as entradas de uma etapa no diário.
+	 */
+	private String resumoEntradas(Path dirEntrada, ConjuntoCNPJ cnpjs) throws IOException {
+		StringBuilder entradas = new StringBuilder();
+		if (isZip(dirEntrada)) {
+			entradas.append(descricao(dirEntrada));
+		} else {
+			for (Path arquivo : listaCSVs(dirEntrada)) {
+				entradas.append(descricao(arquivo));
+			}
+		}
+		entradas.append("cnpjs;").append(cnpjs.tamanho()).append(';').append(DiarioExecucao.resumo(chavesOrdenadas(cnpjs))).append(System.lineSeparator());
+		entradas.append("filtro;").append(filtro).append(System.lineSeparator());
+		return DiarioExecucao.resumo(entradas.toString());
+	}
+
+	private static String descricao(Path arquivo) throws IOException {
+		return arquivo.toAbsolutePath() + ";" + Files.size(arquivo) + ";" + Files.getLastModifiedTime(arquivo).toMillis() + System.lineSeparator();
+	}
+
+	//As chaves ficam no conjunto na ordem da tabela hash, que depende da ordem em que foram lidas
+	private static long[] chavesOrdenadas(ConjuntoCNPJ cnpjs) {
+		long[] chaves = new long[cnpjs.tamanho()];
+		int[] quantidade = {0};
+		cnpjs.paraCada(chave -> chaves[quantidade[0]++] = chave);
+		Arrays.sort(chaves);
+		return chaves;
+	}
+
+	private static void escreve(WritableByteChannel saida, String texto) throws IOException {
+		ByteBuffer bytes = JuntaArquivosPGFN.CHARSET.encode(texto);
+		while (bytes.hasRemaining()) {
+			saida.write(bytes);
+		}
+	}
+
+	//Ordena os arquivos para que a saída não dependa da ordem de listagem do sistema de arquivos
+	private static List<Path> listaCSVs(Path dirEntrada) throws IOException {
+		try (Stream<Path> arquivos = Files.list(dirEntrada);) {
+			return arquivos.filter(JuntaArquivosPGFN::isCSV).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static List<String> listaCSVsZip(Path zip) throws IOException {
+		try (ZipFile arquivo = new ZipFile(zip.toFile());) {
+			List<String> nomes = arquivo.stream().filter(entrada -> !entrada.isDirectory() && isCSV(entrada.getName()))
+					.map(ZipEntry::getName).sorted().collect(Collectors.toList());
+			if (nomes.isEmpty()) {
+				throw new IOException("O arquivo " + zip + " não contém arquivos CSV.");
+			}
+			return nomes;
+		}
+	}
+
+	/**
+	 * Verdadeiro se a entrada de uma base for um arquivo zip, e não um diretório com os CSVs extraídos.
+	 */
+	static boolean isZip(Path path) {
+		return Files.isRegularFile(path) && path.getFileName().toString().toLowerCase().endsWith(".zip");
+	}
+
+	private static boolean isCSV(Path path) {
+		return isCSV(path.getFileName().toString());
+	}
+
+	private static boolean isCSV(String nome) {
+		return nome.toLowerCase().endsWith(".csv");
+	}
+
+	/**
+	 * Abre o conteúdo de um arquivo zip, que pode estar sendo baixado enquanto é lido.
+	 */
+	@FunctionalInterface
+	public interface FonteZip {
+		InputStream abre() throws IOException;
+	}
+
+	/**
+	 * Submete os trechos de uma base para processamento, gravando antes o cabeçalho nas saídas individuais da base, se houver.
+	 * Se houver agregação, as linhas filtradas são somadas aos totais em vez de gravadas na base consolidada.
+	 */
+	@FunctionalInterface
+	private interface Submissor {
+		void submete(VarreduraParalela<ResultadoTrecho> varredura, List<FileChannel> canaisIndividuais, Agregacao agregacao) throws IOException;
+	}
+
+	/**
+	 * O que fazer com as linhas de um trecho: as listas de CNPJs que as selecionam e as saídas para onde vão.
+	 */
+	private static final class Filtragem {
+		private final ListasCNPJ listas;
+		private final boolean individual;
+		private final boolean consolidada;
+		private final Agregacao agregacao;
+
+		private Filtragem(ListasCNPJ listas, boolean individual, boolean consolidada, Agregacao agregacao) {
+			this.listas = listas;
+			this.individual = individual;
+			this.consolidada = consolidada;
+			this.agregacao = agregacao;
+		}
+
+		//Na agregação a base consolidada é substituída pelos totais
+		private Filtragem(ListasCNPJ listas, boolean individual, Agregacao agregacao) {
+			this(listas, individual, agregacao == null, agregacao);
+		}
+	}
+
+	/**
+	 * Linhas filtradas de um trecho para cada lista de CNPJs, no layout da base individual e/ou no da base consolidada.
+	 * Os buffers de cada lista só são criados quando a lista recebe alguma linha.
+	 */
+	private static final class ResultadoTrecho {
+		private final TipoBase base;
+		private final int capacidade;
+		//Diretório dos arquivos temporários dos buffers, ou nulo se os buffers não transbordam
+		private final Path dirTransbordo;
+		private final BufferSaida[] individuais;
+		private final BufferSaida[] consolidadas;
+		//Identificação do trecho de entrada no diário de execução
+		private String trecho;
+
+		private ResultadoTrecho(TipoBase base, Filtragem filtragem, int capacidade, Path dirTransbordo) {
+			this.base = base;
+			this.capacidade = capacidade;
+			this.dirTransbordo = dirTransbordo;
+			this.individuais = filtragem.individual ? new BufferSaida[filtragem.listas.quantidade()] : null;
+			this.consolidadas = filtragem.consolidada ? new BufferSaida[filtragem.listas.quantidade()] : null;
+		}
+
+		private ResultadoTrecho identifica(String trecho) {
+			this.trecho = trecho;
+			return this;
+		}
+
+		private BufferSaida individual(int lista) {
+			if (individuais[lista] == null) {
+				individuais[lista] = novoBuffer();
+			}
+			return individuais[lista];
+		}
+
+		private BufferSaida consolidada(int lista) {
+			if (consolidadas[lista] == null) {
+				consolidadas[lista] = novoBuffer();
+			}
+			return consolidadas[lista];
+		}
+
+		private BufferSaida novoBuffer() {
+			return dirTransbordo == null ? new BufferSaida(capacidade) : BufferSaida.comTransbordo(capacidade, dirTransbordo, LIMITE_TRANSBORDO);
+		}
+
+		private void transbordaSeNecessario() throws IOException {
+			for (BufferSaida[] buffers : Arrays.asList(individuais, consolidadas)) {
+				if (buffers != null) {
+					for (BufferSaida buffer : buffers) {
+						if (buffer != null) {
+							buffer.transbordaSeNecessario();
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Grava as linhas de cada lista nos canais da lista, de mesmo índice.
+		 */
+		private void descarrega(FileChannel[] canaisConsolidados, List<FileChannel> canaisIndividuais) throws IOException {
+			for (int lista = 0; consolidadas != null && lista < consolidadas.length; lista++) {
+				if (consolidadas[lista] != null) {
+					consolidadas[lista].descarrega(canaisConsolidados[lista]);
+				}
+			}
+			for (int lista = 0; individuais != null && lista < individuais.length; lista++) {
+				if (individuais[lista] != null) {
+					individuais[lista].descarrega(canaisIndividuais.get(lista));
+				}
+			}
+		}
+	}
+}
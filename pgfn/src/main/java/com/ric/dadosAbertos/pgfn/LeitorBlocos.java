@@ -0,0 +1,108 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lê um CSV de um {@link InputStream} em blocos de linhas completas, para que cada bloco
+ * possa ser processado de forma independente, como os trechos de um arquivo em disco.
+ *
+ * Cada bloco tem seu próprio vetor de bytes; a linha incompleta no fim de um bloco
+ * é copiada para o início do próximo.
+ */
+final class LeitorBlocos {
+	private final InputStream entrada;
+	private final int tamanhoBloco;
+	private byte[] bytes;
+	private int tamanho;
+	private boolean fimEntrada;
+
+	LeitorBlocos(InputStream entrada, int tamanhoBloco) {
+		this.entrada = entrada;
+		this.tamanhoBloco = tamanhoBloco;
+		this.bytes = new byte[tamanhoBloco];
+	}
+
+	/**
+	 * Lê a primeira linha da entrada, sem a quebra de linha, ou null se a entrada estiver vazia.
+	 * Deve ser chamado antes de {@link #proximoBloco()}.
+	 */
+	String leCabecalho() throws IOException {
+		int fimLinha;
+		while ((fimLinha = indiceDe('\n', 0, tamanho)) < 0 && preenche());
+		if (tamanho == 0) {
+			return null;
+		}
+
+		int fim = fimLinha < 0 ? tamanho : fimLinha;
+		int proximo = fimLinha < 0 ? tamanho : fimLinha + 1;
+		if (fim > 0 && bytes[fim - 1] == '\r') {
+			fim--;
+		}
+
+		String cabecalho = new String(bytes, 0, fim, StandardCharsets.ISO_8859_1);
+		System.arraycopy(bytes, proximo, bytes, 0, tamanho - proximo);
+		tamanho -= proximo;
+		return cabecalho;
+	}
+
+	/**
+	 * Próximo bloco de linhas completas, ou null no fim da entrada.
+	 */
+	ByteBuffer proximoBloco() throws IOException {
+		while (true) {
+			preenche();
+			if (tamanho == 0) {
+				return null;
+			}
+
+			int fimLinhas = fimEntrada ? tamanho : ultimoIndiceDe('\n', tamanho) + 1;
+			if (fimLinhas > 0) {
+				byte[] bloco = bytes;
+				bytes = new byte[Math.max(tamanhoBloco, tamanho - fimLinhas)];
+				System.arraycopy(bloco, fimLinhas, bytes, 0, tamanho - fimLinhas);
+				tamanho -= fimLinhas;
+				return ByteBuffer.wrap(bloco, 0, fimLinhas);
+			} else {
+				//Linha maior que o bloco
+				bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+			}
+		}
+	}
+
+	//Completa o vetor com bytes da entrada, retornando falso se não houver espaço ou se a entrada tiver terminado
+	private boolean preenche() throws IOException {
+		boolean lido = false;
+		while (!fimEntrada && tamanho < bytes.length) {
+			int n = entrada.read(bytes, tamanho, bytes.length - tamanho);
+			if (n < 0) {
+				fimEntrada = true;
+			} else {
+				tamanho += n;
+				lido = true;
+			}
+		}
+		return lido;
+	}
+
+	private int indiceDe(char c, int inicio, int fim) {
+		for (int i = inicio; i < fim; i++) {
+			if (bytes[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int ultimoIndiceDe(char c, int fim) {
+		for (int i = fim - 1; i >= 0; i--) {
+			if (bytes[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
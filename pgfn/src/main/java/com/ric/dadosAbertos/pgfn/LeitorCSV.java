@@ -0,0 +1,104 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Percorre as linhas e campos de um CSV separado por ';' diretamente sobre os bytes
+ * de um {@link ByteBuffer}, sem criar objetos por linha.
+ *
+ * Os arquivos da PGFN estão em ISO-8859-1, em que cada caractere ocupa um byte, de forma
+ * que as posições de ';' e de quebras de linha podem ser localizadas byte a byte.
+ * As posições retornadas são índices absolutos no buffer.
+ */
+final class LeitorCSV {
+	private final ByteBuffer buffer;
+	private final int limite;
+	private int posicao;
+	private int inicioLinha;
+	private int fimLinha;
+
+	LeitorCSV(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.limite = buffer.limit();
+		this.posicao = buffer.position();
+	}
+
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Avança para a próxima linha, retornando falso ao final do buffer.
+	 * O fim da linha não inclui a quebra de linha ('\n' ou "\r\n").
+	 */
+	boolean proximaLinha() {
+		if (posicao >= limite) {
+			return false;
+		}
+
+		inicioLinha = posicao;
+		int i = posicao;
+		while (i < limite && buffer.get(i) != '\n') {
+			i++;
+		}
+		posicao = i + 1;
+
+		if (i > inicioLinha && buffer.get(i - 1) == '\r') {
+			i--;
+		}
+		fimLinha = i;
+
+		return true;
+	}
+
+	/**
+	 * Volta ou avança a leitura para a linha iniciada na posição absoluta {@code inicio}.
+	 */
+	void posiciona(int inicio) {
+		posicao = inicio;
+	}
+
+	int inicioLinha() {
+		return inicioLinha;
+	}
+
+	int fimLinha() {
+		return fimLinha;
+	}
+
+	boolean linhaVazia() {
+		return inicioLinha == fimLinha;
+	}
+
+	/**
+	 * Posição do ';' que encerra o campo iniciado em {@code inicio}, ou o fim da linha se for o último campo.
+	 */
+	int fimCampo(int inicio) {
+		int i = inicio;
+		while (i < fimLinha && buffer.get(i) != ';') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Preenche as posições de início e fim de cada campo da linha atual, até o máximo
+	 * suportado pelos vetores, e retorna o número de campos da linha.
+	 */
+	int separaCampos(int[] inicios, int[] fins) {
+		int campos = 0;
+		int inicio = inicioLinha;
+		while (true) {
+			int fim = fimCampo(inicio);
+			if (campos < inicios.length) {
+				inicios[campos] = inicio;
+				fins[campos] = fim;
+			}
+			campos++;
+			if (fim >= fimLinha) {
+				return campos;
+			}
+			inicio = fim + 1;
+		}
+	}
+}
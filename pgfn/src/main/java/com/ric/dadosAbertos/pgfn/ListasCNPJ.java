@@ -0,0 +1,141 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Listas de CPFs/CNPJs filtradas em uma única leitura das bases, cada uma com seu diretório de saída.
+ *
+ * Os CPFs/CNPJs de todas as listas ficam em um único {@link ConjuntoCNPJ}, e cada posição da tabela
+ * do conjunto aponta para o grupo de listas que contém aquele CPF/CNPJ. Cada combinação de listas
+ * que ocorre é guardada uma só vez, de forma que a memória ocupada não cresce com o número de listas.
+ */
+public final class ListasCNPJ {
+	static final int[] PRIMEIRA_LISTA = {0};
+
+	private final List<Path> dirsSaida;
+	private final ConjuntoCNPJ cnpjs;
+	//Nulo quando há uma única lista
+	private final int[] grupoPorPosicao;
+	private final int[][] grupos;
+
+	private ListasCNPJ(List<Path> dirsSaida, ConjuntoCNPJ cnpjs, int[] grupoPorPosicao, int[][] grupos) {
+		this.dirsSaida = dirsSaida;
+		this.cnpjs = cnpjs;
+		this.grupoPorPosicao = grupoPorPosicao;
+		this.grupos = grupos;
+	}
+
+	/**
+	 * Uma única lista, gravada em {@code dirSaida}. Se o conjunto for vazio, não há filtragem.
+	 */
+	static ListasCNPJ unica(ConjuntoCNPJ cnpjs, Path dirSaida) {
+		return new ListasCNPJ(List.of(dirSaida), cnpjs, null, new int[][] {PRIMEIRA_LISTA});
+	}
+
+	/**
+	 * Lê as listas indicadas em um arquivo de manifesto, com uma lista por linha no formato
+	 * {@code arquivo[;diretório de saída]}. Se o diretório não for informado, é usado um subdiretório
+	 * de {@code dirSaida} com o nome do arquivo da lista. Caminhos relativos partem do diretório do manifesto.
+	 * Linhas vazias ou iniciadas por '#' são ignoradas.
+	 */
+	public static ListasCNPJ leManifesto(Path manifesto, Path dirSaida) throws IOException {
+		Path dirManifesto = manifesto.toAbsolutePath().getParent();
+		List<Path> dirsSaida = new ArrayList<>();
+		List<ConjuntoCNPJ> conjuntos = new ArrayList<>();
+		Set<Path> dirsUsados = new HashSet<>();
+
+		for (String linha : Files.readAllLines(manifesto, StandardCharsets.ISO_8859_1)) {
+			linha = linha.trim();
+			if (linha.isEmpty() || linha.startsWith("#")) {
+				continue;
+			}
+
+			String[] campos = linha.split(";", 2);
+			Path arquivo = dirManifesto.resolve(campos[0].trim());
+			Path dir = campos.length > 1 ? dirManifesto.resolve(campos[1].trim()) : dirSaida.resolve(semExtensao(arquivo.getFileName().toString()));
+			if (!dirsUsados.add(dir.toAbsolutePath().normalize())) {
+				throw new IOException("Diretório de saída " + dir + " repetido no manifesto " + manifesto + ".");
+			}
+
+			ConjuntoCNPJ conjunto = ConjuntoCNPJ.leArquivo(arquivo);
+			System.out.println("Lista " + arquivo + " tem tamanho = " + conjunto.tamanho() + ", saída em " + dir);
+			Files.createDirectories(dir);
+			dirsSaida.add(dir);
+			conjuntos.add(conjunto);
+		}
+		if (conjuntos.isEmpty()) {
+			throw new IOException("O manifesto " + manifesto + " não contém listas de CNPJs.");
+		}
+
+		return agrupa(dirsSaida, conjuntos);
+	}
+
+	private static ListasCNPJ agrupa(List<Path> dirsSaida, List<ConjuntoCNPJ> conjuntos) {
+		ConjuntoCNPJ cnpjs = ConjuntoCNPJ.uniao(conjuntos);
+		int[] grupoPorPosicao = new int[cnpjs.capacidade()];
+		Arrays.fill(grupoPorPosicao, -1);
+		List<int[]> grupos = new ArrayList<>();
+
+		for (int i = 0; i < conjuntos.size(); i++) {
+			int lista = i;
+			//Todos os CPFs/CNPJs que estavam no mesmo grupo passam juntos para o mesmo novo grupo
+			Map<Integer, Integer> novosGrupos = new HashMap<>();
+			conjuntos.get(lista).paraCada(chave -> {
+				int posicao = cnpjs.posicao(chave);
+				grupoPorPosicao[posicao] = novosGrupos.computeIfAbsent(grupoPorPosicao[posicao], anterior -> {
+					int[] grupo = anterior < 0 ? new int[1] : Arrays.copyOf(grupos.get(anterior), grupos.get(anterior).length + 1);
+					grupo[grupo.length - 1] = lista;
+					grupos.add(grupo);
+					return grupos.size() - 1;
+				});
+			});
+		}
+
+		System.out.println("Conjunto de CNPJs das " + conjuntos.size() + " listas tem tamanho = " + cnpjs.tamanho());
+		return new ListasCNPJ(List.copyOf(dirsSaida), cnpjs, grupoPorPosicao, grupos.toArray(new int[0][]));
+	}
+
+	private static String semExtensao(String nome) {
+		int ponto = nome.lastIndexOf('.');
+		return ponto > 0 ? nome.substring(0, ponto) : nome;
+	}
+
+	public int quantidade() {
+		return dirsSaida.size();
+	}
+
+	public Path getDirSaida(int lista) {
+		return dirsSaida.get(lista);
+	}
+
+	/**
+	 * Falso se houver uma única lista, vazia, caso em que todas as linhas vão para a saída.
+	 */
+	boolean filtra() {
+		return grupoPorPosicao != null || !cnpjs.isEmpty();
+	}
+
+	/**
+	 * Índices das listas que contêm o CPF/CNPJ, ou null se nenhuma o contém ou se a chave for inválida.
+	 * O vetor retornado é compartilhado e não deve ser alterado.
+	 */
+	int[] listas(long chave) {
+		if (chave == ConjuntoCNPJ.CHAVE_INVALIDA) {
+			return null;
+		} else if (grupoPorPosicao == null) {
+			return cnpjs.contem(chave) ? PRIMEIRA_LISTA : null;
+		}
+		int posicao = cnpjs.posicao(chave);
+		return posicao < 0 ? null : grupos[grupoPorPosicao[posicao]];
+	}
+}
@@ -1,119 +1,377 @@
-package com.ric.dadosAbertos.pgfn;
-
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Optional;
-
-import org.apache.commons.cli.CommandLine;
-import org.apache.commons.cli.CommandLineParser;
-import org.apache.commons.cli.DefaultParser;
-import org.apache.commons.cli.HelpFormatter;
-import org.apache.commons.cli.Options;
-import org.apache.commons.cli.ParseException;
-
-public class Main {
-	public static void main(String[] args) {
-		Options options = new Options()
-				.addOption("acnpj", "arqcnpj", true, "(Opcional) Arquivo com a lista de CNPJs a serem filtrados")
-				.addOption("dfgts", "dirfgts", true, "(Opcional) Diretório com os arquivos da dívida FGTS")
-				.addOption("dnprev", "dirnprev", true, "(Opcional) Diretório com os arquivos do dívida não previdenciária")
-				.addOption("dprev", "dirprev", true, "(Opcional) Diretório com os arquivos do dívida previdenciária")
-				.addRequiredOption("o", "output", true, "(Obrigatório) Diretório de saída")
-				;
-
-		try {
-			CommandLine cmd = parseOptions(args, options);
-
-			run(cmd);
-		} catch (RuntimeException e) {
-			System.err.println("Erro: " + e.getLocalizedMessage());
-
-			HelpFormatter formatter = new HelpFormatter();
-			formatter.printHelp("JuntaArquivosPGFN", options);
-		}
-	}
-
-	private static void run(CommandLine cmd) {
-		Path dirSaida = Paths.get(cmd.getOptionValue('o'));
-		validaParametroDiretorioLeituraEscrita(dirSaida);
-
-		Optional<Path> arqCNPJ = cmd.hasOption("acnpj") ? Optional.of(Paths.get(cmd.getOptionValue("acnpj"))) : Optional.empty();
-		if (arqCNPJ.isPresent()) {
-			validaParametroArquivo(arqCNPJ.get());
-		}
-
-		Path dirFGTS;
-		Path dirNaoPrevidenciario;
-		Path dirPrevidenciario;
-
-		JuntaArquivosPGFN juntador = new JuntaArquivosPGFN();
-
-		long t0 = System.nanoTime();
-		try {
-			if (cmd.hasOption("dfgts") || cmd.hasOption("dprev") || cmd.hasOption("dnprev")) {
-				if (cmd.hasOption("dfgts")) {
-					dirFGTS = Paths.get(cmd.getOptionValue("dfgts"));
-					validaParametroDiretorioLeitura(dirFGTS);
-				} else {
-					throw new RuntimeException("Erro nos parâmetros.");
-				}
-				if (cmd.hasOption("dnprev")) {
-					dirNaoPrevidenciario = Paths.get(cmd.getOptionValue("dnprev"));
-					validaParametroDiretorioLeitura(dirNaoPrevidenciario);
-				} else {
-					throw new RuntimeException("Erro nos parâmetros.");
-				}
-				if (cmd.hasOption("dprev")) {
-					dirPrevidenciario = Paths.get(cmd.getOptionValue("dprev"));
-					validaParametroDiretorioLeitura(dirPrevidenciario);
-				} else {
-					throw new RuntimeException("Erro nos parâmetros.");
-				}
-			} else {
-				BaixadorArquivos baixador = new BaixadorArquivos();
-
-				dirFGTS = Files.createTempDirectory("pgfn_");
-				dirNaoPrevidenciario = Files.createTempDirectory("pgfn_");
-				dirPrevidenciario = Files.createTempDirectory("pgfn_");
-
-				baixador.baixarArquivos(dirFGTS, dirNaoPrevidenciario, dirPrevidenciario);
-			}
-
-			juntador.juntaArquivos(arqCNPJ, dirFGTS, dirPrevidenciario, dirNaoPrevidenciario, dirSaida);
-		} catch (IOException e) {
-			throw new RuntimeException(e.getLocalizedMessage(), e);
-		}
-
-		double deltaT = (System.nanoTime() - t0)/1E9;
-		System.out.println("Script executado em " + deltaT + "s.");
-	}
-
-	private static CommandLine parseOptions(String[] args, Options options) {
-		CommandLineParser parser = new DefaultParser();
-		try {
-			return parser.parse(options, args);
-		} catch (ParseException e) {
-			throw new RuntimeException("Erro nos parâmetros.", e);
-		}
-	}
-
-	private static void validaParametroArquivo(Path path) {
-		if (!Files.exists(path) || Files.isDirectory(path) || !Files.isReadable(path)) {
-			throw new RuntimeException("Certifique-se de que o arquivo '" + path + "' existe e há acesso de leitura.");
-		}
-	}
-
-	private static void validaParametroDiretorioLeitura(Path path) {
-		if (!Files.exists(path) || !Files.isDirectory(path) || !Files.isReadable(path)) {
-			throw new RuntimeException("Certifique-se de que o diretório '" + path + "' existe e há acesso de leitura.");
-		}
-	}
-
-	private static void validaParametroDiretorioLeituraEscrita(Path path) {
-		if (!Files.exists(path) || !Files.isDirectory(path) || !Files.isReadable(path) || !Files.isWritable(path)) {
-			throw new RuntimeException("Certifique-se de que o diretório '" + path + "' existe e há acesso de leitura e escrita.");
-		}
-	}
-}
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+public class Main {
+	public static void main(String[] args) {
+		Options options = new Options()
+				.addOption("acnpj", "arqcnpj", true, "(Opcional) Arquivo com a lista de CNPJs a serem filtrados")
+				.addOption("dfgts", "dirfgts", true, "(Opcional) Diretório ou arquivo zip com os arquivos da dívida FGTS")
+				.addOption("dnprev", "dirnprev", true, "(Opcional) Diretório ou arquivo zip com os arquivos do dívida não previdenciária")
+				.addOption("dprev", "dirprev", true, "(Opcional) Diretório ou arquivo zip com os arquivos do dívida previdenciária")
+				.addRequiredOption("o", "output", true, "(Obrigatório) Diretório de saída")
+				.addOption("t", "threads", true, "(Opcional) Número de threads usadas na filtragem dos arquivos (padrão 1)")
+				.addOption("ord", "ordenado", false, "(Opcional) Mantém nas saídas a ordem das linhas dos arquivos de entrada ao usar várias threads")
+				.addOption("pu", "passounico", false, "(Opcional) Cria a base consolidada na mesma leitura que filtra os arquivos, sem reler os arquivos de cada base")
+				.addOption("si", "semindividuais", false, "(Opcional) No passo único, grava apenas a base consolidada, sem os arquivos de cada base")
+				.addOption("st", "streaming", false, "(Opcional) Filtra os arquivos durante o download, sem extraí-los em disco (implica passo único)")
+				.addOption("url", "urlbase", true, "(Opcional) Endereço de onde baixar os arquivos zip da PGFN")
+				.addOption("dz", "dirzip", true, "(Opcional) Diretório de cache dos arquivos zip baixados e extraídos, que só são baixados de novo quando alterados na PGFN")
+				.addOption("cd", "cachedias", true, "(Opcional) Remove do cache as extrações de versões anteriores sem uso há mais dias do que o informado")
+				.addOption("cmb", "cachemb", true, "(Opcional) Remove do cache as extrações de versões anteriores enquanto o cache passar do tamanho informado, em MB")
+				.addOption("pd", "partesdownload", true, "(Opcional) Número de partes de cada arquivo baixadas em paralelo (padrão 4)")
+				.addOption("tp", "tamanhoparte", true, "(Opcional) Tamanho, em MB, de cada parte baixada (padrão 32)")
+				.addOption("m", "manifesto", true, "(Opcional) Arquivo com várias listas de CNPJs, uma por linha no formato arquivo[;diretório de saída], filtradas em uma única leitura das bases (implica passo único)")
+				.addOption("ag", "agregar", false, "(Opcional) Grava apenas os totais de valor consolidado por CPF/CNPJ, por UF e por situação/ajuizamento, em vez das linhas filtradas")
+				.addOption("ix", "indexar", false, "(Opcional) Cria, ao final, o índice por CPF/CNPJ da base consolidada, usado nas consultas")
+				.addOption("q", "consultar", true, "(Opcional) Apenas consulta no índice da base consolidada do diretório de saída um CPF/CNPJ, ou um arquivo com um CPF/CNPJ por linha")
+				.addOption("oc", "ordenarcnpj", false, "(Opcional) Ordena ao final a base consolidada por CPF/CNPJ, deixando contíguas as linhas de cada devedor")
+				.addOption("gs", "gerasnapshot", true, "(Opcional) Apenas grava as bases, lidas dos diretórios ou zips informados ou baixadas, em um snapshot compacto para filtragens posteriores")
+				.addOption("sn", "snapshot", true, "(Opcional) Lê as bases de um snapshot gravado com -gerasnapshot, em vez dos arquivos CSV (implica passo único)")
+				.addOption("ant", "anterior", true, "(Opcional) Base consolidada de uma versão anterior, comparada ao final com a nova base consolidada, gravando as inscrições incluídas, removidas e alteradas")
+				.addOption("srv", "servidor", true, "(Opcional) Apenas atende, na porta local informada, consultas HTTP por CPF/CNPJ no índice da base consolidada do diretório de saída, recarregando o índice quando for recriado")
+				.addOption("mem", "memoriamb", true, "(Opcional) Memória, em MB, usada na ordenação por CPF/CNPJ e na comparação com a versão anterior (padrão 512)")
+				.addOption("fl", "filtro", true, "(Opcional) Filtra também as linhas por uma expressão com critérios separados por ';', que devem ser todos atendidos: raiz=<raízes de CNPJ, ou @arquivo>, uf=<UFs>, situacao=<situações>, ajuizado=<SIM/NAO>, valor=<mínimo>..<máximo>, data=<dd/mm/aaaa>..<dd/mm/aaaa>, com valores separados por ','")
+				.addOption("ret", "retomar", false, "(Opcional) Registra em um diário no diretório de saída as bases já gravadas e, se a execução for interrompida, a retoma do último ponto registrado ao ser repetida; sem -dirzip, os zips baixados são mantidos em <saída>/zips")
+				.addOption("met", "metricas", true, "(Opcional) Arquivo JSON onde gravar, ao final, as métricas da execução por fase e por arquivo: bytes, linhas lidas e selecionadas, vazão e tempo de CPU")
+				.addOption("prog", "progresso", true, "(Opcional) Mostra a cada intervalo informado, em segundos, uma linha de progresso com os totais e a vazão de cada fase")
+				.addOption("jfr", "eventosjfr", false, "(Opcional) Gera um evento do JDK Flight Recorder para cada trecho processado, registrado quando houver uma gravação em andamento")
+				;
+
+		try {
+			CommandLine cmd = parseOptions(args, options);
+
+			run(cmd);
+		} catch (RuntimeException e) {
+			System.err.println("Erro: " + e.getLocalizedMessage());
+
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("JuntaArquivosPGFN", options);
+		}
+	}
+
+	private static void run(CommandLine cmd) {
+		Path dirSaida = Paths.get(cmd.getOptionValue('o'));
+		validaParametroDiretorioLeituraEscrita(dirSaida);
+
+		Optional<Path> arqCNPJ = cmd.hasOption("acnpj") ? Optional.of(Paths.get(cmd.getOptionValue("acnpj"))) : Optional.empty();
+		if (arqCNPJ.isPresent()) {
+			validaParametroArquivo(arqCNPJ.get());
+		}
+
+		Optional<Path> manifesto = cmd.hasOption("manifesto") ? Optional.of(Paths.get(cmd.getOptionValue("manifesto"))) : Optional.empty();
+		if (manifesto.isPresent()) {
+			if (arqCNPJ.isPresent()) {
+				throw new RuntimeException("Erro nos parâmetros.");
+			}
+			validaParametroArquivo(manifesto.get());
+		}
+
+		if (cmd.hasOption("servidor")) {
+			if (cmd.hasOption("consultar")) {
+				throw new RuntimeException("Erro nos parâmetros.");
+			}
+			//Sem -threads, atende tantas requisições ao mesmo tempo quanto o número de processadores
+			int threads = cmd.hasOption("threads") ? parametroInteiroPositivo(cmd, "threads") : Runtime.getRuntime().availableProcessors();
+			try {
+				new ServidorConsulta(dirSaida.resolve(JuntaArquivosPGFN.ARQUIVO_CONSOLIDADO)).inicia(parametroInteiroPositivo(cmd, "servidor"), threads);
+			} catch (IOException e) {
+				throw new RuntimeException(e.getLocalizedMessage(), e);
+			}
+			return;
+		}
+
+		if (cmd.hasOption("consultar")) {
+			consulta(dirSaida.resolve(JuntaArquivosPGFN.ARQUIVO_CONSOLIDADO), cmd.getOptionValue("consultar"));
+			return;
+		}
+
+		JuntaArquivosPGFN juntador = new JuntaArquivosPGFN();
+		if (cmd.hasOption("threads")) {
+			juntador.setThreads(parametroInteiroPositivo(cmd, "threads"));
+		}
+		juntador.setSaidaOrdenada(cmd.hasOption("ordenado"));
+		juntador.setPassoUnico(cmd.hasOption("passounico"));
+		juntador.setGravaIndividuais(!cmd.hasOption("semindividuais"));
+		juntador.setAgrega(cmd.hasOption("agregar"));
+		if (cmd.hasOption("filtro")) {
+			try {
+				FiltroLinhas filtro = FiltroLinhas.compila(cmd.getOptionValue("filtro"));
+				System.out.println("Filtro de linhas: " + filtro);
+				juntador.setFiltro(filtro);
+			} catch (IOException e) {
+				throw new RuntimeException(e.getLocalizedMessage(), e);
+			}
+		}
+		if (cmd.hasOption("agregar") && cmd.hasOption("indexar")) {
+			throw new RuntimeException("Erro nos parâmetros.");
+		}
+
+		Optional<Path> arqAnterior = cmd.hasOption("anterior") ? Optional.of(Paths.get(cmd.getOptionValue("anterior"))) : Optional.empty();
+		if (arqAnterior.isPresent()) {
+			if (cmd.hasOption("agregar") || manifesto.isPresent()) {
+				throw new RuntimeException("Erro nos parâmetros.");
+			}
+			validaParametroArquivo(arqAnterior.get());
+		}
+		if (cmd.hasOption("agregar") && cmd.hasOption("ordenarcnpj")) {
+			throw new RuntimeException("Erro nos parâmetros.");
+		}
+		long memoria = (cmd.hasOption("memoriamb") ? parametroInteiroPositivo(cmd, "memoriamb") : 512) * 1024L * 1024L;
+
+		BaixadorArquivos baixador = cmd.hasOption("urlbase") ? new BaixadorArquivos(cmd.getOptionValue("urlbase")) : new BaixadorArquivos();
+		if (cmd.hasOption("dirzip")) {
+			Path dirZip = Paths.get(cmd.getOptionValue("dirzip"));
+			validaParametroDiretorioLeituraEscrita(dirZip);
+			baixador.setDirZip(dirZip);
+		}
+		if (cmd.hasOption("cachedias")) {
+			baixador.setIdadeMaximaCache(Duration.ofDays(parametroInteiroPositivo(cmd, "cachedias")));
+		}
+		if (cmd.hasOption("cachemb")) {
+			baixador.setTamanhoMaximoCache(parametroInteiroPositivo(cmd, "cachemb") * 1024L * 1024L);
+		}
+		if (cmd.hasOption("partesdownload")) {
+			baixador.setPartesParalelas(parametroInteiroPositivo(cmd, "partesdownload"));
+		}
+		if (cmd.hasOption("tamanhoparte")) {
+			baixador.setTamanhoParte(parametroInteiroPositivo(cmd, "tamanhoparte") * 1024L * 1024L);
+		}
+
+		//O diário cobre as bases individuais e a base consolidada; downloads e extrações são retomados pelo cache de zips
+		DiarioExecucao diario = null;
+		if (cmd.hasOption("retomar")) {
+			for (String opcao : List.of("passounico", "streaming", "manifesto", "agregar", "gerasnapshot", "snapshot")) {
+				if (cmd.hasOption(opcao)) {
+					throw new RuntimeException("Erro nos parâmetros.");
+				}
+			}
+			try {
+				diario = DiarioExecucao.abre(dirSaida);
+				//Só há downloads quando nenhum diretório de entrada é informado
+				if (!cmd.hasOption("dirzip") && !cmd.hasOption("dfgts") && !cmd.hasOption("dprev") && !cmd.hasOption("dnprev")) {
+					Path dirZip = Files.createDirectories(dirSaida.resolve("zips"));
+					baixador.setDirZip(dirZip);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e.getLocalizedMessage(), e);
+			}
+			juntador.setDiario(diario);
+		}
+
+		Optional<Path> arqGeraSnapshot = cmd.hasOption("gerasnapshot") ? Optional.of(Paths.get(cmd.getOptionValue("gerasnapshot"))) : Optional.empty();
+		if (arqGeraSnapshot.isPresent()) {
+			//O snapshot guarda as bases inteiras, sem filtragem nem outras saídas
+			for (String opcao : List.of("acnpj", "manifesto", "filtro", "agregar", "ordenarcnpj", "indexar", "anterior", "streaming", "snapshot")) {
+				if (cmd.hasOption(opcao)) {
+					throw new RuntimeException("Erro nos parâmetros.");
+				}
+			}
+		}
+
+		Metricas metricas = new Metricas();
+		metricas.setEventosJFR(cmd.hasOption("eventosjfr"));
+		juntador.setMetricas(metricas);
+		baixador.setMetricas(metricas);
+		Optional<Path> arqMetricas = cmd.hasOption("metricas") ? Optional.of(Paths.get(cmd.getOptionValue("metricas"))) : Optional.empty();
+		Optional<Duration> intervaloProgresso = cmd.hasOption("progresso") ? Optional.of(Duration.ofSeconds(parametroInteiroPositivo(cmd, "progresso"))) : Optional.empty();
+
+		long t0 = System.nanoTime();
+		intervaloProgresso.ifPresent(metricas::iniciaProgresso);
+		try {
+			ListasCNPJ listas = manifesto.isPresent() ? ListasCNPJ.leManifesto(manifesto.get(), dirSaida) : null;
+
+			if (cmd.hasOption("snapshot")) {
+				if (cmd.hasOption("streaming") || cmd.hasOption("dfgts") || cmd.hasOption("dprev") || cmd.hasOption("dnprev")) {
+					throw new RuntimeException("Erro nos parâmetros.");
+				}
+				Path arqSnapshot = Paths.get(cmd.getOptionValue("snapshot"));
+				validaParametroArquivo(arqSnapshot);
+
+				if (listas != null) {
+					juntador.juntaArquivosSnapshot(listas, arqSnapshot);
+				} else {
+					juntador.juntaArquivosSnapshot(arqCNPJ, arqSnapshot, dirSaida);
+				}
+			} else if (cmd.hasOption("streaming")) {
+				if (cmd.hasOption("dfgts") || cmd.hasOption("dprev") || cmd.hasOption("dnprev")) {
+					throw new RuntimeException("Erro nos parâmetros.");
+				}
+
+				HttpClient httpClient = HttpClient.newBuilder().build();
+				Map<TipoBase, JuntaArquivosPGFN.FonteZip> zips = new EnumMap<>(TipoBase.class);
+				for (TipoBase base : TipoBase.values()) {
+					zips.put(base, () -> baixador.abrirZip(base, httpClient));
+				}
+
+				if (listas != null) {
+					juntador.juntaArquivosZip(listas, zips);
+				} else {
+					juntador.juntaArquivosZip(arqCNPJ, zips, dirSaida);
+				}
+			} else {
+				Map<TipoBase, Path> dirs = entradas(cmd, baixador);
+				Path dirFGTS = dirs.get(TipoBase.FGTS);
+				Path dirPrevidenciario = dirs.get(TipoBase.PREVIDENCIARIO);
+				Path dirNaoPrevidenciario = dirs.get(TipoBase.NAO_PREVIDENCIARIO);
+
+				if (arqGeraSnapshot.isPresent()) {
+					juntador.criaSnapshot(dirFGTS, dirPrevidenciario, dirNaoPrevidenciario, arqGeraSnapshot.get());
+				} else if (listas != null) {
+					juntador.juntaArquivosListas(listas, dirFGTS, dirPrevidenciario, dirNaoPrevidenciario);
+				} else {
+					juntador.juntaArquivos(arqCNPJ, dirFGTS, dirPrevidenciario, dirNaoPrevidenciario, dirSaida);
+				}
+			}
+
+			int threads = cmd.hasOption("threads") ? parametroInteiroPositivo(cmd, "threads") : 1;
+			List<Path> basesConsolidadas = new ArrayList<>();
+			if (listas != null) {
+				for (int lista = 0; lista < listas.quantidade(); lista++) {
+					basesConsolidadas.add(listas.getDirSaida(lista).resolve(JuntaArquivosPGFN.ARQUIVO_CONSOLIDADO));
+				}
+			} else {
+				basesConsolidadas.add(dirSaida.resolve(JuntaArquivosPGFN.ARQUIVO_CONSOLIDADO));
+			}
+
+			//A base é ordenada antes de ser indexada, porque o índice guarda as posições das linhas
+			if (cmd.hasOption("ordenarcnpj")) {
+				for (Path arqBase : basesConsolidadas) {
+					OrdenaBaseCNPJ.ordena(arqBase, threads, memoria);
+				}
+			}
+
+			if (cmd.hasOption("indexar")) {
+				for (Path arqBase : basesConsolidadas) {
+					IndiceCNPJ.cria(arqBase, threads);
+				}
+			}
+
+			if (arqAnterior.isPresent()) {
+				new ComparaBases(threads, memoria).compara(arqAnterior.get(), dirSaida.resolve(JuntaArquivosPGFN.ARQUIVO_CONSOLIDADO), dirSaida);
+			}
+
+			if (diario != null) {
+				diario.encerra();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e.getLocalizedMessage(), e);
+		} finally {
+			//As métricas são gravadas mesmo se a execução falhar, por exemplo por uma linha malformada
+			metricas.encerraProgresso();
+			if (arqMetricas.isPresent()) {
+				try {
+					metricas.gravaRelatorio(arqMetricas.get());
+				} catch (IOException e) {
+					System.err.println("Erro ao gravar as métricas: " + e.getLocalizedMessage());
+				}
+			}
+		}
+
+		double deltaT = (System.nanoTime() - t0)/1E9;
+		System.out.println("Script executado em " + deltaT + "s.");
+	}
+
+	//Diretórios ou zips de cada base informados nos parâmetros, ou, se nenhum for informado, os diretórios das bases baixadas
+	private static Map<TipoBase, Path> entradas(CommandLine cmd, BaixadorArquivos baixador) throws IOException {
+		if (!cmd.hasOption("dfgts") && !cmd.hasOption("dprev") && !cmd.hasOption("dnprev")) {
+			return baixador.baixarArquivos();
+		}
+
+		Map<TipoBase, Path> dirs = new EnumMap<>(TipoBase.class);
+		dirs.put(TipoBase.FGTS, parametroEntrada(cmd, "dfgts"));
+		dirs.put(TipoBase.NAO_PREVIDENCIARIO, parametroEntrada(cmd, "dnprev"));
+		dirs.put(TipoBase.PREVIDENCIARIO, parametroEntrada(cmd, "dprev"));
+		return dirs;
+	}
+
+	private static Path parametroEntrada(CommandLine cmd, String opcao) {
+		if (!cmd.hasOption(opcao)) {
+			throw new RuntimeException("Erro nos parâmetros.");
+		}
+		Path dir = Paths.get(cmd.getOptionValue(opcao));
+		validaParametroEntrada(dir);
+		return dir;
+	}
+
+	//As linhas encontradas vão para a saída padrão, e o resumo para a saída de erro, para que a saída possa ser redirecionada para um CSV
+	private static void consulta(Path arqBase, String consulta) {
+		try {
+			Path arqConsulta = Paths.get(consulta);
+			List<String> cnpjs = Files.isRegularFile(arqConsulta) ? Files.readAllLines(arqConsulta, StandardCharsets.ISO_8859_1) : List.of(consulta);
+
+			IndiceCNPJ indice = IndiceCNPJ.abre(arqBase);
+			int encontrados = indice.consulta(cnpjs, Channels.newChannel(System.out));
+			System.out.flush();
+			System.err.println(encontrados + " de " + cnpjs.size() + " CPFs/CNPJs consultados encontrados na base.");
+		} catch (IOException e) {
+			throw new RuntimeException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	private static CommandLine parseOptions(String[] args, Options options) {
+		CommandLineParser parser = new DefaultParser();
+		try {
+			return parser.parse(options, args);
+		} catch (ParseException e) {
+			throw new RuntimeException("Erro nos parâmetros.", e);
+		}
+	}
+
+	private static int parametroInteiroPositivo(CommandLine cmd, String opcao) {
+		try {
+			int valor = Integer.parseInt(cmd.getOptionValue(opcao));
+			if (valor > 0) {
+				return valor;
+			}
+		} catch (NumberFormatException e) {
+		}
+		throw new RuntimeException("O parâmetro '" + opcao + "' deve ser um número inteiro positivo.");
+	}
+
+	private static void validaParametroArquivo(Path path) {
+		if (!Files.exists(path) || Files.isDirectory(path) || !Files.isReadable(path)) {
+			throw new RuntimeException("Certifique-se de que o arquivo '" + path + "' existe e há acesso de leitura.");
+		}
+	}
+
+	private static void validaParametroDiretorioLeitura(Path path) {
+		if (!Files.exists(path) || !Files.isDirectory(path) || !Files.isReadable(path)) {
+			throw new RuntimeException("Certifique-se de que o diretório '" + path + "' existe e há acesso de leitura.");
+		}
+	}
+
+	//A entrada de cada base pode ser o diretório com os CSVs extraídos ou o próprio zip baixado da PGFN
+	private static void validaParametroEntrada(Path path) {
+		if (JuntaArquivosPGFN.isZip(path)) {
+			validaParametroArquivo(path);
+		} else {
+			validaParametroDiretorioLeitura(path);
+		}
+	}
+
+	private static void validaParametroDiretorioLeituraEscrita(Path path) {
+		if (!Files.exists(path) || !Files.isDirectory(path) || !Files.isReadable(path) || !Files.isWritable(path)) {
+			throw new RuntimeException("Certifique-se de que o diretório '" + path + "' existe e há acesso de leitura e escrita.");
+		}
+	}
+}
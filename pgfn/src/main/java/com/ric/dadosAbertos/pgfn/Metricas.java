@@ -0,0 +1,382 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Contadores da execução por fase e por arquivo: bytes baixados, extraídos e lidos, linhas lidas,
+ * selecionadas pelas listas de CNPJs e sem CPF/CNPJ representável, e tempo de CPU. Linhas malformadas
+ * não são contadas: uma linha com número de colunas diferente do esperado interrompe a execução.
+ *
+ * Os contadores são {@link LongAdder}s, e a filtragem conta as linhas de cada trecho em variáveis locais,
+ * somando-as aos contadores do arquivo uma única vez ao final do trecho, de forma que a coleta não
+ * acrescenta sincronização ao processamento das linhas. Os totais podem ser mostrados periodicamente
+ * em linhas de progresso e são gravados ao final em um relatório JSON. Opcionalmente, cada trecho
+ * processado gera também um evento do JDK Flight Recorder (ver {@link EventoTrechoJFR}).
+ */
+final class Metricas {
+	private static final double MB = 1024 * 1024;
+
+	/**
+	 * Fases da execução medidas.
+	 */
+	enum Fase {
+		DOWNLOAD("download"),
+		EXTRACAO("extracao"),
+		FILTRAGEM("filtragem"),
+		CONSOLIDACAO("consolidacao");
+
+		private final String nome;
+
+		private Fase(String nome) {
+			this.nome = nome;
+		}
+	}
+
+	private final Instant inicio = Instant.now();
+	private final long inicioNanos = System.nanoTime();
+	private final ConcurrentMap<String, Arquivo> arquivos = new ConcurrentHashMap<>();
+	//Arquivos na ordem em que começaram a ser processados
+	private final Queue<Arquivo> ordem = new ConcurrentLinkedQueue<>();
+	private final ThreadMXBean mxThreads = ManagementFactory.getThreadMXBean();
+	private final boolean mideCPU = mxThreads.isCurrentThreadCpuTimeSupported();
+	private volatile boolean eventosJFR = false;
+	private ScheduledExecutorService progresso;
+
+	/**
+	 * Gera um evento do JDK Flight Recorder a cada trecho processado, registrado quando houver uma gravação
+	 * em andamento (por exemplo, com {@code -XX:StartFlightRecording}).
+	 */
+	void setEventosJFR(boolean eventosJFR) {
+		this.eventosJFR = eventosJFR;
+	}
+
+	/**
+	 * Contadores do arquivo na fase, criados no primeiro uso. O nome identifica o arquivo nos relatórios.
+	 */
+	Arquivo arquivo(Fase fase, String nome) {
+		return arquivos.computeIfAbsent(fase.nome + "|" + nome, chave -> {
+			Arquivo arquivo = new Arquivo(fase, nome);
+			ordem.add(arquivo);
+			return arquivo;
+		});
+	}
+
+	/**
+	 * Passa a mostrar a cada intervalo uma linha com os totais de cada fase e as taxas desde a linha anterior.
+	 */
+	synchronized void iniciaProgresso(Duration intervalo) {
+		progresso = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "progresso");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Map<Fase, Totais> anteriores = new EnumMap<>(Fase.class);
+		long[] instanteAnterior = { System.nanoTime() };
+		progresso.scheduleAtFixedRate(() -> {
+			long agora = System.nanoTime();
+			System.out.println(linhaProgresso(anteriores, (agora - instanteAnterior[0]) / 1E9));
+			instanteAnterior[0] = agora;
+		}, intervalo.toMillis(), intervalo.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void encerraProgresso() {
+		if (progresso != null) {
+			progresso.shutdownNow();
+			progresso = null;
+		}
+	}
+
+	private String linhaProgresso(Map<Fase, Totais> anteriores, double segundos) {
+		StringBuilder linha = new StringBuilder("Progresso (" + Math.round((System.nanoTime() - inicioNanos) / 1E9) + "s):");
+		boolean vazia = true;
+		for (Map.Entry<Fase, Totais> fase : totaisPorFase().entrySet()) {
+			Totais totais = fase.getValue();
+			Totais anterior = anteriores.getOrDefault(fase.getKey(), new Totais());
+			anteriores.put(fase.getKey(), totais);
+
+			linha.append(vazia ? " " : " | ").append(fase.getKey().nome);
+			vazia = false;
+			linha.append(String.format(Locale.ROOT, " %.1f MB (%.1f MB/s)", totais.bytes() / MB, (totais.bytes() - anterior.bytes()) / MB / segundos));
+			if (totais.linhasLidas > 0) {
+				linha.append(String.format(Locale.ROOT, ", %d linhas (%.0f linhas/s)", totais.linhasLidas, (totais.linhasLidas - anterior.linhasLidas) / segundos));
+			}
+			if (fase.getKey() == Fase.FILTRAGEM) {
+				linha.append(", ").append(totais.linhasSelecionadas).append(" selecionadas");
+			}
+		}
+		return vazia ? linha.append(" nenhuma fase iniciada").toString() : linha.toString();
+	}
+
+	private Map<Fase, Totais> totaisPorFase() {
+		Map<Fase, Totais> fases = new EnumMap<>(Fase.class);
+		for (Arquivo arquivo : ordem) {
+			fases.computeIfAbsent(arquivo.fase, fase -> new Totais()).soma(arquivo.totais());
+		}
+		return fases;
+	}
+
+	/**
+	 * Grava o relatório JSON com os totais de cada fase e de cada arquivo, em um arquivo temporário
+	 * renomeado ao final.
+	 */
+	void gravaRelatorio(Path arquivo) throws IOException {
+		double duracao = (System.nanoTime() - inicioNanos) / 1E9;
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"inicio\": ").append(texto(inicio.toString())).append(",\n");
+		json.append("  \"duracaoSegundos\": ").append(numero(duracao)).append(",\n");
+		OperatingSystemMXBean so = ManagementFactory.getOperatingSystemMXBean();
+		if (so instanceof com.sun.management.OperatingSystemMXBean) {
+			json.append("  \"tempoCPUProcessoSegundos\": ").append(numero(((com.sun.management.OperatingSystemMXBean) so).getProcessCpuTime() / 1E9)).append(",\n");
+		}
+		json.append("  \"fases\": [");
+
+		Map<Fase, List<Arquivo>> arquivosPorFase = new EnumMap<>(Fase.class);
+		for (Arquivo arq : ordem) {
+			arquivosPorFase.computeIfAbsent(arq.fase, fase -> new ArrayList<>()).add(arq);
+		}
+		boolean primeiraFase = true;
+		for (Map.Entry<Fase, List<Arquivo>> fase : arquivosPorFase.entrySet()) {
+			Totais totais = new Totais();
+			for (Arquivo arq : fase.getValue()) {
+				totais.soma(arq.totais());
+			}
+			json.append(primeiraFase ? "\n" : ",\n").append("    {\n");
+			primeiraFase = false;
+			json.append("      \"fase\": ").append(texto(fase.getKey().nome)).append(",\n");
+			totais.json(json, "      ");
+			json.append(",\n      \"arquivos\": [");
+			boolean primeiroArquivo = true;
+			for (Arquivo arq : fase.getValue()) {
+				json.append(primeiroArquivo ? "\n" : ",\n").append("        {\n");
+				primeiroArquivo = false;
+				json.append("          \"arquivo\": ").append(texto(arq.nome)).append(",\n");
+				arq.totais().json(json, "          ");
+				json.append("\n        }");
+			}
+			json.append(primeiroArquivo ? "]\n" : "\n      ]\n").append("    }");
+		}
+		json.append(primeiraFase ? "]\n" : "\n  ]\n").append("}\n");
+
+		Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+		Files.write(temporario, json.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		System.out.println("Métricas gravadas em " + arquivo);
+	}
+
+	private static String texto(String valor) {
+		StringBuilder json = new StringBuilder("\"");
+		for (int i = 0; i < valor.length(); i++) {
+			char c = valor.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		return json.append('"').toString();
+	}
+
+	private static String numero(double valor) {
+		return Double.isFinite(valor) ? String.format(Locale.ROOT, "%.3f", valor) : "null";
+	}
+
+	/**
+	 * Fluxo que soma ao contador os bytes lidos de {@code entrada}. Fechar o fluxo fecha também a entrada.
+	 */
+	static InputStream conta(InputStream entrada, LongConsumer contador) {
+		return new FilterInputStream(entrada) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					contador.accept(1);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int lidos = super.read(b, off, len);
+				if (lidos > 0) {
+					contador.accept(lidos);
+				}
+				return lidos;
+			}
+		};
+	}
+
+	/**
+	 * Contadores de um arquivo em uma fase. O tempo do arquivo vai da criação dos contadores à última atualização.
+	 */
+	final class Arquivo {
+		private final Fase fase;
+		private final String nome;
+		private final long inicio = System.nanoTime();
+		private final LongAccumulator fim = new LongAccumulator(Math::max, inicio);
+		private final LongAdder bytesBaixados = new LongAdder();
+		private final LongAdder bytesExtraidos = new LongAdder();
+		private final LongAdder bytesLidos = new LongAdder();
+		private final LongAdder linhasLidas = new LongAdder();
+		private final LongAdder linhasSelecionadas = new LongAdder();
+		private final LongAdder linhasSemChave = new LongAdder();
+		private final LongAdder tempoCPU = new LongAdder();
+
+		private Arquivo(Fase fase, String nome) {
+			this.fase = fase;
+			this.nome = nome;
+		}
+
+		void baixados(long bytes) {
+			bytesBaixados.add(bytes);
+			fim.accumulate(System.nanoTime());
+		}
+
+		void extraidos(long bytes) {
+			bytesExtraidos.add(bytes);
+			fim.accumulate(System.nanoTime());
+		}
+
+		/**
+		 * Inicia a medição de um trecho de {@code bytes} bytes do arquivo, processado pela thread atual.
+		 */
+		Medicao inicia(long bytes) {
+			return new Medicao(this, bytes, mideCPU ? mxThreads.getCurrentThreadCpuTime() : 0, eventosJFR ? EventoTrechoJFR.inicia() : null);
+		}
+
+		private Totais totais() {
+			Totais totais = new Totais();
+			totais.inicio = inicio;
+			totais.fim = fim.get();
+			totais.tempoCPU = tempoCPU.sum() / 1E9;
+			totais.bytesBaixados = bytesBaixados.sum();
+			totais.bytesExtraidos = bytesExtraidos.sum();
+			totais.bytesLidos = bytesLidos.sum();
+			totais.linhasLidas = linhasLidas.sum();
+			totais.linhasSelecionadas = linhasSelecionadas.sum();
+			totais.linhasSemChave = linhasSemChave.sum();
+			return totais;
+		}
+	}
+
+	/**
+	 * Medição de um trecho processado por uma única thread, que acumula as contagens de linhas
+	 * e só as soma aos contadores do arquivo em {@link #conclui()}.
+	 */
+	final class Medicao {
+		private final Arquivo arquivo;
+		private final long bytes;
+		private final long inicioCPU;
+		private final EventoTrechoJFR evento;
+		private long linhas;
+		private long selecionadas;
+		private long semChave;
+
+		private Medicao(Arquivo arquivo, long bytes, long inicioCPU, EventoTrechoJFR evento) {
+			this.arquivo = arquivo;
+			this.bytes = bytes;
+			this.inicioCPU = inicioCPU;
+			this.evento = evento;
+		}
+
+		void linhas(long lidas, long selecionadas, long semChave) {
+			this.linhas += lidas;
+			this.selecionadas += selecionadas;
+			this.semChave += semChave;
+		}
+
+		void conclui() {
+			if (mideCPU) {
+				arquivo.tempoCPU.add(mxThreads.getCurrentThreadCpuTime() - inicioCPU);
+			}
+			arquivo.bytesLidos.add(bytes);
+			arquivo.linhasLidas.add(linhas);
+			arquivo.linhasSelecionadas.add(selecionadas);
+			arquivo.linhasSemChave.add(semChave);
+			arquivo.fim.accumulate(System.nanoTime());
+			if (evento != null) {
+				evento.conclui(arquivo.fase.nome, arquivo.nome, bytes, linhas, selecionadas);
+			}
+		}
+	}
+
+	/**
+	 * Totais de um arquivo ou de uma fase, com as taxas derivadas deles.
+	 */
+	private static final class Totais {
+		private long inicio = Long.MAX_VALUE;
+		private long fim = Long.MIN_VALUE;
+		private double tempoCPU;
+		private long bytesBaixados;
+		private long bytesExtraidos;
+		private long bytesLidos;
+		private long linhasLidas;
+		private long linhasSelecionadas;
+		private long linhasSemChave;
+
+		//Cada fase só conta um tipo de byte: baixados, extraídos ou lidos
+		private long bytes() {
+			return bytesBaixados + bytesExtraidos + bytesLidos;
+		}
+
+		//Os arquivos de uma fase podem ser processados ao mesmo tempo, então a fase vai do primeiro início ao último fim
+		private void soma(Totais outros) {
+			inicio = Math.min(inicio, outros.inicio);
+			fim = Math.max(fim, outros.fim);
+			tempoCPU += outros.tempoCPU;
+			bytesBaixados += outros.bytesBaixados;
+			bytesExtraidos += outros.bytesExtraidos;
+			bytesLidos += outros.bytesLidos;
+			linhasLidas += outros.linhasLidas;
+			linhasSelecionadas += outros.linhasSelecionadas;
+			linhasSemChave += outros.linhasSemChave;
+		}
+
+		private double duracao() {
+			return fim > inicio ? (fim - inicio) / 1E9 : 0;
+		}
+
+		private void json(StringBuilder json, String recuo) {
+			double duracao = duracao();
+			json.append(recuo).append("\"duracaoSegundos\": ").append(numero(duracao)).append(",\n");
+			json.append(recuo).append("\"tempoCPUSegundos\": ").append(numero(tempoCPU)).append(",\n");
+			json.append(recuo).append("\"bytesBaixados\": ").append(bytesBaixados).append(",\n");
+			json.append(recuo).append("\"bytesExtraidos\": ").append(bytesExtraidos).append(",\n");
+			json.append(recuo).append("\"bytesLidos\": ").append(bytesLidos).append(",\n");
+			json.append(recuo).append("\"linhasLidas\": ").append(linhasLidas).append(",\n");
+			json.append(recuo).append("\"linhasSelecionadas\": ").append(linhasSelecionadas).append(",\n");
+			json.append(recuo).append("\"linhasSemChave\": ").append(linhasSemChave).append(",\n");
+			json.append(recuo).append("\"taxaSelecao\": ").append(linhasLidas > 0 ? numero((double) linhasSelecionadas / linhasLidas) : "null").append(",\n");
+			json.append(recuo).append("\"linhasPorSegundo\": ").append(duracao > 0 ? numero(linhasLidas / duracao) : "null").append(",\n");
+			json.append(recuo).append("\"mbPorSegundo\": ").append(duracao > 0 ? numero(bytes() / MB / duracao) : "null");
+		}
+	}
+}
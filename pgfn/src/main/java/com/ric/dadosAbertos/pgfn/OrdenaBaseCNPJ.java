@@ -0,0 +1,175 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ordena a base consolidada por CPF/CNPJ, de forma que as linhas de cada devedor fiquem contíguas.
+ *
+ * A ordem é a das chaves de {@link ConjuntoCNPJ}: pelo número de dígitos (CPFs antes de CNPJs) e então
+ * pelo valor numérico. Os CPFs mascarados, cuja chave tem a marca {@link ConjuntoCNPJ#CPF_MASCARADO} no lugar
+ * do número de dígitos, ficam depois dos CNPJs, ordenados pelos dígitos visíveis. Linhas de mesmo CPF/CNPJ
+ * mantêm a ordem da base, e as linhas cujo CPF/CNPJ não forma uma chave válida ficam ao final, também na
+ * ordem da base.
+ *
+ * A base é ordenada externamente: trechos do tamanho permitido pela memória são ordenados em paralelo
+ * e gravados em arquivos temporários, que são então intercalados com um heap em um arquivo temporário,
+ * renomeado sobre a base ao final.
+ */
+public final class OrdenaBaseCNPJ {
+	private static final int TAMANHO_BUFFER = 1024 * 1024;
+	private static final long TAMANHO_MINIMO_TRECHO = 1024 * 1024;
+	//Cada trecho ordenado é mapeado em memória inteiro na intercalação
+	private static final long TAMANHO_MAXIMO_TRECHO = 1L << 30;
+	private static final long CHAVE_ULTIMA = Long.MAX_VALUE;
+	private static final byte[] FIM_LINHA = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+
+	private OrdenaBaseCNPJ() {
+	}
+
+	/**
+	 * Ordena a base por CPF/CNPJ.
+	 *
+	 * @param memoria memória aproximada, em bytes, repartida entre as threads, que define o tamanho dos trechos ordenados
+	 */
+	public static void ordena(Path arqBase, int threads, long memoria) throws IOException {
+		System.out.println("Ordenando " + arqBase + " por CPF/CNPJ");
+		long tamanhoTrecho = Math.min(TAMANHO_MAXIMO_TRECHO, Math.max(TAMANHO_MINIMO_TRECHO, memoria / threads));
+
+		String cabecalho;
+		try (BufferedReader entrada = Files.newBufferedReader(arqBase, StandardCharsets.ISO_8859_1);) {
+			cabecalho = entrada.readLine();
+		}
+		if (cabecalho == null) {
+			return;
+		}
+
+		Path dirTemporario = Files.createTempDirectory(arqBase.toAbsolutePath().getParent(), "ordenacao");
+		try {
+			List<Path> corridas = new ArrayList<>();
+			try (VarreduraParalela<Path> varredura = new VarreduraParalela<>(threads, true, corridas::add);) {
+				int i = 0;
+				for (TrechoArquivo trecho : TrechoArquivo.divide(arqBase, tamanhoTrecho)) {
+					Path arqCorrida = dirTemporario.resolve("corrida" + i++);
+					varredura.submete(() -> ordenaTrecho(trecho, arqCorrida));
+				}
+				varredura.aguarda();
+			}
+
+			Path temporario = arqBase.resolveSibling(arqBase.getFileName() + ".tmp");
+			intercala(cabecalho, corridas, temporario);
+			Files.move(temporario, arqBase, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			System.out.println("Base ordenada a partir de " + corridas.size() + " trechos.");
+		} finally {
+			BaixadorArquivos.apagaDiretorio(dirTemporario);
+		}
+	}
+
+	/**
+	 * Ordena as linhas do trecho pelas chaves, ordenando apenas os pares de chave e posição,
+	 * e grava as linhas na nova ordem no arquivo da corrida.
+	 */
+	private static Path ordenaTrecho(TrechoArquivo trecho, Path arqCorrida) throws IOException {
+		ByteBuffer bytes = trecho.mapeia();
+
+		ChavesPosicoes linhas = new ChavesPosicoes((int) (trecho.getTamanho() / 128) + 16);
+		LeitorCSV leitor = new LeitorCSV(bytes);
+		while (leitor.proximaLinha()) {
+			if (!leitor.linhaVazia()) {
+				linhas.adiciona(chave(bytes, leitor), leitor.inicioLinha());
+			}
+		}
+		linhas.ordena();
+
+		try (FileChannel saida = FileChannel.open(arqCorrida, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);) {
+			BufferSaida buffer = new BufferSaida(TAMANHO_BUFFER + TAMANHO_BUFFER / 8);
+			long[] posicoes = linhas.posicoes();
+			for (int i = 0; i < linhas.tamanho(); i++) {
+				leitor.posiciona((int) posicoes[i]);
+				leitor.proximaLinha();
+				buffer.escreve(bytes, leitor.inicioLinha(), leitor.fimLinha());
+				buffer.escreve(FIM_LINHA);
+				if (buffer.tamanho() >= TAMANHO_BUFFER) {
+					buffer.descarrega(saida);
+				}
+			}
+			buffer.descarrega(saida);
+		}
+		return arqCorrida;
+	}
+
+	/**
+	 * Intercala as corridas já ordenadas. Entre linhas de mesma chave, a da corrida anterior vem primeiro,
+	 * o que mantém a ordem da base.
+	 */
+	private static void intercala(String cabecalho, List<Path> arqsCorridas, Path arqSaida) throws IOException {
+		PriorityQueue<Corrida> heap = new PriorityQueue<>(Math.max(1, arqsCorridas.size()),
+				Comparator.comparingLong((Corrida corrida) -> corrida.chave).thenComparingInt(corrida -> corrida.indice));
+		for (int i = 0; i < arqsCorridas.size(); i++) {
+			Path arquivo = arqsCorridas.get(i);
+			Corrida corrida = new Corrida(i, new TrechoArquivo(arquivo, 0, Files.size(arquivo)).mapeia());
+			if (corrida.avanca()) {
+				heap.add(corrida);
+			}
+		}
+
+		try (FileChannel saida = FileChannel.open(arqSaida, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);) {
+			BufferSaida buffer = new BufferSaida(TAMANHO_BUFFER + TAMANHO_BUFFER / 8);
+			buffer.escreve((cabecalho + System.lineSeparator()).getBytes(StandardCharsets.ISO_8859_1));
+
+			while (!heap.isEmpty()) {
+				Corrida corrida = heap.poll();
+				buffer.escreve(corrida.bytes, corrida.leitor.inicioLinha(), corrida.leitor.fimLinha());
+				buffer.escreve(FIM_LINHA);
+				if (buffer.tamanho() >= TAMANHO_BUFFER) {
+					buffer.descarrega(saida);
+				}
+				if (corrida.avanca()) {
+					heap.add(corrida);
+				}
+			}
+			buffer.descarrega(saida);
+			saida.force(false);
+		}
+	}
+
+	private static long chave(ByteBuffer bytes, LeitorCSV leitor) {
+		long chave = ConjuntoCNPJ.chave(bytes, leitor.inicioLinha(), leitor.fimCampo(leitor.inicioLinha()));
+		return chave == ConjuntoCNPJ.CHAVE_INVALIDA ? CHAVE_ULTIMA : chave;
+	}
+
+	/**
+	 * Corrida ordenada sendo intercalada, posicionada na sua linha atual.
+	 */
+	private static final class Corrida {
+		private final int indice;
+		private final ByteBuffer bytes;
+		private final LeitorCSV leitor;
+		private long chave;
+
+		private Corrida(int indice, ByteBuffer bytes) {
+			this.indice = indice;
+			this.bytes = bytes;
+			this.leitor = new LeitorCSV(bytes);
+		}
+
+		private boolean avanca() {
+			if (!leitor.proximaLinha()) {
+				return false;
+			}
+			chave = OrdenaBaseCNPJ.chave(bytes, leitor);
+			return true;
+		}
+	}
+}
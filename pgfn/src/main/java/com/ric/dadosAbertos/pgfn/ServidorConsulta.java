@@ -0,0 +1,230 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servidor HTTP local de consultas por CPF/CNPJ no índice da base consolidada (ver {@link IndiceCNPJ}).
+ *
+ * O índice e a base ficam mapeados em memória enquanto o servidor estiver no ar, e cada consulta é
+ * apenas uma busca binária seguida da cópia das linhas encontradas. Os caminhos atendidos são:
+ * <ul>
+ * <li>{@code GET /consulta/<CPF/CNPJ>}: linhas de um CPF/CNPJ;</li>
+ * <li>{@code POST /consulta}: linhas dos CPFs/CNPJs do corpo da requisição, um por linha;</li>
+ * <li>{@code GET /estado}: base consultada e número de linhas indexadas.</li>
+ * </ul>
+ * As consultas respondem com o cabeçalho da base seguido das linhas encontradas, em ISO-8859-1, e com o
+ * número de CPFs/CNPJs encontrados no cabeçalho HTTP {@value #CABECALHO_ENCONTRADOS}.
+ *
+ * O arquivo de índice é verificado a cada {@value #INTERVALO_VERIFICACAO_MS} ms: quando uma nova versão
+ * das bases é baixada e indexada com -indexar, o novo índice passa a ser usado sem reiniciar o servidor.
+ * Enquanto a base estiver sendo regravada e o índice ainda não tiver sido recriado, as consultas
+ * respondem 503.
+ */
+public final class ServidorConsulta {
+	private static final long INTERVALO_VERIFICACAO_MS = 2000;
+	private static final int MAXIMO_CONSULTAS_LOTE = 100_000;
+	private static final String CABECALHO_ENCONTRADOS = "X-Encontrados";
+	private static final String TIPO_CSV = "text/csv; charset=ISO-8859-1";
+	private static final String CAMINHO_CONSULTA = "/consulta";
+	private static final String CAMINHO_ESTADO = "/estado";
+
+	private final Path arqBase;
+	private final Path arqIndice;
+	private final AtomicReference<IndiceCarregado> carregado = new AtomicReference<>();
+	private String ultimoErro;
+
+	public ServidorConsulta(Path arqBase) {
+		this.arqBase = arqBase;
+		this.arqIndice = IndiceCNPJ.arquivoIndice(arqBase);
+	}
+
+	/**
+	 * Abre o índice e passa a atender na porta informada do endereço local, com {@code threads} requisições
+	 * atendidas ao mesmo tempo. O servidor continua no ar depois do retorno, até o fim do processo.
+	 */
+	public void inicia(int porta, int threads) throws IOException {
+		IndiceCarregado inicial = new IndiceCarregado(IndiceCNPJ.abre(arqBase), modificacaoIndice());
+		carregado.set(inicial);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		HttpServer servidor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 0);
+		servidor.createContext(CAMINHO_CONSULTA, this::atendeConsulta);
+		servidor.createContext(CAMINHO_ESTADO, this::atendeEstado);
+		servidor.setExecutor(executor);
+
+		ScheduledExecutorService verificacao = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "verificacao-indice");
+			thread.setDaemon(true);
+			return thread;
+		});
+		verificacao.scheduleWithFixedDelay(this::verificaIndice, INTERVALO_VERIFICACAO_MS, INTERVALO_VERIFICACAO_MS, TimeUnit.MILLISECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			servidor.stop(0);
+			executor.shutdown();
+		}));
+		servidor.start();
+		System.out.println("Atendendo consultas em http://" + servidor.getAddress().getHostString() + ":" + servidor.getAddress().getPort()
+				+ CAMINHO_CONSULTA + " sobre " + arqBase + " (" + inicial.indice.tamanho() + " linhas indexadas)");
+	}
+
+	/**
+	 * Reabre o índice se o arquivo de índice foi substituído ou se a base deixou de corresponder ao índice aberto.
+	 * Se a reabertura falhar, o índice aberto continua em uso enquanto ainda corresponder à base.
+	 */
+	private void verificaIndice() {
+		IndiceCarregado atual = carregado.get();
+		FileTime modificacao;
+		try {
+			modificacao = modificacaoIndice();
+		} catch (IOException e) {
+			modificacao = null;
+		}
+		if (atual != null && atual.indice.atual() && Objects.equals(modificacao, atual.modificacaoIndice)) {
+			return;
+		}
+
+		try {
+			IndiceCarregado novo = new IndiceCarregado(IndiceCNPJ.abre(arqBase), modificacao);
+			carregado.set(novo);
+			ultimoErro = null;
+			System.out.println("Índice " + arqIndice + " recarregado (" + novo.indice.tamanho() + " linhas indexadas).");
+		} catch (IOException | RuntimeException e) {
+			if (atual != null && !atual.indice.atual()) {
+				carregado.set(null);
+			}
+			if (!Objects.equals(ultimoErro, e.getLocalizedMessage())) {
+				ultimoErro = e.getLocalizedMessage();
+				System.out.println("Erro ao recarregar o índice: " + ultimoErro);
+			}
+		}
+	}
+
+	private FileTime modificacaoIndice() throws IOException {
+		try {
+			return Files.getLastModifiedTime(arqIndice);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private void atendeConsulta(HttpExchange troca) throws IOException {
+		try {
+			List<String> cnpjs;
+			String caminho = troca.getRequestURI().getPath();
+			if ("GET".equals(troca.getRequestMethod()) && caminho.startsWith(CAMINHO_CONSULTA + "/")) {
+				cnpjs = List.of(caminho.substring(CAMINHO_CONSULTA.length() + 1));
+			} else if ("POST".equals(troca.getRequestMethod()) && caminho.equals(CAMINHO_CONSULTA)) {
+				cnpjs = leConsultas(troca);
+				if (cnpjs == null) {
+					responde(troca, 413, "Máximo de " + MAXIMO_CONSULTAS_LOTE + " CPFs/CNPJs por consulta.");
+					return;
+				}
+			} else {
+				responde(troca, 404, "Use GET " + CAMINHO_CONSULTA + "/<CPF/CNPJ> ou POST " + CAMINHO_CONSULTA + " com um CPF/CNPJ por linha.");
+				return;
+			}
+
+			IndiceCarregado atual = carregado.get();
+			if (atual == null) {
+				responde(troca, 503, "Base em atualização.");
+				return;
+			}
+
+			ByteArrayOutputStream resposta = new ByteArrayOutputStream(4096);
+			int encontrados;
+			try {
+				encontrados = atual.indice.consulta(cnpjs, Channels.newChannel(resposta));
+			} catch (InternalError e) {
+				//Acesso a um trecho da base mapeada que foi truncado por uma regravação em andamento
+				responde(troca, 503, "Base em atualização.");
+				return;
+			}
+
+			troca.getResponseHeaders().set("Content-Type", TIPO_CSV);
+			troca.getResponseHeaders().set(CABECALHO_ENCONTRADOS, Integer.toString(encontrados));
+			troca.sendResponseHeaders(200, resposta.size());
+			try (OutputStream corpo = troca.getResponseBody();) {
+				resposta.writeTo(corpo);
+			}
+		} finally {
+			troca.close();
+		}
+	}
+
+	private void atendeEstado(HttpExchange troca) throws IOException {
+		try {
+			IndiceCarregado atual = carregado.get();
+			if (atual == null) {
+				responde(troca, 503, "Base em atualização.");
+			} else {
+				responde(troca, 200, "base=" + arqBase + System.lineSeparator() + "linhas=" + atual.indice.tamanho()
+						+ System.lineSeparator() + "indice=" + atual.modificacaoIndice);
+			}
+		} finally {
+			troca.close();
+		}
+	}
+
+	//Retorna null se o corpo tiver mais CPFs/CNPJs que o máximo por consulta
+	private static List<String> leConsultas(HttpExchange troca) throws IOException {
+		List<String> cnpjs = new ArrayList<>();
+		try (BufferedReader corpo = new BufferedReader(new InputStreamReader(troca.getRequestBody(), StandardCharsets.ISO_8859_1));) {
+			String linha;
+			while ((linha = corpo.readLine()) != null) {
+				if (!linha.isBlank()) {
+					if (cnpjs.size() == MAXIMO_CONSULTAS_LOTE) {
+						return null;
+					}
+					cnpjs.add(linha);
+				}
+			}
+		}
+		return cnpjs;
+	}
+
+	private static void responde(HttpExchange troca, int status, String mensagem) throws IOException {
+		byte[] bytes = (mensagem + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+		troca.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		troca.sendResponseHeaders(status, bytes.length);
+		try (OutputStream corpo = troca.getResponseBody();) {
+			corpo.write(bytes);
+		}
+	}
+
+	/**
+	 * Índice aberto e a data de modificação do arquivo de índice quando foi aberto.
+	 */
+	private static final class IndiceCarregado {
+		private final IndiceCNPJ indice;
+		private final FileTime modificacaoIndice;
+
+		private IndiceCarregado(IndiceCNPJ indice, FileTime modificacaoIndice) {
+			this.indice = indice;
+			this.modificacaoIndice = modificacaoIndice;
+		}
+	}
+}
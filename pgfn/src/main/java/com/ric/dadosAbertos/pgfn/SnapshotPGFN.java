@@ -0,0 +1,739 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Snapshot compacto das três bases da PGFN, que pode ser filtrado no lugar dos arquivos CSV.
+ *
+ * As linhas de cada base ficam em blocos compactados independentes, de forma que os blocos podem ser
+ * lidos em paralelo. Dentro de um bloco, o CPF/CNPJ é gravado como a chave de {@link ConjuntoCNPJ}, a data
+ * de inscrição em dias desde 1970-01-01 e o valor consolidado em centavos; as colunas de poucos valores
+ * (tipo de pessoa, UF, situação etc.) são gravadas como códigos de um dicionário do bloco. Um campo só é
+ * convertido se a conversão reproduzir exatamente o texto original; caso contrário, é gravado como texto.
+ * Assim, as linhas lidas do snapshot são idênticas às dos arquivos CSV, e a filtragem por CPF/CNPJ
+ * descarta as linhas não procuradas sem decodificá-las.
+ *
+ * O arquivo começa por uma assinatura e termina com um rodapé com o cabeçalho original de cada base
+ * e a posição, a base e o número de linhas de cada bloco, seguido da posição do rodapé e da assinatura.
+ */
+final class SnapshotPGFN {
+	private static final long ASSINATURA = 0x5047464e534e5031L; //"PGFNSNP1"
+	//Tamanho aproximado de um bloco antes da compactação
+	private static final int TAMANHO_BLOCO = 4 * 1024 * 1024;
+	private static final int TAMANHO_FINAL = 2 * Long.BYTES;
+
+	//Colunas da base consolidada com codificação própria; as demais usam dicionário
+	private static final int COLUNA_NOME = 3;
+	private static final int COLUNA_INSCRICAO = 8;
+	private static final int COLUNA_DATA = 13;
+	private static final int COLUNA_VALOR = 15;
+
+	private static final byte TIPO_CHAVE = 0;
+	private static final byte TIPO_TEXTO = 1;
+	private static final byte TIPO_DICIONARIO = 2;
+	private static final byte TIPO_DATA = 3;
+	private static final byte TIPO_VALOR = 4;
+
+	//Marca de campo gravado como texto, nas colunas convertidas
+	private static final int TEXTO_ORIGINAL = 0;
+
+	private SnapshotPGFN() {
+	}
+
+	/**
+	 * Tipo de codificação de cada coluna da base individual, sem a coluna ARQUIVO_ORIGEM.
+	 */
+	private static byte[] tipos(TipoBase base) {
+		byte[] tipos = new byte[base.getColunas() - 1];
+		for (int coluna = 0; coluna < TipoBase.COLUNAS_CONSOLIDADAS; coluna++) {
+			int campo = base.colunaIndividual(coluna);
+			if (campo < 0 || campo >= tipos.length) {
+				continue;
+			}
+			if (coluna == 0) {
+				tipos[campo] = TIPO_CHAVE;
+			} else if (coluna == COLUNA_NOME || coluna == COLUNA_INSCRICAO) {
+				tipos[campo] = TIPO_TEXTO;
+			} else if (coluna == COLUNA_DATA) {
+				tipos[campo] = TIPO_DATA;
+			} else if (coluna == COLUNA_VALOR) {
+				tipos[campo] = TIPO_VALOR;
+			} else {
+				tipos[campo] = TIPO_DICIONARIO;
+			}
+		}
+		return tipos;
+	}
+
+	/**
+	 * Codifica e compacta as linhas de um trecho de arquivo CSV da base, sem o cabeçalho, em um ou mais blocos.
+	 */
+	static List<Bloco> codifica(ByteBuffer trecho, TipoBase base) {
+		byte[] tipos = tipos(base);
+		if (tipos[0] != TIPO_CHAVE) {
+			throw new IllegalStateException("A primeira coluna da base " + base.getDescricao() + " deve ser o CPF/CNPJ.");
+		}
+
+		List<Bloco> blocos = new ArrayList<>();
+		LeitorCSV leitor = new LeitorCSV(trecho);
+		int[] inicios = new int[tipos.length];
+		int[] fins = new int[tipos.length];
+		BufferSaida chaves = new BufferSaida(TAMANHO_BLOCO / 16);
+		BufferSaida linhas = new BufferSaida(TAMANHO_BLOCO + TAMANHO_BLOCO / 8);
+		BufferSaida linha = new BufferSaida(1024);
+		BufferSaida formatado = new BufferSaida(64);
+		Dicionario[] dicionarios = new Dicionario[tipos.length];
+		int quantidade = 0;
+
+		while (leitor.proximaLinha()) {
+			if (leitor.linhaVazia()) {
+				continue;
+			}
+			if (leitor.separaCampos(inicios, fins) != tipos.length) {
+				throw new RuntimeException("Formato do arquivo " + base.getDescricao() + " diferente do esperado.");
+			}
+
+			long chave = ConjuntoCNPJ.chave(trecho, inicios[0], fins[0]);
+			formatado.limpa();
+			if (chave != ConjuntoCNPJ.CHAVE_INVALIDA && iguais(trecho, inicios[0], fins[0], escreveChave(formatado, chave))) {
+				chaves.escreve(TIPO_CHAVE);
+				escreveNumero(chaves, chave);
+			} else {
+				chaves.escreve(TIPO_TEXTO);
+				escreveTexto(chaves, trecho, inicios[0], fins[0]);
+			}
+
+			linha.limpa();
+			for (int campo = 1; campo < tipos.length; campo++) {
+				int inicio = inicios[campo];
+				int fim = fins[campo];
+				switch (tipos[campo]) {
+				case TIPO_DICIONARIO:
+					if (dicionarios[campo] == null) {
+						dicionarios[campo] = new Dicionario();
+					}
+					escreveNumero(linha, dicionarios[campo].codigo(trecho, inicio, fim));
+					break;
+				case TIPO_DATA:
+					formatado.limpa();
+					long dia = diaData(trecho, inicio, fim);
+					escreveConvertido(linha, trecho, inicio, fim, dia, dia != Long.MIN_VALUE && iguais(trecho, inicio, fim, escreveData(formatado, dia)));
+					break;
+				case TIPO_VALOR:
+					formatado.limpa();
+					long centavos = centavos(trecho, inicio, fim);
+					escreveConvertido(linha, trecho, inicio, fim, centavos, centavos != Long.MIN_VALUE && iguais(trecho, inicio, fim, escreveCentavos(formatado, centavos)));
+					break;
+				default:
+					escreveTexto(linha, trecho, inicio, fim);
+				}
+			}
+			//O tamanho à frente permite pular as linhas de CPF/CNPJ não procurado
+			escreveNumero(linhas, linha.tamanho());
+			linhas.escreve(linha);
+			quantidade++;
+
+			if (linhas.tamanho() >= TAMANHO_BLOCO) {
+				blocos.add(fechaBloco(base, quantidade, chaves, dicionarios, linhas));
+				dicionarios = new Dicionario[tipos.length];
+				chaves.limpa();
+				linhas.limpa();
+				quantidade = 0;
+			}
+		}
+		if (quantidade > 0) {
+			blocos.add(fechaBloco(base, quantidade, chaves, dicionarios, linhas));
+		}
+		return blocos;
+	}
+
+	//Compacta separadamente as chaves e o restante das linhas, precedido dos dicionários
+	private static Bloco fechaBloco(TipoBase base, int quantidade, BufferSaida chaves, Dicionario[] dicionarios, BufferSaida linhas) {
+		BufferSaida conteudo = new BufferSaida(linhas.tamanho() + 4096);
+		for (Dicionario dicionario : dicionarios) {
+			int tamanho = dicionario == null ? 0 : dicionario.tamanho();
+			escreveNumero(conteudo, tamanho);
+			for (int codigo = 0; codigo < tamanho; codigo++) {
+				byte[] valor = dicionario.valor(codigo);
+				escreveNumero(conteudo, valor.length);
+				conteudo.escreve(valor);
+			}
+		}
+		conteudo.escreve(linhas);
+
+		BufferSaida compactado = new BufferSaida(conteudo.tamanho() / 4 + chaves.tamanho());
+		compacta(chaves.conteudo(), compactado);
+		int tamanhoChavesCompactadas = compactado.tamanho();
+		compacta(conteudo.conteudo(), compactado);
+
+		ByteBuffer dados = compactado.conteudo();
+		byte[] bytes = new byte[dados.remaining()];
+		dados.get(bytes);
+		return new Bloco(base, quantidade, -1, tamanhoChavesCompactadas, chaves.tamanho(), bytes.length - tamanhoChavesCompactadas, conteudo.tamanho(), bytes);
+	}
+
+	private static void compacta(ByteBuffer original, BufferSaida saida) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(original.array(), original.arrayOffset(), original.remaining());
+			deflater.finish();
+			byte[] parte = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				saida.escreve(ByteBuffer.wrap(parte), 0, deflater.deflate(parte));
+			}
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Chave de cada linha do bloco. A chave gravada como texto é recalculada,
+	 * porque o texto pode representar um CPF/CNPJ sem a máscara usual.
+	 */
+	private static long[] leChaves(byte[] chaves, int quantidade) {
+		long[] lidas = new long[quantidade];
+		Leitura leitura = new Leitura(chaves);
+		ByteBuffer bytes = ByteBuffer.wrap(chaves);
+		for (int linha = 0; linha < quantidade; linha++) {
+			if (leitura.proximoByte() == TIPO_CHAVE) {
+				lidas[linha] = leitura.numero();
+			} else {
+				int tamanho = (int) leitura.numero();
+				lidas[linha] = ConjuntoCNPJ.chave(bytes, leitura.posicao, leitura.posicao + tamanho);
+				leitura.pula(tamanho);
+			}
+		}
+		return lidas;
+	}
+
+	/**
+	 * Linhas do bloco no formato CSV da base individual, sem a coluna ARQUIVO_ORIGEM.
+	 * Se as listas filtrarem CPFs/CNPJs, só as linhas de CPF/CNPJ em alguma lista são decodificadas.
+	 */
+	private static ByteBuffer decodifica(byte[] chaves, byte[] dados, int quantidade, TipoBase base, ListasCNPJ listas) {
+		byte[] tipos = tipos(base);
+		boolean filtra = listas.filtra();
+		Leitura leituraChaves = new Leitura(chaves);
+		ByteBuffer bytesChaves = ByteBuffer.wrap(chaves);
+		Leitura leitura = new Leitura(dados);
+		ByteBuffer bytes = ByteBuffer.wrap(dados);
+
+		byte[][][] dicionarios = new byte[tipos.length][][];
+		for (int campo = 0; campo < tipos.length; campo++) {
+			dicionarios[campo] = new byte[(int) leitura.numero()][];
+			for (int codigo = 0; codigo < dicionarios[campo].length; codigo++) {
+				dicionarios[campo][codigo] = leitura.bytes((int) leitura.numero());
+			}
+		}
+
+		BufferSaida csv = new BufferSaida(filtra ? 64 * 1024 : 2 * dados.length);
+		for (int linha = 0; linha < quantidade; linha++) {
+			byte tipoChave = leituraChaves.proximoByte();
+			long chave;
+			int inicioChave = 0;
+			int fimChave = 0;
+			if (tipoChave == TIPO_CHAVE) {
+				chave = leituraChaves.numero();
+			} else {
+				int tamanho = (int) leituraChaves.numero();
+				inicioChave = leituraChaves.posicao;
+				leituraChaves.pula(tamanho);
+				fimChave = leituraChaves.posicao;
+				chave = ConjuntoCNPJ.chave(bytesChaves, inicioChave, fimChave);
+			}
+
+			int tamanhoLinha = (int) leitura.numero();
+			if (filtra && listas.listas(chave) == null) {
+				leitura.pula(tamanhoLinha);
+				continue;
+			}
+
+			if (tipoChave == TIPO_CHAVE) {
+				escreveChave(csv, chave);
+			} else {
+				csv.escreve(bytesChaves, inicioChave, fimChave);
+			}
+			for (int campo = 1; campo < tipos.length; campo++) {
+				csv.escreve((byte) ';');
+				switch (tipos[campo]) {
+				case TIPO_DICIONARIO:
+					csv.escreve(dicionarios[campo][(int) leitura.numero()]);
+					break;
+				case TIPO_DATA:
+				case TIPO_VALOR:
+					long valor = leitura.numero();
+					if (valor == TEXTO_ORIGINAL) {
+						leitura.copiaTexto(csv, bytes);
+					} else if (tipos[campo] == TIPO_DATA) {
+						escreveData(csv, decodificaSinal(valor - 1));
+					} else {
+						escreveCentavos(csv, decodificaSinal(valor - 1));
+					}
+					break;
+				default:
+					leitura.copiaTexto(csv, bytes);
+				}
+			}
+			csv.escreve((byte) '\n');
+		}
+		return csv.conteudo();
+	}
+
+	private static void escreveConvertido(BufferSaida saida, ByteBuffer bytes, int inicio, int fim, long valor, boolean convertido) {
+		if (convertido) {
+			escreveNumero(saida, codificaSinal(valor) + 1);
+		} else {
+			escreveNumero(saida, TEXTO_ORIGINAL);
+			escreveTexto(saida, bytes, inicio, fim);
+		}
+	}
+
+	private static void escreveTexto(BufferSaida saida, ByteBuffer bytes, int inicio, int fim) {
+		escreveNumero(saida, fim - inicio);
+		saida.escreve(bytes, inicio, fim);
+	}
+
+	/**
+	 * Número não negativo em 7 bits por byte, com o bit mais alto indicando que há mais bytes.
+	 */
+	private static void escreveNumero(BufferSaida saida, long numero) {
+		while ((numero & ~0x7FL) != 0) {
+			saida.escreve((byte) ((numero & 0x7F) | 0x80));
+			numero >>>= 7;
+		}
+		saida.escreve((byte) numero);
+	}
+
+	//Leva números negativos pequenos a números positivos pequenos, que ocupam poucos bytes
+	private static long codificaSinal(long valor) {
+		return (valor << 1) ^ (valor >> 63);
+	}
+
+	private static long decodificaSinal(long valor) {
+		return (valor >>> 1) ^ -(valor & 1);
+	}
+
+	/**
+	 * Escreve o CPF/CNPJ da chave com a mesma máscara de {@link ConjuntoCNPJ#formata(long)}.
+	 */
+	private static BufferSaida escreveChave(BufferSaida saida, long chave) {
+		int digitos = ConjuntoCNPJ.digitos(chave);
+		long valor = ConjuntoCNPJ.numero(chave);
+		if (digitos == ConjuntoCNPJ.CPF_MASCARADO) {
+			saida.escreve(ConjuntoCNPJ.formata(chave).getBytes(StandardCharsets.ISO_8859_1));
+			return saida;
+		}
+
+		byte[] numero = new byte[digitos];
+		for (int i = digitos - 1; i >= 0; i--) {
+			numero[i] = (byte) ('0' + valor % 10);
+			valor /= 10;
+		}
+
+		for (int i = 0; i < digitos; i++) {
+			if (digitos == 14 && (i == 2 || i == 5)) {
+				saida.escreve((byte) '.');
+			} else if (digitos == 14 && i == 8) {
+				saida.escreve((byte) '/');
+			} else if (digitos == 14 && i == 12) {
+				saida.escreve((byte) '-');
+			} else if (digitos == 11 && (i == 3 || i == 6)) {
+				saida.escreve((byte) '.');
+			} else if (digitos == 11 && i == 9) {
+				saida.escreve((byte) '-');
+			}
+			saida.escreve(numero[i]);
+		}
+		return saida;
+	}
+
+	/**
+	 * Dias desde 1970-01-01 da data no formato dd/MM/aaaa, ou {@link Long#MIN_VALUE} se não for uma data nesse formato.
+	 */
+	private static long diaData(ByteBuffer bytes, int inicio, int fim) {
+		if (fim - inicio != 10 || bytes.get(inicio + 2) != '/' || bytes.get(inicio + 5) != '/') {
+			return Long.MIN_VALUE;
+		}
+		int dia = digitos(bytes, inicio, inicio + 2);
+		int mes = digitos(bytes, inicio + 3, inicio + 5);
+		int ano = digitos(bytes, inicio + 6, inicio + 10);
+		if (dia < 0 || mes < 0 || ano < 0) {
+			return Long.MIN_VALUE;
+		}
+		try {
+			return LocalDate.of(ano, mes, dia).toEpochDay();
+		} catch (DateTimeException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	private static BufferSaida escreveData(BufferSaida saida, long diaData) {
+		LocalDate data = LocalDate.ofEpochDay(diaData);
+		escreveDigitos(saida, data.getDayOfMonth(), 2);
+		saida.escreve((byte) '/');
+		escreveDigitos(saida, data.getMonthValue(), 2);
+		saida.escreve((byte) '/');
+		escreveDigitos(saida, data.getYear(), 4);
+		return saida;
+	}
+
+	/**
+	 * Valor em centavos de um número com até duas casas decimais separadas por '.', ou {@link Long#MIN_VALUE} se o texto tiver outro formato.
+	 */
+	private static long centavos(ByteBuffer bytes, int inicio, int fim) {
+		int i = inicio;
+		boolean negativo = i < fim && bytes.get(i) == '-';
+		if (negativo) {
+			i++;
+		}
+		long inteiro = 0;
+		int digitos = 0;
+		for (; i < fim && bytes.get(i) != '.'; i++) {
+			byte c = bytes.get(i);
+			if (c < '0' || c > '9' || ++digitos > 16) {
+				return Long.MIN_VALUE;
+			}
+			inteiro = inteiro * 10 + (c - '0');
+		}
+		long fracao = 0;
+		int casas = 0;
+		for (i++; i < fim; i++) {
+			byte c = bytes.get(i);
+			if (c < '0' || c > '9' || ++casas > 2) {
+				return Long.MIN_VALUE;
+			}
+			fracao = fracao * 10 + (c - '0');
+		}
+		long valor = inteiro * 100 + (casas == 1 ? 10 * fracao : fracao);
+		return negativo ? -valor : valor;
+	}
+
+	private static BufferSaida escreveCentavos(BufferSaida saida, long centavos) {
+		saida.escreve(Agregacao.formataCentavos(centavos).getBytes(StandardCharsets.ISO_8859_1));
+		return saida;
+	}
+
+	private static int digitos(ByteBuffer bytes, int inicio, int fim) {
+		int valor = 0;
+		for (int i = inicio; i < fim; i++) {
+			byte c = bytes.get(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			valor = valor * 10 + (c - '0');
+		}
+		return valor;
+	}
+
+	private static void escreveDigitos(BufferSaida saida, int valor, int quantidade) {
+		byte[] digitos = new byte[quantidade];
+		for (int i = quantidade - 1; i >= 0; i--) {
+			digitos[i] = (byte) ('0' + valor % 10);
+			valor /= 10;
+		}
+		saida.escreve(digitos);
+	}
+
+	private static boolean iguais(ByteBuffer bytes, int inicio, int fim, BufferSaida formatado) {
+		ByteBuffer conteudo = formatado.conteudo();
+		if (conteudo.remaining() != fim - inicio) {
+			return false;
+		}
+		for (int i = 0; i < fim - inicio; i++) {
+			if (conteudo.get(i) != bytes.get(inicio + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Bloco compactado de linhas de uma base e sua posição no arquivo.
+	 * As chaves das linhas são compactadas à parte, antes do restante das linhas, para que os blocos
+	 * sem nenhum CPF/CNPJ procurado sejam descartados sem que o restante seja lido.
+	 */
+	static final class Bloco {
+		private final TipoBase base;
+		private final int linhas;
+		private long posicao;
+		private final int tamanhoChavesCompactadas;
+		private final int tamanhoChaves;
+		private final int tamanhoLinhasCompactadas;
+		private final int tamanhoLinhas;
+		//Bytes compactados, só mantidos até o bloco ser gravado
+		private byte[] dados;
+
+		private Bloco(TipoBase base, int linhas, long posicao, int tamanhoChavesCompactadas, int tamanhoChaves,
+				int tamanhoLinhasCompactadas, int tamanhoLinhas, byte[] dados) {
+			this.base = base;
+			this.linhas = linhas;
+			this.posicao = posicao;
+			this.tamanhoChavesCompactadas = tamanhoChavesCompactadas;
+			this.tamanhoChaves = tamanhoChaves;
+			this.tamanhoLinhasCompactadas = tamanhoLinhasCompactadas;
+			this.tamanhoLinhas = tamanhoLinhas;
+			this.dados = dados;
+		}
+	}
+
+	/**
+	 * Grava os blocos na ordem em que são recebidos e, ao final, o rodapé.
+	 */
+	static final class Escritor implements Closeable {
+		private final FileChannel canal;
+		private final Map<TipoBase, String> cabecalhos = new EnumMap<>(TipoBase.class);
+		private final List<Bloco> blocos = new ArrayList<>();
+		private long posicao;
+
+		Escritor(Path arquivo) throws IOException {
+			canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			posicao = grava(ByteBuffer.allocate(Long.BYTES).putLong(ASSINATURA).flip());
+		}
+
+		/**
+		 * Cabeçalho original dos arquivos CSV da base, sem a coluna ARQUIVO_ORIGEM.
+		 */
+		void cabecalho(TipoBase base, String cabecalho) {
+			cabecalhos.put(base, cabecalho);
+		}
+
+		void escreve(List<Bloco> novos) throws IOException {
+			for (Bloco bloco : novos) {
+				bloco.posicao = posicao;
+				posicao += grava(ByteBuffer.wrap(bloco.dados));
+				bloco.dados = null;
+				blocos.add(bloco);
+			}
+		}
+
+		void finaliza() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream rodape = new DataOutputStream(bytes);) {
+				rodape.writeInt(cabecalhos.size());
+				for (Map.Entry<TipoBase, String> cabecalho : cabecalhos.entrySet()) {
+					byte[] texto = cabecalho.getValue().getBytes(StandardCharsets.ISO_8859_1);
+					rodape.writeByte(cabecalho.getKey().ordinal());
+					rodape.writeInt(texto.length);
+					rodape.write(texto);
+				}
+				rodape.writeInt(blocos.size());
+				for (Bloco bloco : blocos) {
+					rodape.writeByte(bloco.base.ordinal());
+					rodape.writeInt(bloco.linhas);
+					rodape.writeLong(bloco.posicao);
+					rodape.writeInt(bloco.tamanhoChavesCompactadas);
+					rodape.writeInt(bloco.tamanhoChaves);
+					rodape.writeInt(bloco.tamanhoLinhasCompactadas);
+					rodape.writeInt(bloco.tamanhoLinhas);
+				}
+				rodape.writeLong(posicao);
+				rodape.writeLong(ASSINATURA);
+			}
+			grava(ByteBuffer.wrap(bytes.toByteArray()));
+			canal.force(false);
+		}
+
+		long linhas() {
+			return blocos.stream().mapToLong(bloco -> bloco.linhas).sum();
+		}
+
+		private long grava(ByteBuffer bytes) throws IOException {
+			long tamanho = bytes.remaining();
+			while (bytes.hasRemaining()) {
+				canal.write(bytes);
+			}
+			return tamanho;
+		}
+
+		@Override
+		public void close() throws IOException {
+			canal.close();
+		}
+	}
+
+	/**
+	 * Snapshot aberto para leitura, cujos blocos podem ser lidos por várias threads ao mesmo tempo.
+	 */
+	static final class Leitor implements Closeable {
+		private final Path arquivo;
+		private final FileChannel canal;
+		private final Map<TipoBase, String> cabecalhos = new EnumMap<>(TipoBase.class);
+		private final List<Bloco> blocos = new ArrayList<>();
+
+		private Leitor(Path arquivo, FileChannel canal) {
+			this.arquivo = arquivo;
+			this.canal = canal;
+		}
+
+		static Leitor abre(Path arquivo) throws IOException {
+			FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ);
+			try {
+				Leitor leitor = new Leitor(arquivo, canal);
+				leitor.leRodape();
+				return leitor;
+			} catch (IOException | RuntimeException e) {
+				canal.close();
+				throw e;
+			}
+		}
+
+		private void leRodape() throws IOException {
+			long tamanho = canal.size();
+			if (tamanho < Long.BYTES + TAMANHO_FINAL || le(0, Long.BYTES).getLong() != ASSINATURA) {
+				throw new IOException("Arquivo " + arquivo + " não é um snapshot válido.");
+			}
+			ByteBuffer fim = le(tamanho - TAMANHO_FINAL, TAMANHO_FINAL);
+			long posicaoRodape = fim.getLong();
+			if (fim.getLong() != ASSINATURA || posicaoRodape < Long.BYTES || posicaoRodape > tamanho - TAMANHO_FINAL) {
+				throw new IOException("Snapshot " + arquivo + " incompleto.");
+			}
+
+			ByteBuffer bytes = le(posicaoRodape, (int) (tamanho - TAMANHO_FINAL - posicaoRodape));
+			try (DataInputStream rodape = new DataInputStream(new ByteArrayInputStream(bytes.array()));) {
+				TipoBase[] bases = TipoBase.values();
+				int quantidade = rodape.readInt();
+				for (int i = 0; i < quantidade; i++) {
+					TipoBase base = bases[rodape.readByte()];
+					byte[] texto = new byte[rodape.readInt()];
+					rodape.readFully(texto);
+					cabecalhos.put(base, new String(texto, StandardCharsets.ISO_8859_1));
+				}
+				quantidade = rodape.readInt();
+				for (int i = 0; i < quantidade; i++) {
+					blocos.add(new Bloco(bases[rodape.readByte()], rodape.readInt(), rodape.readLong(), rodape.readInt(), rodape.readInt(), rodape.readInt(), rodape.readInt(), null));
+				}
+			}
+		}
+
+		/**
+		 * Cabeçalho original dos arquivos CSV da base, sem a coluna ARQUIVO_ORIGEM.
+		 */
+		String cabecalho(TipoBase base) throws IOException {
+			String cabecalho = cabecalhos.get(base);
+			if (cabecalho == null) {
+				throw new IOException("O snapshot " + arquivo + " não contém a base " + base.getDescricao() + ".");
+			}
+			return cabecalho;
+		}
+
+		List<Bloco> blocos(TipoBase base) {
+			return Collections.unmodifiableList(blocos.stream().filter(bloco -> bloco.base == base).collect(Collectors.toList()));
+		}
+
+		long linhas(TipoBase base) {
+			return blocos(base).stream().mapToLong(bloco -> bloco.linhas).sum();
+		}
+
+		/**
+		 * Lê e descompacta o bloco, decodificando as linhas dos CPFs/CNPJs das listas.
+		 * Se as listas filtrarem e nenhum CPF/CNPJ do bloco estiver nelas, só as chaves são lidas.
+		 */
+		ByteBuffer decodifica(Bloco bloco, ListasCNPJ listas) throws IOException {
+			byte[] chaves = descompacta(bloco, bloco.posicao, bloco.tamanhoChavesCompactadas, bloco.tamanhoChaves);
+			if (listas.filtra() && Arrays.stream(leChaves(chaves, bloco.linhas)).noneMatch(chave -> listas.listas(chave) != null)) {
+				return ByteBuffer.allocate(0);
+			}
+			byte[] linhas = descompacta(bloco, bloco.posicao + bloco.tamanhoChavesCompactadas, bloco.tamanhoLinhasCompactadas, bloco.tamanhoLinhas);
+			return SnapshotPGFN.decodifica(chaves, linhas, bloco.linhas, bloco.base, listas);
+		}
+
+		private byte[] descompacta(Bloco bloco, long posicao, int tamanhoCompactado, int tamanho) throws IOException {
+			ByteBuffer compactado = le(posicao, tamanhoCompactado);
+			byte[] original = new byte[tamanho];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(compactado.array(), 0, tamanhoCompactado);
+				if (inflater.inflate(original) != tamanho || !inflater.finished()) {
+					throw new IOException("Bloco do snapshot " + arquivo + " na posição " + bloco.posicao + " corrompido.");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Bloco do snapshot " + arquivo + " na posição " + bloco.posicao + " corrompido.", e);
+			} finally {
+				inflater.end();
+			}
+			return original;
+		}
+
+		private ByteBuffer le(long posicao, int tamanho) throws IOException {
+			ByteBuffer bytes = ByteBuffer.allocate(tamanho);
+			while (bytes.hasRemaining()) {
+				if (canal.read(bytes, posicao + bytes.position()) < 0) {
+					throw new IOException("Snapshot " + arquivo + " incompleto.");
+				}
+			}
+			return bytes.flip();
+		}
+
+		@Override
+		public void close() throws IOException {
+			canal.close();
+		}
+	}
+
+	/**
+	 * Posição de leitura no conteúdo descompactado de um bloco.
+	 */
+	private static final class Leitura {
+		private final byte[] dados;
+		private int posicao;
+
+		private Leitura(byte[] dados) {
+			this.dados = dados;
+		}
+
+		private long numero() {
+			long numero = 0;
+			for (int deslocamento = 0; ; deslocamento += 7) {
+				byte b = dados[posicao++];
+				numero |= (long) (b & 0x7F) << deslocamento;
+				if (b >= 0) {
+					return numero;
+				}
+			}
+		}
+
+		private byte[] bytes(int tamanho) {
+			byte[] bytes = new byte[tamanho];
+			System.arraycopy(dados, posicao, bytes, 0, tamanho);
+			posicao += tamanho;
+			return bytes;
+		}
+
+		private byte proximoByte() {
+			return dados[posicao++];
+		}
+
+		private void pula(int tamanho) {
+			posicao += tamanho;
+		}
+
+		//Copia um texto gravado com seu tamanho à frente
+		private void copiaTexto(BufferSaida saida, ByteBuffer bytes) {
+			int tamanho = (int) numero();
+			saida.escreve(bytes, posicao, posicao + tamanho);
+			posicao += tamanho;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bases disponibilizadas pela PGFN e a correspondência entre as colunas de cada uma
+ * e as colunas da base consolidada.
+ */
+public enum TipoBase {
+	//FGTS não tem a coluna 'TIPO_CREDITO'
+	FGTS("FGTS", "FGTS", "fgts.csv", 16, new int[] {
+			0, //CPF_CNPJ
+			1, //TIPO_PESSOA
+			2, //TIPO_DEVEDOR
+			3, //NOME_DEVEDOR
+			4, //UF_UNIDADE_RESPONSAVEL
+			5, //UNIDADE_RESPONSAVEL
+			6, //ENTIDADE_RESPONSAVEL
+			7, //UNIDADE_INSCRICAO
+			8, //NUMERO_INSCRICAO
+			9, //TIPO_SITUACAO_INSCRICAO
+			10, //SITUACAO_INSCRICAO
+			11, //RECEITA_PRINCIPAL
+			-1, //TIPO_CREDITO
+			12, //DATA_INSCRICAO
+			13, //INDICADOR_AJUIZADO
+			14, //VALOR_CONSOLIDADO
+			15, //ARQUIVO_ORIGEM
+	}),
+	//Previdenciário não tem as colunas 'ENTIDADE_RESPONSAVEL', 'UNIDADE_INSCRICAO' e 'TIPO_CREDITO'
+	PREVIDENCIARIO("PREVIDENCIARIO", "previdenciário", "previdenciario.csv", 14, new int[] {
+			0, //CPF_CNPJ
+			1, //TIPO_PESSOA
+			2, //TIPO_DEVEDOR
+			3, //NOME_DEVEDOR
+			4, //UF_UNIDADE_RESPONSAVEL
+			5, //UNIDADE_RESPONSAVEL
+			-1, //ENTIDADE_RESPONSAVEL
+			-1, //UNIDADE_INSCRICAO
+			6, //NUMERO_INSCRICAO
+			7, //TIPO_SITUACAO_INSCRICAO
+			8, //SITUACAO_INSCRICAO
+			9, //RECEITA_PRINCIPAL
+			-1, //TIPO_CREDITO
+			10, //DATA_INSCRICAO
+			11, //INDICADOR_AJUIZADO
+			12, //VALOR_CONSOLIDADO
+			13, //ARQUIVO_ORIGEM
+	}),
+	//Não previdenciário não tem as colunas 'ENTIDADE_RESPONSAVEL', 'UNIDADE_INSCRICAO' e 'RECEITA_PRINCIPAL'
+	NAO_PREVIDENCIARIO("NAO_PREVIDENCIARIO", "não previdenciário", "nao_previdenciario.csv", 14, new int[] {
+			0, //CPF_CNPJ
+			1, //TIPO_PESSOA
+			2, //TIPO_DEVEDOR
+			3, //NOME_DEVEDOR
+			4, //UF_UNIDADE_RESPONSAVEL
+			5, //UNIDADE_RESPONSAVEL
+			-1, //ENTIDADE_RESPONSAVEL
+			-1, //UNIDADE_INSCRICAO
+			6, //NUMERO_INSCRICAO
+			7, //TIPO_SITUACAO_INSCRICAO
+			8, //SITUACAO_INSCRICAO
+			-1, //RECEITA_PRINCIPAL
+			9, //TIPO_CREDITO
+			10, //DATA_INSCRICAO
+			11, //INDICADOR_AJUIZADO
+			12, //VALOR_CONSOLIDADO
+			13, //ARQUIVO_ORIGEM
+	});
+
+	public static final String CABECALHO_CONSOLIDADO = "CPF_CNPJ;TIPO_PESSOA;TIPO_DEVEDOR;NOME_DEVEDOR;UF_UNIDADE_RESPONSAVEL;UNIDADE_RESPONSAVEL;ENTIDADE_RESPONSAVEL;UNIDADE_INSCRICAO;NUMERO_INSCRICAO;TIPO_SITUACAO_INSCRICAO;SITUACAO_INSCRICAO;RECEITA_PRINCIPAL;TIPO_CREDITO;DATA_INSCRICAO;INDICADOR_AJUIZADO;VALOR_CONSOLIDADO;ARQUIVO_ORIGEM";
+	public static final int COLUNAS_CONSOLIDADAS = 17;
+
+	private final String arquivoOrigem;
+	private final String descricao;
+	private final String nomeArquivo;
+	private final byte[] arquivoOrigemBytes;
+	private final int colunas;
+	private final int[] colunasConsolidadas;
+
+	private TipoBase(String arquivoOrigem, String descricao, String nomeArquivo, int colunas, int[] colunasConsolidadas) {
+		this.arquivoOrigem = arquivoOrigem;
+		this.descricao = descricao;
+		this.nomeArquivo = nomeArquivo;
+		this.arquivoOrigemBytes = arquivoOrigem.getBytes(StandardCharsets.ISO_8859_1);
+		this.colunas = colunas;
+		this.colunasConsolidadas = colunasConsolidadas;
+	}
+
+	/**
+	 * Valor da coluna ARQUIVO_ORIGEM das linhas desta base.
+	 */
+	public String getArquivoOrigem() {
+		return arquivoOrigem;
+	}
+
+	/**
+	 * Nome da base usado nas mensagens.
+	 */
+	public String getDescricao() {
+		return descricao;
+	}
+
+	/**
+	 * Nome do arquivo de saída com as linhas filtradas desta base.
+	 */
+	public String getNomeArquivo() {
+		return nomeArquivo;
+	}
+
+	byte[] getArquivoOrigemBytes() {
+		return arquivoOrigemBytes;
+	}
+
+	/**
+	 * Número de colunas da base individual, incluindo ARQUIVO_ORIGEM.
+	 */
+	public int getColunas() {
+		return colunas;
+	}
+
+	/**
+	 * Índice, na base individual, da coluna consolidada informada, ou -1 se a base não tiver essa coluna.
+	 */
+	int colunaIndividual(int colunaConsolidada) {
+		return colunasConsolidadas[colunaConsolidada];
+	}
+}
@@ -0,0 +1,112 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.util.Arrays;
+
+/**
+ * Soma de valores em centavos e contagem de linhas por chave {@code long} não negativa,
+ * em uma tabela hash de endereçamento aberto sobre vetores primitivos, como a de {@link ConjuntoCNPJ}.
+ */
+final class TotaisPorChave {
+	private static final long VAZIA = -1;
+	private static final int CAPACIDADE_INICIAL = 64;
+
+	private long[] chaves;
+	private long[] somas;
+	private long[] linhas;
+	private int mascara;
+	private int tamanho;
+
+	@FunctionalInterface
+	interface Visitante {
+		void visita(long chave, long soma, long linhas);
+	}
+
+	TotaisPorChave() {
+		aloca(CAPACIDADE_INICIAL);
+	}
+
+	int tamanho() {
+		return tamanho;
+	}
+
+	void adiciona(long chave, long valor) {
+		adiciona(chave, valor, 1);
+	}
+
+	void adiciona(long chave, long valor, long quantidade) {
+		int i = posicao(chave);
+		if (chaves[i] == VAZIA) {
+			chaves[i] = chave;
+			//Mantém a ocupação da tabela abaixo de 3/4
+			if (++tamanho > (mascara + 1) / 4 * 3) {
+				redimensiona();
+				i = posicao(chave);
+			}
+		}
+		somas[i] += valor;
+		linhas[i] += quantidade;
+	}
+
+	void paraCada(Visitante visitante) {
+		for (int i = 0; i < chaves.length; i++) {
+			if (chaves[i] != VAZIA) {
+				visitante.visita(chaves[i], somas[i], linhas[i]);
+			}
+		}
+	}
+
+	/**
+	 * Visita as chaves em ordem crescente.
+	 */
+	void paraCadaOrdenado(Visitante visitante) {
+		long[] ordenadas = new long[tamanho];
+		int n = 0;
+		for (long chave : chaves) {
+			if (chave != VAZIA) {
+				ordenadas[n++] = chave;
+			}
+		}
+		Arrays.sort(ordenadas);
+
+		for (long chave : ordenadas) {
+			int i = posicao(chave);
+			visitante.visita(chave, somas[i], linhas[i]);
+		}
+	}
+
+	//Posição da chave, ou da posição vazia onde ela deve ser inserida
+	private int posicao(long chave) {
+		int i = (int) ConjuntoCNPJ.espalha(chave) & mascara;
+		while (chaves[i] != VAZIA && chaves[i] != chave) {
+			i = (i + 1) & mascara;
+		}
+		return i;
+	}
+
+	private void redimensiona() {
+		long[] chavesAntigas = chaves;
+		long[] somasAntigas = somas;
+		long[] linhasAntigas = linhas;
+		aloca(2 * chavesAntigas.length);
+
+		for (int i = 0; i < chavesAntigas.length; i++) {
+			if (chavesAntigas[i] != VAZIA) {
+				int j = posicao(chavesAntigas[i]);
+				chaves[j] = chavesAntigas[i];
+				somas[j] = somasAntigas[i];
+				linhas[j] = linhasAntigas[i];
+			}
+		}
+	}
+
+	private void aloca(int capacidade) {
+		if (capacidade <= 0) {
+			throw new IllegalStateException("Número de chaves grande demais.");
+		}
+		chaves = new long[capacidade];
+		Arrays.fill(chaves, VAZIA);
+		somas = new long[capacidade];
+		linhas = new long[capacidade];
+		mascara = capacidade - 1;
+	}
+}
@@ -0,0 +1,102 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Intervalo de bytes de um arquivo CSV que começa no início de uma linha e termina
+ * logo após uma quebra de linha (ou no fim do arquivo), podendo ser processado
+ * de forma independente dos demais trechos do mesmo arquivo.
+ */
+final class TrechoArquivo {
+	private static final int TAMANHO_BUSCA = 8 * 1024;
+
+	private final Path arquivo;
+	private final long inicio;
+	private final long fim;
+
+	TrechoArquivo(Path arquivo, long inicio, long fim) {
+		this.arquivo = arquivo;
+		this.inicio = inicio;
+		this.fim = fim;
+	}
+
+	Path getArquivo() {
+		return arquivo;
+	}
+
+	long getInicio() {
+		return inicio;
+	}
+
+	long getFim() {
+		return fim;
+	}
+
+	long getTamanho() {
+		return fim - inicio;
+	}
+
+	/**
+	 * Mapeia os bytes do trecho em memória, somente para leitura.
+	 */
+	ByteBuffer mapeia() throws IOException {
+		try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ);) {
+			return canal.map(FileChannel.MapMode.READ_ONLY, inicio, getTamanho());
+		}
+	}
+
+	/**
+	 * Divide o arquivo em trechos de aproximadamente {@code tamanhoMaximo} bytes,
+	 * alinhados em quebras de linha. A primeira linha (cabeçalho) não faz parte de nenhum trecho.
+	 */
+	static List<TrechoArquivo> divide(Path arquivo, long tamanhoMaximo) throws IOException {
+		return divide(arquivo, tamanhoMaximo, true);
+	}
+
+	static List<TrechoArquivo> divide(Path arquivo, long tamanhoMaximo, boolean pulaCabecalho) throws IOException {
+		List<TrechoArquivo> trechos = new ArrayList<>();
+
+		try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ);) {
+			long tamanho = canal.size();
+			long inicio = pulaCabecalho ? fimDaLinha(canal, 0, tamanho) : 0;
+
+			while (inicio < tamanho) {
+				long fim = inicio + tamanhoMaximo >= tamanho ? tamanho : fimDaLinha(canal, inicio + tamanhoMaximo - 1, tamanho);
+				trechos.add(new TrechoArquivo(arquivo, inicio, fim));
+				inicio = fim;
+			}
+		}
+
+		return trechos;
+	}
+
+	/**
+	 * Retorna a posição seguinte à primeira quebra de linha encontrada a partir de {@code posicao},
+	 * ou o tamanho do arquivo se não houver mais quebras.
+	 */
+	private static long fimDaLinha(FileChannel canal, long posicao, long tamanho) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_BUSCA);
+
+		while (posicao < tamanho) {
+			buffer.clear();
+			int lidos = canal.read(buffer, posicao);
+			if (lidos <= 0) {
+				break;
+			}
+			for (int i = 0; i < lidos; i++) {
+				if (buffer.get(i) == '\n') {
+					return posicao + i + 1;
+				}
+			}
+			posicao += lidos;
+		}
+
+		return tamanho;
+	}
+}
@@ -0,0 +1,93 @@
+package com.ric.dadosAbertos.pgfn;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executa tarefas de varredura em um conjunto de threads e entrega os resultados,
+ * na thread que submete as tarefas, a um consumidor único.
+ *
+ * O número de tarefas em andamento é limitado a duas por thread, de forma que a memória
+ * ocupada pelos resultados ainda não consumidos fique limitada.
+ * Se a saída for ordenada, os resultados são entregues na ordem de submissão;
+ * caso contrário, na ordem em que ficam prontos.
+ */
+final class VarreduraParalela<R> implements AutoCloseable {
+	@FunctionalInterface
+	interface Consumidor<R> {
+		void consome(R resultado) throws IOException;
+	}
+
+	private final ExecutorService executor;
+	private final CompletionService<R> conclusoes;
+	private final Deque<Future<R>> pendentes = new ArrayDeque<>();
+	private final int janela;
+	private final boolean ordenada;
+	private final Consumidor<R> consumidor;
+
+	VarreduraParalela(int threads, boolean ordenada, Consumidor<R> consumidor) {
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.conclusoes = new ExecutorCompletionService<>(executor);
+		this.janela = 2 * threads;
+		this.ordenada = ordenada;
+		this.consumidor = consumidor;
+	}
+
+	void submete(Callable<R> tarefa) throws IOException {
+		if (pendentes.size() >= janela) {
+			consomeProximo();
+		}
+		//Na saída ordenada os resultados são retirados pela fila de pendentes, e não pelo CompletionService
+		pendentes.addLast(ordenada ? executor.submit(tarefa) : conclusoes.submit(tarefa));
+	}
+
+	/**
+	 * Aguarda a conclusão de todas as tarefas submetidas, entregando seus resultados ao consumidor.
+	 */
+	void aguarda() throws IOException {
+		while (!pendentes.isEmpty()) {
+			consomeProximo();
+		}
+	}
+
+	private void consomeProximo() throws IOException {
+		try {
+			Future<R> proximo;
+			if (ordenada) {
+				proximo = pendentes.removeFirst();
+			} else {
+				proximo = conclusoes.take();
+				pendentes.remove(proximo);
+			}
+			consumidor.consome(proximo.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable causa = e.getCause();
+			if (causa instanceof IOException) {
+				throw (IOException) causa;
+			} else if (causa instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) causa).getCause();
+			} else if (causa instanceof RuntimeException) {
+				throw (RuntimeException) causa;
+			} else {
+				throw new RuntimeException(causa);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}